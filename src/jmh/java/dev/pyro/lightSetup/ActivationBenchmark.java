@@ -0,0 +1,135 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks activating and deactivating a lamp while many other lamps are active.
+ * Each operation performs the same steps as {@link LampManager#activateLampWithTicks} and
+ * {@link LampManager#deactivateLamp}: index update, scheduling, block write and a write-behind change
+ * queued to a real {@link LampPersistence} in a temporary folder.
+ * {@link LampManager} itself cannot be built here, because its constructor starts Bukkit tasks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActivationBenchmark {
+    private static final int TICKS = 20;
+
+    @Param({"1000", "100000"})
+    public int lamps;
+
+    private Path folder;
+    private UUID uid;
+    private World world;
+    private BlockData unlitData;
+    private LampIndex index;
+    private LampScheduler scheduler;
+    private LampTask task;
+    private LampPersistence persistence;
+    private int worldId;
+    private int cursor;
+
+    /**
+     * Activates the background lamps.
+     *
+     * @throws IOException if the temporary folder cannot be created
+     */
+    @Setup
+    public void setup() throws IOException {
+        folder = Stubs.tempFolder();
+        uid = UUID.randomUUID();
+        world = Stubs.world(uid, "world", Material.REDSTONE_LAMP);
+        BlockData litData = Stubs.of(BlockData.class);
+        unlitData = Stubs.of(BlockData.class);
+        LampRenderer renderer = (w, x, y, z, lit) ->
+                w.getBlockAt(x, y, z).setBlockData(lit ? litData : unlitData, false);
+
+        LampMetrics metrics = new LampMetrics();
+        index = new LampIndex(lamps);
+        Plugin plugin = Stubs.plugin(folder.toFile());
+        task = new LampTask(index, renderer, metrics, plugin.getLogger(), id -> world);
+        scheduler = new LampScheduler(null, index, task, metrics);
+        persistence = new LampPersistence(plugin, new LampStore(folder, plugin.getLogger(), 1.0), metrics, 100, 256);
+        persistence.load();
+
+        worldId = index.worldId(uid);
+        for (int i = 0; i < lamps; i++) {
+            activate(BlockKey.pack((i % 1000) * 3, 64, (i / 1000) * 3));
+        }
+    }
+
+    /**
+     * Closes the persistence and deletes the temporary folder.
+     *
+     * @throws IOException if the folder cannot be deleted
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        persistence.close(5000);
+        Stubs.delete(folder);
+    }
+
+    /**
+     * Activates a lamp that is not active yet and deactivates it again.
+     *
+     * @return the slot used by the lamp
+     */
+    @Benchmark
+    public int activateThenDeactivate() {
+        long key = BlockKey.pack(cursor++ & 1023, 65, -1);
+        int slot = activate(key);
+        deactivate(key);
+        task.flush();
+        return slot;
+    }
+
+    /**
+     * Activates a lamp the way {@link LampManager#activateLampWithTicks} does.
+     *
+     * @param key the packed coordinates of the lamp
+     * @return the slot of the lamp
+     */
+    private int activate(long key) {
+        int phase = scheduler.phaseStartingNextTick(TICKS);
+        int slot = index.add(worldId, key, TICKS, phase);
+        scheduler.resume(slot);
+        persistence.saveLamp(new LampRecord(new LampKey(uid, key), TICKS, phase));
+        return slot;
+    }
+
+    /**
+     * Deactivates a lamp the way {@link LampManager#deactivateLamp} does.
+     *
+     * @param key the packed coordinates of the lamp
+     */
+    private void deactivate(long key) {
+        int slot = index.find(worldId, key);
+        scheduler.cancel(slot);
+        index.remove(slot);
+        world.getBlockAt(BlockKey.x(key), BlockKey.y(key), BlockKey.z(key)).setBlockData(unlitData);
+        persistence.removeLamp(new LampKey(uid, key));
+    }
+}
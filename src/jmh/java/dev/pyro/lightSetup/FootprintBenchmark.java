@@ -0,0 +1,82 @@
+package dev.pyro.lightSetup;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building the lamp index and timing wheel for a large number of lamps,
+ * and reports their heap footprint as secondary results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FootprintBenchmark {
+    @Param({"100000", "1000000"})
+    public int lamps;
+
+    /**
+     * Heap footprint of the structures built by the last invocation.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long indexBytes;
+        public long wheelBytes;
+        public long bytesPerLamp;
+
+        /**
+         * Clears the counters before every iteration.
+         */
+        @Setup(Level.Iteration)
+        public void reset() {
+            indexBytes = 0;
+            wheelBytes = 0;
+            bytesPerLamp = 0;
+        }
+    }
+
+    /**
+     * Indexes and schedules the lamps in one world, spread over many chunks.
+     *
+     * @param footprint the counters receiving the footprint
+     * @return the number of indexed lamps
+     */
+    @Benchmark
+    public int build(Footprint footprint) {
+        LampIndex index = new LampIndex(256);
+        TimingWheel wheel = new TimingWheel(0, 256);
+        int worldId = index.worldId(UUID.randomUUID());
+        Random random = new Random(42);
+
+        for (int i = 0; i < lamps; i++) {
+            int period = 1 + random.nextInt(40);
+            int slot = index.add(worldId, BlockKey.pack((i % 1000) * 3, 64 + i / 1000000, (i / 1000 % 1000) * 3),
+                    period, random.nextInt(2 * period));
+            wheel.ensureCapacity(slot + 1);
+            wheel.schedule(slot, 1 + random.nextInt(period));
+        }
+
+        footprint.indexBytes = index.memoryFootprint();
+        footprint.wheelBytes = wheel.memoryFootprint();
+        footprint.bytesPerLamp = (footprint.indexBytes + footprint.wheelBytes) / lamps;
+        return index.size();
+    }
+}
@@ -0,0 +1,63 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the string keys of the legacy 'lamps' section of config.yml.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationBenchmark {
+    private World world;
+    private Location location;
+    private String serialized;
+
+    /**
+     * Creates the location and its serialized form.
+     */
+    @Setup
+    public void setup() {
+        world = Stubs.world(UUID.randomUUID(), "world", Material.REDSTONE_LAMP);
+        location = new Location(world, 1234, 64, -5678);
+        serialized = LampManager.serializeLocation(location);
+    }
+
+    /**
+     * Serializes a location.
+     *
+     * @return the serialized location
+     */
+    @Benchmark
+    public String serialize() {
+        return LampManager.serializeLocation(location);
+    }
+
+    /**
+     * Deserializes a location.
+     *
+     * @return the deserialized location
+     */
+    @Benchmark
+    public Location deserialize() {
+        return LampManager.deserializeLocation(serialized, name -> world);
+    }
+}
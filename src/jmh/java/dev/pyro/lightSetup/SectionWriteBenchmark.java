@@ -0,0 +1,217 @@
+package dev.pyro.lightSetup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks writing the lamps due in one tick, in the order the scheduler finds them and grouped by
+ * chunk section with a {@link SectionBatch}.
+ * The world is a model of what a block write costs on the server: a chunk lookup in a hash map, then a write
+ * into the 4096-entry state array of a 16x16x16 section. Written per lamp, every write looks its chunk up and
+ * jumps to a random section; grouped, the chunk is looked up once and the writes of a section are adjacent.
+ * The due lamps are spread at random over {@code chunks} chunks and four sections of height.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SectionWriteBenchmark {
+    @Param({"1000", "20000"})
+    public int lamps;
+
+    @Param({"16", "1024"})
+    public int chunks;
+
+    private ModelWorld world;
+    private SectionBatch batch;
+    private SectionBatch.Sink sink;
+    private int[] xs;
+    private int[] ys;
+    private int[] zs;
+    private boolean lit;
+
+    /**
+     * Places the due lamps at random positions and loads the chunks holding them.
+     */
+    @Setup
+    public void setup() {
+        int side = (int) Math.ceil(Math.sqrt(chunks));
+        world = new ModelWorld();
+        for (int i = 0; i < chunks; i++) {
+            world.load(i % side, i / side);
+        }
+
+        Random random = new Random(42);
+        xs = new int[lamps];
+        ys = new int[lamps];
+        zs = new int[lamps];
+        for (int i = 0; i < lamps; i++) {
+            int chunk = random.nextInt(chunks);
+            xs[i] = (chunk % side) * 16 + random.nextInt(16);
+            ys[i] = 64 + random.nextInt(64);
+            zs[i] = (chunk / side) * 16 + random.nextInt(16);
+        }
+
+        batch = new SectionBatch();
+        sink = new SectionBatch.Sink() {
+            private ModelChunk chunk;
+
+            @Override
+            public void chunk(int chunkX, int chunkZ) {
+                chunk = world.chunkAt(chunkX, chunkZ);
+            }
+
+            @Override
+            public void write(int x, int y, int z, int value) {
+                chunk.set(x, y, z, value);
+            }
+        };
+    }
+
+    /**
+     * Writes every due lamp in scheduler order, looking its chunk up for each write.
+     *
+     * @return the number of times the write moved to another section
+     */
+    @Benchmark
+    public int dueOrder() {
+        int state = nextState();
+        for (int i = 0; i < lamps; i++) {
+            world.set(xs[i], ys[i], zs[i], state);
+        }
+        return world.takeSwitches();
+    }
+
+    /**
+     * Collects every due lamp in a {@link SectionBatch} and writes them chunk by chunk, section by section.
+     *
+     * @return the number of times the write moved to another section
+     */
+    @Benchmark
+    public int sectionOrder() {
+        int state = nextState();
+        for (int i = 0; i < lamps; i++) {
+            batch.add(xs[i], ys[i], zs[i], state);
+        }
+        batch.drain(sink);
+        return world.takeSwitches();
+    }
+
+    /**
+     * Flips the state written by the next call, so every call changes every lamp.
+     *
+     * @return the state to write
+     */
+    private int nextState() {
+        lit = !lit;
+        return lit ? 1 : 0;
+    }
+
+    /**
+     * World made of loaded chunks kept in a hash map by chunk key, like the chunk map of the server.
+     */
+    private static class ModelWorld {
+        private final Map<Long, ModelChunk> loaded = new HashMap<>();
+        private byte[] lastSection;
+        private int switches;
+
+        /**
+         * Loads an empty chunk.
+         *
+         * @param chunkX the chunk x coordinate
+         * @param chunkZ the chunk z coordinate
+         */
+        void load(int chunkX, int chunkZ) {
+            loaded.put(BlockKey.chunkKey(chunkX, chunkZ), new ModelChunk(this));
+        }
+
+        /**
+         * Looks a loaded chunk up.
+         *
+         * @param chunkX the chunk x coordinate
+         * @param chunkZ the chunk z coordinate
+         * @return the chunk
+         */
+        ModelChunk chunkAt(int chunkX, int chunkZ) {
+            return loaded.get(BlockKey.chunkKey(chunkX, chunkZ));
+        }
+
+        /**
+         * Writes a block, looking its chunk up first.
+         *
+         * @param x the block x coordinate
+         * @param y the block y coordinate
+         * @param z the block z coordinate
+         * @param state the block state
+         */
+        void set(int x, int y, int z, int state) {
+            chunkAt(x >> 4, z >> 4).set(x, y, z, state);
+        }
+
+        /**
+         * Gets and resets the number of times a write moved to another section since the last call.
+         *
+         * @return the number of section switches
+         */
+        int takeSwitches() {
+            int count = switches;
+            switches = 0;
+            return count;
+        }
+    }
+
+    /**
+     * Chunk of 24 sections, each created on its first write.
+     */
+    private static class ModelChunk {
+        private final ModelWorld world;
+        private final byte[][] sections = new byte[24][];
+
+        /**
+         * Constructs a new empty ModelChunk.
+         *
+         * @param world the world counting the section switches
+         */
+        ModelChunk(ModelWorld world) {
+            this.world = world;
+        }
+
+        /**
+         * Writes a block into its section, counting a switch if the previous write went to another section.
+         *
+         * @param x the block x coordinate
+         * @param y the block y coordinate
+         * @param z the block z coordinate
+         * @param state the block state
+         */
+        void set(int x, int y, int z, int state) {
+            int sectionY = (y >> 4) + 4;
+            byte[] section = sections[sectionY];
+            if (section == null) {
+                section = new byte[4096];
+                sections[sectionY] = section;
+            }
+            section[(y & 15) << 8 | (z & 15) << 4 | (x & 15)] = (byte) state;
+            if (section != world.lastSection) {
+                world.lastSection = section;
+                world.switches++;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import java.util.logging.StreamHandler;
+
+/**
+ * Benchmarks stopping the plugin with every lamp indexed and a few changes still waiting to be written.
+ * {@link #flushOnly()} is the current shutdown: the final flush of the lamp store, then the index is cleared.
+ * {@link #resetBlocks()} is the previous one: an INFO line logged per lamp before the same flush, and every lamp
+ * block set to OFF after it. The log goes through a real handler into a discarded stream, so formatting is counted;
+ * the stub world only counts the block writes, which cost far more on a server, where they load and relight chunks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class ShutdownBenchmark {
+    @Param({"100000"})
+    public int lamps;
+
+    @Param({"100"})
+    public int pending;
+
+    private Path folder;
+    private UUID uid;
+    private World world;
+    private Plugin plugin;
+    private Logger logger;
+    private BlockData offData;
+    private LampIndex index;
+    private LampPersistence persistence;
+
+    /**
+     * Writes the lamps to a store in a temporary folder.
+     *
+     * @throws IOException if the store cannot be written
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = Stubs.tempFolder();
+        uid = UUID.randomUUID();
+        world = Stubs.world(uid, "world", Material.REDSTONE_LAMP);
+        plugin = Stubs.plugin(folder.toFile());
+        offData = Stubs.of(BlockData.class);
+
+        logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new StreamHandler(OutputStream.nullOutputStream(), new SimpleFormatter()));
+
+        Map<LampKey, LampRecord> records = new HashMap<>();
+        for (int i = 0; i < lamps; i++) {
+            LampKey key = new LampKey(uid, position(i));
+            records.put(key, new LampRecord(key, 1 + i % 40, i % 80));
+        }
+        LampStore store = new LampStore(folder, logger, 1.0);
+        store.replaceAll(records);
+        store.close();
+    }
+
+    /**
+     * Indexes every lamp and opens the lamp store with some changes not written yet, as on a running server.
+     */
+    @Setup(Level.Invocation)
+    public void start() {
+        index = new LampIndex(lamps);
+        int worldId = index.worldId(uid);
+        for (int i = 0; i < lamps; i++) {
+            int slot = index.add(worldId, position(i), 1 + i % 40, i % 80);
+            index.setLit(slot, i % 2 == 0);
+        }
+
+        persistence = new LampPersistence(plugin, new LampStore(folder, logger, 1.0), new LampMetrics(), 100, 256);
+        for (int i = 0; i < pending; i++) {
+            persistence.saveLamp(new LampRecord(new LampKey(uid, position(i)), 1 + i % 40, i % 80));
+        }
+    }
+
+    /**
+     * Deletes the temporary folder.
+     *
+     * @throws IOException if the folder cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Stubs.delete(folder);
+    }
+
+    /**
+     * Stops the lamps with the final flush only, leaving the blocks as they are.
+     *
+     * @return true if every pending change was written
+     */
+    @Benchmark
+    public boolean flushOnly() {
+        boolean saved = persistence.close(5000);
+        index.clear();
+        return saved;
+    }
+
+    /**
+     * Stops the lamps the way shutdown worked before: a log line per lamp, the final flush, then a block write
+     * per lamp setting it to OFF.
+     *
+     * @return true if every pending change was written
+     */
+    @Benchmark
+    public boolean resetBlocks() {
+        for (int slot = 0; slot < index.slotLimit(); slot++) {
+            if (index.isUsed(slot)) {
+                long position = index.position(slot);
+                logger.info("Salvata lampada: " + index.world(index.worldOf(slot)) + ":" + BlockKey.x(position) + ":"
+                        + BlockKey.y(position) + ":" + BlockKey.z(position) + " con " + index.period(slot) + " tick");
+            }
+        }
+        boolean saved = persistence.close(5000);
+
+        for (int slot = 0; slot < index.slotLimit(); slot++) {
+            if (index.isUsed(slot)) {
+                long position = index.position(slot);
+                world.setBlockData(BlockKey.x(position), BlockKey.y(position), BlockKey.z(position), offData);
+            }
+        }
+        index.clear();
+        return saved;
+    }
+
+    /**
+     * Gets the position of a lamp, laid out in rows of 1000 lamps, one block apart.
+     *
+     * @param i the number of the lamp
+     * @return the coordinates packed with {@link BlockKey}
+     */
+    private static long position(int i) {
+        return BlockKey.pack((i % 1000) * 2, 64, (i / 1000) * 2);
+    }
+}
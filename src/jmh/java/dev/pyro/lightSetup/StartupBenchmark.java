@@ -0,0 +1,157 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Benchmarks loading the stored lamps at startup, from reading the store to every lamp being scheduled.
+ * {@link #loader()} runs a real {@link LampLoader} on a platform that runs every task inline, calling it once per
+ * simulated tick until it is done, so the score is the total work and not the number of ticks it is spread over.
+ * {@link #blocking()} is the previous approach: a blocking read, then one block lookup per lamp on the main thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StartupBenchmark {
+    @Param({"50000"})
+    public int lamps;
+
+    private Path folder;
+    private UUID uid;
+    private World world;
+    private Plugin plugin;
+    private Logger logger;
+    private LampPlatform platform;
+    private LampRenderer renderer;
+
+    /**
+     * Writes the lamps to a store in a temporary folder.
+     *
+     * @throws IOException if the store cannot be written
+     */
+    @Setup
+    public void setup() throws IOException {
+        folder = Stubs.tempFolder();
+        uid = UUID.randomUUID();
+        logger = Logger.getAnonymousLogger();
+        logger.setLevel(Level.WARNING);
+        plugin = Stubs.plugin(folder.toFile());
+        platform = Stubs.inlinePlatform();
+
+        ChunkSnapshot snapshot = Stubs.of(ChunkSnapshot.class, Map.of("getBlockType", Material.REDSTONE_LAMP));
+        Chunk chunk = Stubs.of(Chunk.class, Map.of("getChunkSnapshot", snapshot));
+        Map<String, Object> values = new HashMap<>();
+        values.put("getUID", uid);
+        values.put("getName", "world");
+        values.put("getType", Material.REDSTONE_LAMP);
+        values.put("isChunkLoaded", true);
+        values.put("getChunkAtAsync", CompletableFuture.completedFuture(chunk));
+        world = Stubs.of(World.class, values);
+
+        BlockData litData = Stubs.of(BlockData.class);
+        BlockData unlitData = Stubs.of(BlockData.class);
+        renderer = (w, x, y, z, lit) -> w.setBlockData(x, y, z, lit ? litData : unlitData);
+
+        Map<LampKey, LampRecord> records = new HashMap<>();
+        for (int i = 0; i < lamps; i++) {
+            LampKey key = new LampKey(uid, BlockKey.pack((i % 1000) * 3, 64, (i / 1000) * 3));
+            records.put(key, new LampRecord(key, 1 + i % 40, i % 80));
+        }
+        LampStore store = new LampStore(folder, logger, 1.0);
+        store.replaceAll(records);
+        store.close();
+    }
+
+    /**
+     * Deletes the temporary folder.
+     *
+     * @throws IOException if the folder cannot be deleted
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        Stubs.delete(folder);
+    }
+
+    /**
+     * Loads the lamps with a {@link LampLoader}, checking every chunk against a snapshot.
+     *
+     * @return the number of lamps loaded
+     */
+    @Benchmark
+    public int loader() {
+        LampMetrics metrics = new LampMetrics();
+        LampIndex index = new LampIndex(256);
+        LampScheduler scheduler = new LampScheduler(platform, index, new LampTask(index, renderer, metrics, logger, id -> world), metrics);
+        LampPersistence persistence = new LampPersistence(plugin, new LampStore(folder, logger, 1.0), metrics, 100, 256);
+        try {
+            LampLoader loader = new LampLoader(platform, index, scheduler, persistence, new PatternRegistry(), new LampGroups(),
+                    (w, x, z) -> true, logger, false, 16, 5000, id -> world);
+            loader.prepare(persistence.loadAsync().join(), List.of());
+            loader.start();
+            while (!loader.isDone()) {
+                loader.run();
+            }
+            return loader.getLoaded();
+        } finally {
+            persistence.close(5000);
+        }
+    }
+
+    /**
+     * Loads the lamps the way startup worked before {@link LampLoader}: a blocking read of the store,
+     * then a block type lookup and a registration per lamp.
+     *
+     * @return the number of lamps loaded
+     */
+    @Benchmark
+    public int blocking() {
+        LampMetrics metrics = new LampMetrics();
+        LampIndex index = new LampIndex(256);
+        LampScheduler scheduler = new LampScheduler(platform, index, new LampTask(index, renderer, metrics, logger, id -> world), metrics);
+        LampPersistence persistence = new LampPersistence(plugin, new LampStore(folder, logger, 1.0), metrics, 100, 256);
+        try {
+            int loaded = 0;
+            for (LampRecord record : persistence.load().values()) {
+                long position = record.key().position();
+                int slot = index.add(index.worldId(uid), position, record.period(), record.phase());
+                if (world.getType(BlockKey.x(position), BlockKey.y(position), BlockKey.z(position)) == Material.REDSTONE_LAMP) {
+                    scheduler.resume(slot);
+                    loaded++;
+                }
+            }
+            return loaded;
+        } finally {
+            persistence.close(5000);
+        }
+    }
+}
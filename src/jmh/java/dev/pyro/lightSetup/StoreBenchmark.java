@@ -0,0 +1,121 @@
+package dev.pyro.lightSetup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Benchmarks the binary {@link LampStore} with the same lamp counts as {@link YamlBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class StoreBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int lamps;
+
+    private Path folder;
+    private LampStore store;
+    private Map<LampKey, LampRecord> records;
+    private Map<LampKey, LampRecord> change;
+    private int cursor;
+
+    /**
+     * Creates the lamps and writes them to a new store.
+     *
+     * @throws IOException if the store cannot be written
+     */
+    @Setup
+    public void setup() throws IOException {
+        folder = Stubs.tempFolder();
+        store = new LampStore(folder, Logger.getLogger("LightSetup"), 1.0);
+        records = new HashMap<>();
+        UUID world = UUID.randomUUID();
+        for (int i = 0; i < lamps; i++) {
+            LampKey key = new LampKey(world, BlockKey.pack((i % 1000) * 3, 64, (i / 1000) * 3));
+            records.put(key, new LampRecord(key, 1 + i % 40, 0));
+        }
+        change = new HashMap<>();
+        store.replaceAll(records);
+    }
+
+    /**
+     * Empties the journal, so appended changes do not pile up across iterations.
+     *
+     * @throws IOException if the store cannot be written
+     */
+    @Setup(Level.Iteration)
+    public void resetJournal() throws IOException {
+        store.replaceAll(records);
+    }
+
+    /**
+     * Closes the store and deletes the temporary folder.
+     *
+     * @throws IOException if the folder cannot be deleted
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        Stubs.delete(folder);
+    }
+
+    /**
+     * Writes every lamp to a new snapshot.
+     *
+     * @return the number of bytes written by the store so far
+     * @throws IOException if the store cannot be written
+     */
+    @Benchmark
+    public long save() throws IOException {
+        store.replaceAll(records);
+        return store.getBytesWritten();
+    }
+
+    /**
+     * Reads the snapshot and the journal.
+     *
+     * @return the number of lamps read
+     * @throws IOException if the store cannot be read
+     */
+    @Benchmark
+    public int load() throws IOException {
+        return store.load().size();
+    }
+
+    /**
+     * Appends a single lamp change to the journal.
+     *
+     * @return the number of bytes written by the store so far
+     * @throws IOException if the store cannot be written
+     */
+    @Benchmark
+    public long appendOne() throws IOException {
+        LampRecord record = records.values().iterator().next();
+        change.clear();
+        change.put(record.key(), new LampRecord(record.key(), 1 + (cursor++ & 31), 0));
+        store.append(change);
+        return store.getBytesWritten();
+    }
+}
@@ -0,0 +1,193 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Minimal stand-ins for the server objects used by the benchmarks.
+ * Stubs are dynamic proxies answering a fixed value per method name; every other method returns
+ * null, zero or false. The handlers never keep their arguments, so the JIT can remove the argument arrays.
+ */
+final class Stubs {
+    private Stubs() {
+    }
+
+    /**
+     * Creates a stub of an interface.
+     *
+     * @param type the interface to implement
+     * @param values the value returned by each method name
+     * @param <T> the interface type
+     * @return the stub
+     */
+    static <T> T of(Class<T> type, Map<String, Object> values) {
+        Object stub = Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return type.getSimpleName() + "Stub";
+                        default:
+                            break;
+                    }
+
+                    Object value = values.get(method.getName());
+                    return value != null ? value : defaultValue(method.getReturnType());
+                });
+        return type.cast(stub);
+    }
+
+    /**
+     * Creates a stub of an interface where every method returns its default value.
+     *
+     * @param type the interface to implement
+     * @param <T> the interface type
+     * @return the stub
+     */
+    static <T> T of(Class<T> type) {
+        return of(type, Map.of());
+    }
+
+    /**
+     * Creates a world where every block has the same type and every block lookup returns the same block.
+     *
+     * @param uid the UUID of the world
+     * @param name the name of the world
+     * @param type the type of every block
+     * @return the stub world
+     */
+    static World world(UUID uid, String name, Material type) {
+        Block block = of(Block.class, Map.of("getType", type));
+        Map<String, Object> values = new HashMap<>();
+        values.put("getUID", uid);
+        values.put("getName", name);
+        values.put("getType", type);
+        values.put("getBlockAt", block);
+        values.put("isChunkLoaded", true);
+        return of(World.class, values);
+    }
+
+    /**
+     * Creates a platform running every task immediately on the calling thread.
+     * Repeating tasks are not scheduled: benchmarks call {@link Runnable#run()} themselves, once per simulated tick.
+     *
+     * @return the platform
+     */
+    static LampPlatform inlinePlatform() {
+        return new LampPlatform() {
+            @Override
+            public boolean isRegionThreaded() {
+                return false;
+            }
+
+            @Override
+            public Handle runRepeating(Runnable task, long delayTicks, long periodTicks) {
+                return () -> {
+                };
+            }
+
+            @Override
+            public void runOnLampThread(Runnable task) {
+                task.run();
+            }
+
+            @Override
+            public void runAt(World world, int chunkX, int chunkZ, Runnable task) {
+                task.run();
+            }
+
+            @Override
+            public void runAsync(Runnable task) {
+                task.run();
+            }
+        };
+    }
+
+    /**
+     * Creates a plugin with a name, a logger and a data folder.
+     *
+     * @param dataFolder the data folder of the plugin
+     * @return the stub plugin
+     */
+    static Plugin plugin(File dataFolder) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("getName", "LightSetup");
+        values.put("getLogger", Logger.getLogger("LightSetup"));
+        values.put("getDataFolder", dataFolder);
+        values.put("isEnabled", true);
+        return of(Plugin.class, values);
+    }
+
+    /**
+     * Creates a temporary folder for the files written by a benchmark.
+     *
+     * @return the folder
+     * @throws IOException if the folder cannot be created
+     */
+    static Path tempFolder() throws IOException {
+        return Files.createTempDirectory("lightsetup-jmh");
+    }
+
+    /**
+     * Deletes a temporary folder and its content.
+     *
+     * @param folder the folder to delete
+     * @throws IOException if the folder cannot be listed
+     */
+    static void delete(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * Gets the value returned by a stub method that has no configured value.
+     *
+     * @param type the return type of the method
+     * @return null for objects, otherwise the zero value of the primitive type
+     */
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == double.class) {
+            return 0.0;
+        }
+        if (type == float.class) {
+            return 0.0f;
+        }
+        if (type == char.class) {
+            return (char) 0;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,344 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless soak and scale test of the lamp engine.
+ * Simulates a number of lamps with mixed periods, patterns and groups for a number of ticks, against a stub world,
+ * an inline platform and a real {@link LampPersistence} writing to a temporary folder. Every tick a few lamps are
+ * retimed, removed and added, as players would do. The simulation is run twice with the same seed and reports:
+ * <ul>
+ *     <li>the cost of a simulated tick and of the scheduler alone (p50/p99/max)</li>
+ *     <li>the bytes allocated per tick by the simulating thread</li>
+ *     <li>the bytes written by the background flushes</li>
+ *     <li>whether both runs produced the same frame trace, i.e. the same set of block writes at every tick</li>
+ * </ul>
+ * Run with {@code ./gradlew simulate -Psim.args="--lamps 1000000 --ticks 1200 --seed 42"}.
+ * The process exits with status 1 if the two runs diverge, so it can be used as a CI check.
+ */
+public final class TickSimulation {
+    private static final int PERIODS = 40;
+    private static final int GROUPS = 20;
+    private static final int SPREAD = 4096;
+
+    /**
+     * Results of one simulation run.
+     *
+     * @param frames the hash of the block writes of every tick
+     * @param tickNanos the time spent per simulated tick, including the lamp changes
+     * @param schedulerNanos the time spent per tick by the scheduler alone
+     * @param allocatedBytes the bytes allocated by the simulating thread during the measured ticks
+     * @param persistedBytes the bytes written by the background flushes
+     * @param toggles the number of block writes
+     */
+    record Result(long[] frames, Histogram tickNanos, Histogram schedulerNanos, long allocatedBytes,
+                  long persistedBytes, long toggles) {
+    }
+
+    private final int lamps;
+    private final int ticks;
+    private final int warmup;
+    private final int churn;
+    private final long seed;
+
+    /**
+     * Constructs a new TickSimulation.
+     *
+     * @param lamps the number of lamps
+     * @param ticks the number of measured ticks
+     * @param warmup the number of ticks run before measuring
+     * @param churn the number of lamps retimed, removed and added per tick
+     * @param seed the seed of the lamp layout and of the changes
+     */
+    TickSimulation(int lamps, int ticks, int warmup, int churn, long seed) {
+        this.lamps = lamps;
+        this.ticks = ticks;
+        this.warmup = warmup;
+        this.churn = churn;
+        this.seed = seed;
+    }
+
+    /**
+     * Runs the simulation twice and prints the report.
+     *
+     * @param args {@code --lamps}, {@code --ticks}, {@code --warmup}, {@code --churn} and {@code --seed}
+     * @throws IOException if the temporary store cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        int lamps = 100_000;
+        int ticks = 1200;
+        int warmup = 200;
+        int churn = 10;
+        long seed = 42;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--lamps" -> lamps = Integer.parseInt(args[i + 1]);
+                case "--ticks" -> ticks = Integer.parseInt(args[i + 1]);
+                case "--warmup" -> warmup = Integer.parseInt(args[i + 1]);
+                case "--churn" -> churn = Integer.parseInt(args[i + 1]);
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        TickSimulation simulation = new TickSimulation(lamps, ticks, warmup, churn, seed);
+        Result first = simulation.run();
+        Result second = simulation.run();
+
+        System.out.printf("lamps=%d ticks=%d warmup=%d churn=%d seed=%d%n", lamps, ticks, warmup, churn, seed);
+        print("tick", first.tickNanos());
+        print("scheduler", first.schedulerNanos());
+        System.out.printf("toggles/tick: %.1f%n", (double) first.toggles() / ticks);
+        System.out.printf("allocated: %d B/tick%n", first.allocatedBytes() / Math.max(1, ticks));
+        System.out.printf("persisted: %d B (%d B/tick)%n", first.persistedBytes(),
+                first.persistedBytes() / Math.max(1, ticks));
+
+        int diverged = firstDifference(first.frames(), second.frames());
+        if (diverged >= 0) {
+            System.out.println("determinism: FAILED, runs diverge at tick " + diverged);
+            System.exit(1);
+        }
+        System.out.println("determinism: ok, trace " + Long.toHexString(traceHash(first.frames())));
+    }
+
+    /**
+     * Runs the simulation once.
+     *
+     * @return the results of the run
+     * @throws IOException if the temporary store cannot be written
+     */
+    Result run() throws IOException {
+        Path folder = Stubs.tempFolder();
+        Plugin plugin = Stubs.plugin(folder.toFile());
+        Logger.getLogger("LightSetup").setLevel(Level.WARNING);
+        UUID uid = new UUID(seed, 0);
+        World world = Stubs.world(uid, "world", Material.REDSTONE_LAMP);
+        long[] frame = new long[1];
+        long[] toggles = new long[1];
+        LampRenderer renderer = (w, x, y, z, lit) -> {
+            frame[0] += mix(BlockKey.pack(x, y, z) * 31 + (lit ? 1 : 0));
+            toggles[0]++;
+        };
+
+        LampMetrics metrics = new LampMetrics();
+        LampIndex index = new LampIndex(lamps);
+        LampScheduler scheduler = new LampScheduler(Stubs.inlinePlatform(), index,
+                new LampTask(index, renderer, metrics, plugin.getLogger(), id -> world), metrics);
+        LampPersistence persistence = new LampPersistence(plugin, new LampStore(folder, plugin.getLogger(), 1.0),
+                metrics, 100, 256);
+        Histogram tickNanos = new Histogram();
+        long[] frames = new long[ticks];
+        long allocated;
+        try {
+            Random random = new Random(seed);
+            int worldId = index.worldId(uid);
+            LampPattern[] patterns = new LampPattern[PERIODS];
+            for (int i = 0; i < patterns.length; i++) {
+                patterns[i] = LampPattern.fromSequence("p" + i, "1101001000", 1 + i % 4);
+            }
+            LampGroups groups = new LampGroups();
+            LampGroup[] byId = new LampGroup[GROUPS];
+            for (int i = 0; i < byId.length; i++) {
+                int period = 1 + random.nextInt(PERIODS);
+                byId[i] = groups.create("g" + i, period, random.nextInt(2 * period), null);
+            }
+
+            List<LampRecord> records = new ArrayList<>(lamps);
+            for (int i = 0; i < lamps; i++) {
+                LampRecord record = addLamp(random, index, scheduler, groups, byId, patterns, uid, worldId);
+                if (record != null) {
+                    records.add(record);
+                }
+            }
+            persistence.importLamps(records);
+
+            for (int i = 0; i < warmup; i++) {
+                simulateTick(random, index, scheduler, persistence, groups, byId, patterns, uid, worldId);
+            }
+
+            toggles[0] = 0;
+            metrics.reset();
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < ticks; i++) {
+                frame[0] = 0;
+                long start = System.nanoTime();
+                simulateTick(random, index, scheduler, persistence, groups, byId, patterns, uid, worldId);
+                tickNanos.record(System.nanoTime() - start);
+                frames[i] = frame[0];
+            }
+            allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        } finally {
+            persistence.close(30_000);
+            Stubs.delete(folder);
+        }
+        return new Result(frames, tickNanos, metrics.getTickNanos(), allocated, metrics.getBytesWritten(), toggles[0]);
+    }
+
+    /**
+     * Applies the changes of one tick, then runs the scheduler.
+     * Each change retimes a lamp, removes a lamp and adds a new one.
+     *
+     * @param random the source of the changes
+     * @param index the lamp index
+     * @param scheduler the lamp scheduler
+     * @param persistence the persistence receiving the changes
+     * @param groups the lamp groups
+     * @param byId the groups by number
+     * @param patterns the patterns by period
+     * @param uid the UUID of the world
+     * @param worldId the world id
+     */
+    private void simulateTick(Random random, LampIndex index, LampScheduler scheduler, LampPersistence persistence,
+                              LampGroups groups, LampGroup[] byId, LampPattern[] patterns, UUID uid, int worldId) {
+        for (int i = 0; i < churn && index.size() > 0; i++) {
+            int slot = randomSlot(random, index);
+            if (index.group(slot) == null) {
+                int period = 1 + random.nextInt(PERIODS);
+                index.add(worldId, index.position(slot), period, scheduler.phaseStartingNextTick(period));
+                scheduler.resume(slot);
+                persistence.saveLamp(new LampRecord(new LampKey(uid, index.position(slot)), period, index.phase(slot)));
+            }
+
+            slot = randomSlot(random, index);
+            LampKey key = new LampKey(uid, index.position(slot));
+            scheduler.cancel(slot);
+            if (index.group(slot) != null) {
+                index.group(slot).detach(slot);
+                groups.removeMember(key);
+            } else {
+                persistence.removeLamp(key);
+            }
+            index.remove(slot);
+
+            LampRecord record = addLamp(random, index, scheduler, groups, byId, patterns, uid, worldId);
+            if (record != null) {
+                persistence.saveLamp(record);
+            }
+        }
+        scheduler.run();
+    }
+
+    /**
+     * Adds a lamp at a random free position: one in twenty joins a group, one in ten uses a pattern,
+     * and the others blink with a random period.
+     *
+     * @param random the source of the lamp
+     * @param index the lamp index
+     * @param scheduler the lamp scheduler
+     * @param groups the lamp groups
+     * @param byId the groups by number
+     * @param patterns the patterns by period
+     * @param uid the UUID of the world
+     * @param worldId the world id
+     * @return the record of the lamp, or null if it joined a group
+     */
+    private static LampRecord addLamp(Random random, LampIndex index, LampScheduler scheduler, LampGroups groups,
+                                      LampGroup[] byId, LampPattern[] patterns, UUID uid, int worldId) {
+        long position;
+        do {
+            position = BlockKey.pack(random.nextInt(SPREAD) - SPREAD / 2, 1 + random.nextInt(254),
+                    random.nextInt(SPREAD) - SPREAD / 2);
+        } while (index.find(worldId, position) >= 0);
+
+        int kind = random.nextInt(20);
+        int period = 1 + random.nextInt(PERIODS);
+        if (kind == 0) {
+            LampGroup group = byId[random.nextInt(byId.length)];
+            int slot = index.add(worldId, position, group.period(), group.phase(), group.pattern());
+            index.setGroup(slot, group);
+            group.attach(slot);
+            groups.addMember(group, new LampKey(uid, position));
+            scheduler.resume(slot);
+            return null;
+        }
+
+        LampPattern pattern = kind <= 2 ? patterns[period - 1] : null;
+        int phase = pattern != null ? random.nextInt(pattern.length()) : random.nextInt(2 * period);
+        int slot = index.add(worldId, position, period, phase, pattern);
+        scheduler.resume(slot);
+        return new LampRecord(new LampKey(uid, position), period, phase, pattern != null ? pattern.id() : 0);
+    }
+
+    /**
+     * Picks a random indexed lamp.
+     *
+     * @param random the source of the pick
+     * @param index the lamp index
+     * @return the slot of the lamp
+     */
+    private static int randomSlot(Random random, LampIndex index) {
+        int slot;
+        do {
+            slot = random.nextInt(index.slotLimit());
+        } while (!index.isUsed(slot));
+        return slot;
+    }
+
+    /**
+     * Prints the p50, p99 and max of a histogram of nanoseconds, in microseconds.
+     *
+     * @param label the name of the histogram
+     * @param nanos the histogram
+     */
+    private static void print(String label, Histogram nanos) {
+        System.out.printf("%s: p50=%.1f us p99=%.1f us max=%.1f us%n", label,
+                nanos.percentile(50) / 1000.0, nanos.percentile(99) / 1000.0, nanos.max() / 1000.0);
+    }
+
+    /**
+     * Finds the first tick at which two traces differ.
+     *
+     * @param first the first trace
+     * @param second the second trace
+     * @return the tick, or -1 if the traces are equal
+     */
+    private static int firstDifference(long[] first, long[] second) {
+        for (int i = 0; i < Math.min(first.length, second.length); i++) {
+            if (first[i] != second[i]) {
+                return i;
+            }
+        }
+        return first.length == second.length ? -1 : Math.min(first.length, second.length);
+    }
+
+    /**
+     * Combines the frames of a trace into a single hash, to compare traces across runs and machines.
+     *
+     * @param frames the trace
+     * @return the hash of the trace
+     */
+    private static long traceHash(long[] frames) {
+        long hash = 0;
+        for (long frame : frames) {
+            hash = mix(hash ^ frame);
+        }
+        return hash;
+    }
+
+    /**
+     * Scrambles a value with the SplitMix64 finalizer. Block writes are summed after mixing, so the hash
+     * of a frame does not depend on the order in which the lamps were written.
+     *
+     * @param value the value
+     * @return the scrambled value
+     */
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,129 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Benchmarks the path run for every due lamp: the timing wheel, the state derived from the tick,
+ * the lamp index and the block write.
+ * The world is a stub whose blocks are all Redstone Lamps, and the renderer writes the same shared
+ * BlockData as {@link BlockRenderer} into a stub block. Run with {@code -prof gc} to check the allocation rate.
+ * With {@code kind=pattern} every lamp uses a {@link LampPattern} instead of a plain period, to compare the two.
+ * With {@code kind=group} the lamps sharing a period are members of one {@link LampGroup}, so the scheduler has
+ * one entry per period instead of one per lamp.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ToggleBenchmark {
+    @Param({"1000", "100000"})
+    public int lamps;
+
+    @Param({"blink", "pattern", "group"})
+    public String kind;
+
+    private LampIndex index;
+    private LampTask task;
+    private LampScheduler scheduler;
+    private int toggleSlot;
+    private long toggleTick;
+
+    /**
+     * Indexes the lamps with random periods and schedules all of them.
+     */
+    @Setup
+    public void setup() {
+        UUID uid = UUID.randomUUID();
+        World world = Stubs.world(uid, "world", Material.REDSTONE_LAMP);
+        BlockData litData = Stubs.of(BlockData.class);
+        BlockData unlitData = Stubs.of(BlockData.class);
+
+        // BlockRenderer takes its BlockData from LampState, which needs a running server to create it
+        LampRenderer renderer = (w, x, y, z, lit) ->
+                w.getBlockAt(x, y, z).setBlockData(lit ? litData : unlitData, false);
+
+        LampMetrics metrics = new LampMetrics();
+        index = new LampIndex(lamps);
+        task = new LampTask(index, renderer, metrics, Logger.getLogger("LightSetup"), id -> id.equals(uid) ? world : null);
+        scheduler = new LampScheduler(null, index, task, metrics);
+
+        boolean patterned = kind.equals("pattern");
+        LampPattern[] patterns = new LampPattern[40];
+        for (int i = 0; i < patterns.length; i++) {
+            patterns[i] = LampPattern.fromSequence("p" + i, "1101001000", 1 + i);
+        }
+
+        LampGroups groups = new LampGroups();
+        LampGroup[] byPeriod = new LampGroup[40];
+        if (kind.equals("group")) {
+            for (int i = 0; i < byPeriod.length; i++) {
+                byPeriod[i] = groups.create("g" + i, 1 + i, i, null);
+            }
+        }
+
+        int worldId = index.worldId(uid);
+        Random random = new Random(42);
+        for (int i = 0; i < lamps; i++) {
+            int period = 1 + random.nextInt(40);
+            LampPattern pattern = patterned ? patterns[period - 1] : null;
+            LampGroup group = byPeriod[period - 1];
+            long position = BlockKey.pack((i % 1000) * 3, 64, (i / 1000) * 3);
+            int phase = random.nextInt(2 * period);
+            int slot = group != null
+                    ? index.add(worldId, position, group.period(), group.phase(), null)
+                    : index.add(worldId, position, period, phase, pattern);
+            if (group != null) {
+                index.setGroup(slot, group);
+                group.attach(slot);
+                groups.addMember(group, new LampKey(uid, position));
+            }
+            scheduler.resume(slot);
+        }
+
+        toggleSlot = index.add(worldId, BlockKey.pack(-1, 64, -1), 1, 0,
+                patterned ? LampPattern.fromSequence("toggle", "10", 1) : null);
+    }
+
+    /**
+     * Toggles a single lamp whose state changes at every call, and renders it.
+     *
+     * @return whether the lamp keeps running
+     */
+    @Benchmark
+    public boolean toggle() {
+        boolean running = task.run(toggleSlot, toggleTick++);
+        task.flush();
+        return running;
+    }
+
+    /**
+     * Runs one scheduler tick, toggling every lamp that is due.
+     *
+     * @return the processed tick
+     */
+    @Benchmark
+    public long schedulerTick() {
+        scheduler.run();
+        return scheduler.currentTick();
+    }
+}
@@ -0,0 +1,119 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks reading the tick value of a wand, from its persistent data and from its lore.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WandBenchmark {
+    private ItemStack dataWand;
+    private ItemStack loreWand;
+
+    /**
+     * Creates a wand storing its ticks in persistent data and an older wand storing them only in the lore.
+     */
+    @Setup
+    public void setup() {
+        WandCreator.initialize(Stubs.plugin(new File("LightSetup")));
+
+        PersistentDataContainer data = Stubs.of(PersistentDataContainer.class,
+                Map.of("has", true, "get", 40));
+        dataWand = new StubItemStack(Stubs.of(ItemMeta.class, Map.of("getPersistentDataContainer", data)));
+
+        PersistentDataContainer empty = Stubs.of(PersistentDataContainer.class);
+        loreWand = new StubItemStack(Stubs.of(ItemMeta.class, Map.of(
+                "getPersistentDataContainer", empty,
+                "hasLore", true,
+                "getLore", List.of("§7Intervallo: 40 tick", "§7Clicca con il tasto destro su una Redstone Lamp"))));
+    }
+
+    /**
+     * Reads the ticks of a wand from its persistent data.
+     *
+     * @return the number of ticks
+     */
+    @Benchmark
+    public int fromPersistentData() {
+        return WandCreator.getWandTicks(dataWand);
+    }
+
+    /**
+     * Reads the ticks of a wand from its lore.
+     *
+     * @return the number of ticks
+     */
+    @Benchmark
+    public int fromLore() {
+        return WandCreator.getWandTicks(loreWand);
+    }
+
+    /**
+     * Stick whose meta is a stub, since real item meta needs a running server.
+     */
+    private static class StubItemStack extends ItemStack {
+        private final ItemMeta meta;
+
+        /**
+         * Constructs a new StubItemStack.
+         *
+         * @param meta the meta of the item
+         */
+        StubItemStack(ItemMeta meta) {
+            this.meta = meta;
+        }
+
+        /**
+         * Gets the type of the item.
+         *
+         * @return always {@link Material#STICK}
+         */
+        @Override
+        public Material getType() {
+            return Material.STICK;
+        }
+
+        /**
+         * Checks if the item has meta.
+         *
+         * @return always true
+         */
+        @Override
+        public boolean hasItemMeta() {
+            return true;
+        }
+
+        /**
+         * Gets the meta of the item.
+         *
+         * @return the stub meta
+         */
+        @Override
+        public ItemMeta getItemMeta() {
+            return meta;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks saving and loading lamps in the legacy 'lamps' section of config.yml.
+ * Before the binary store every lamp change rewrote the whole file, so {@link #save()} is the cost of a
+ * single change with that format. Compare with {@link StoreBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class YamlBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int lamps;
+
+    private Path folder;
+    private File file;
+    private String[] keys;
+
+    /**
+     * Writes a config.yml holding the lamps.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Setup
+    public void setup() throws IOException {
+        folder = Stubs.tempFolder();
+        file = folder.resolve("config.yml").toFile();
+        keys = new String[lamps];
+        for (int i = 0; i < lamps; i++) {
+            keys[i] = "world:" + (i % 1000) * 3 + ":64:" + (i / 1000) * 3;
+        }
+        save();
+    }
+
+    /**
+     * Deletes the temporary folder.
+     *
+     * @throws IOException if the folder cannot be deleted
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        Stubs.delete(folder);
+    }
+
+    /**
+     * Writes every lamp to config.yml.
+     *
+     * @return the size of the written file
+     * @throws IOException if the file cannot be written
+     */
+    @Benchmark
+    public long save() throws IOException {
+        YamlConfiguration config = new YamlConfiguration();
+        for (int i = 0; i < keys.length; i++) {
+            config.set("lamps." + keys[i], 1 + i % 40);
+        }
+        config.save(file);
+        return file.length();
+    }
+
+    /**
+     * Reads every lamp from config.yml.
+     *
+     * @return the sum of the lamp periods
+     */
+    @Benchmark
+    public long load() {
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
+        ConfigurationSection section = config.getConfigurationSection("lamps");
+        long sum = 0;
+        for (String key : section.getKeys(false)) {
+            sum += section.getInt(key);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,78 @@
+package dev.pyro.lightSetup;
+
+/**
+ * Utility class for packing block and chunk coordinates into a single long.
+ * Block coordinates use 26 bits for x and z and 12 bits for y, the same layout as Minecraft's block positions.
+ */
+public final class BlockKey {
+    private static final int XZ_BITS = 26;
+    private static final int Y_BITS = 12;
+    private static final long XZ_MASK = (1L << XZ_BITS) - 1;
+    private static final long Y_MASK = (1L << Y_BITS) - 1;
+
+    private BlockKey() {
+    }
+
+    /**
+     * Packs block coordinates into a long.
+     *
+     * @param x the block x coordinate
+     * @param y the block y coordinate
+     * @param z the block z coordinate
+     * @return the packed coordinates
+     */
+    public static long pack(int x, int y, int z) {
+        return ((x & XZ_MASK) << (XZ_BITS + Y_BITS)) | ((z & XZ_MASK) << Y_BITS) | (y & Y_MASK);
+    }
+
+    /**
+     * Packs chunk coordinates into a long.
+     *
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @return the packed chunk coordinates
+     */
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the packed chunk coordinates of packed block coordinates.
+     *
+     * @param key the packed block coordinates
+     * @return the packed chunk coordinates
+     */
+    public static long chunkKey(long key) {
+        return chunkKey(x(key) >> 4, z(key) >> 4);
+    }
+
+    /**
+     * Gets the x coordinate of packed coordinates.
+     *
+     * @param key the packed coordinates
+     * @return the block x coordinate
+     */
+    public static int x(long key) {
+        return (int) (key >> (XZ_BITS + Y_BITS));
+    }
+
+    /**
+     * Gets the y coordinate of packed coordinates.
+     *
+     * @param key the packed coordinates
+     * @return the block y coordinate
+     */
+    public static int y(long key) {
+        return (int) (key << (64 - Y_BITS) >> (64 - Y_BITS));
+    }
+
+    /**
+     * Gets the z coordinate of packed coordinates.
+     *
+     * @param key the packed coordinates
+     * @return the block z coordinate
+     */
+    public static int z(long key) {
+        return (int) (key << (64 - XZ_BITS - Y_BITS) >> (64 - XZ_BITS));
+    }
+}
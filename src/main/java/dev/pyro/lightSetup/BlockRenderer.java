@@ -0,0 +1,100 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.Arrays;
+
+/**
+ * Renderer that writes the lamp state to the world, so it is seen by everyone and saved with the chunk.
+ * Only the block type is read before the shared {@link LampState} BlockData is written without physics:
+ * a block that is no longer a Redstone Lamp, changed without an event, is left as it is and its lamp is removed.
+ * Lamps arrive chunk by chunk, so the chunk is looked up once and its blocks are reached through it.
+ */
+public class BlockRenderer implements LampRenderer {
+    private final LampAuditor.InvalidLamps invalidLamps;
+    private World chunkWorld;
+    private Chunk chunk;
+    private int chunkX;
+    private int chunkZ;
+    private World invalidWorld;
+    private long[] invalid;
+    private int invalidCount;
+
+    /**
+     * Constructs a new BlockRenderer.
+     *
+     * @param invalidLamps the callback receiving lamps whose block is not a Redstone Lamp anymore
+     */
+    public BlockRenderer(LampAuditor.InvalidLamps invalidLamps) {
+        this.invalidLamps = invalidLamps;
+        this.invalid = new long[8];
+    }
+
+    /**
+     * Looks up the chunk whose lamps are rendered next.
+     *
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     */
+    @Override
+    public void chunk(World world, int chunkX, int chunkZ) {
+        this.chunkWorld = world;
+        this.chunk = world.getChunkAt(chunkX, chunkZ);
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+    }
+
+    /**
+     * Writes the lit state into the lamp block, or collects the lamp to be removed if the block is something else.
+     *
+     * @param world the world of the lamp
+     * @param x the block x coordinate
+     * @param y the block y coordinate
+     * @param z the block z coordinate
+     * @param lit whether the lamp is lit
+     */
+    @Override
+    public void render(World world, int x, int y, int z, boolean lit) {
+        Block block = chunk != null && world == chunkWorld && x >> 4 == chunkX && z >> 4 == chunkZ
+                ? chunk.getBlock(x & 15, y, z & 15)
+                : world.getBlockAt(x, y, z);
+        if (block.getType() != Material.REDSTONE_LAMP) {
+            if (world != invalidWorld) {
+                removeInvalid();
+                invalidWorld = world;
+            }
+            if (invalidCount == invalid.length) {
+                invalid = Arrays.copyOf(invalid, invalidCount * 2);
+            }
+            invalid[invalidCount++] = BlockKey.pack(x, y, z);
+            return;
+        }
+        block.setBlockData(LampState.of(lit).getBlockData(), false);
+    }
+
+    /**
+     * Removes the lamps found on other blocks and forgets the chunk of the last lamps,
+     * so an unloaded chunk is not kept in memory.
+     */
+    @Override
+    public void flush() {
+        removeInvalid();
+        invalidWorld = null;
+        chunkWorld = null;
+        chunk = null;
+    }
+
+    /**
+     * Sends the lamps collected because their block is not a Redstone Lamp anymore to be removed.
+     */
+    private void removeInvalid() {
+        if (invalidCount > 0) {
+            invalidLamps.remove(invalidWorld, Arrays.copyOf(invalid, invalidCount), invalidCount);
+            invalidCount = 0;
+        }
+    }
+}
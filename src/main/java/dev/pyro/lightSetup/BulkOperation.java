@@ -0,0 +1,268 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Activates, deactivates or retimes every Redstone Lamp in a cuboid, spreading the work across ticks.
+ * Chunks are loaded without generating them and copied into snapshots on the thread owning them, the snapshots
+ * are scanned for lamps on a background thread, and the lamps found are applied on the lamp thread under a
+ * per-tick budget. Chunks without any lamp in their palette are skipped without scanning their blocks.
+ */
+public class BulkOperation implements Runnable {
+    private static final int PROGRESS_INTERVAL_TICKS = 40;
+
+    /**
+     * Change applied to the lamps of the cuboid.
+     */
+    public enum Mode {
+        /**
+         * Activates every lamp, or changes its ticks if it is already active.
+         */
+        ACTIVATE,
+        /**
+         * Deactivates every active lamp.
+         */
+        DEACTIVATE,
+        /**
+         * Changes the ticks of every active lamp, leaving inactive lamps untouched.
+         */
+        RETIME
+    }
+
+    /**
+     * Lamps found in one chunk.
+     *
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @param positions the coordinates packed with {@link BlockKey}
+     * @param count the number of positions
+     */
+    private record ChunkLamps(int chunkX, int chunkZ, long[] positions, int count) {
+    }
+
+    private final LampPlatform platform;
+    private final LampManager lampManager;
+    private final CommandSender sender;
+    private final UUID owner;
+    private final LampLimits.Limit limit;
+    private final World world;
+    private final Mode mode;
+    private final int ticks;
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int maxX;
+    private final int maxY;
+    private final int maxZ;
+    private final long[] chunks;
+    private final int chunksPerTick;
+    private final int lampsPerTick;
+    private final Runnable onFinish;
+    private final Queue<ChunkLamps> scanned;
+    private LampPlatform.Handle handle;
+    private int phase;
+    private int requested;
+    private int applied;
+    private int changed;
+    private int ticksRun;
+    private long startNanos;
+
+    /**
+     * Constructs a new BulkOperation.
+     *
+     * @param platform the platform running the operation
+     * @param lampManager the lamp manager applying the changes
+     * @param sender the sender receiving progress messages
+     * @param owner the UUID of the player owning the lamps activated by the operation, or null
+     * @param limit the limits of the owner
+     * @param first a corner of the cuboid
+     * @param second the opposite corner of the cuboid, in the same world
+     * @param mode the change to apply
+     * @param ticks the number of ticks of the lamps, ignored when deactivating
+     * @param chunksPerTick the number of chunks requested per tick
+     * @param lampsPerTick the number of lamps changed per tick
+     * @param onFinish the callback run on the lamp thread when the operation ends
+     */
+    public BulkOperation(LampPlatform platform, LampManager lampManager, CommandSender sender, UUID owner,
+                         LampLimits.Limit limit, Location first, Location second, Mode mode, int ticks,
+                         int chunksPerTick, int lampsPerTick, Runnable onFinish) {
+        this.platform = platform;
+        this.lampManager = lampManager;
+        this.sender = sender;
+        this.owner = owner;
+        this.limit = limit;
+        this.world = first.getWorld();
+        this.mode = mode;
+        this.ticks = ticks;
+        this.minX = Math.min(first.getBlockX(), second.getBlockX());
+        this.minY = Math.max(world.getMinHeight(), Math.min(first.getBlockY(), second.getBlockY()));
+        this.minZ = Math.min(first.getBlockZ(), second.getBlockZ());
+        this.maxX = Math.max(first.getBlockX(), second.getBlockX());
+        this.maxY = Math.min(world.getMaxHeight() - 1, Math.max(first.getBlockY(), second.getBlockY()));
+        this.maxZ = Math.max(first.getBlockZ(), second.getBlockZ());
+        this.chunksPerTick = Math.max(1, chunksPerTick);
+        this.lampsPerTick = Math.max(1, lampsPerTick);
+        this.onFinish = onFinish;
+        this.scanned = new ConcurrentLinkedQueue<>();
+
+        int chunkCount = chunkCount(first, second);
+        this.chunks = new long[chunkCount];
+        int i = 0;
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                chunks[i++] = BlockKey.chunkKey(chunkX, chunkZ);
+            }
+        }
+    }
+
+    /**
+     * Counts the chunks covered by a cuboid.
+     *
+     * @param first a corner of the cuboid
+     * @param second the opposite corner of the cuboid
+     * @return the number of chunks
+     */
+    public static int chunkCount(Location first, Location second) {
+        long sizeX = Math.abs((first.getBlockX() >> 4) - (second.getBlockX() >> 4)) + 1L;
+        long sizeZ = Math.abs((first.getBlockZ() >> 4) - (second.getBlockZ() >> 4)) + 1L;
+        return (int) Math.min(Integer.MAX_VALUE, sizeX * sizeZ);
+    }
+
+    /**
+     * Gets the number of chunks covered by the operation.
+     *
+     * @return the number of chunks
+     */
+    public int getChunkCount() {
+        return chunks.length;
+    }
+
+    /**
+     * Starts the operation. Must be called on the lamp thread.
+     *
+     * @param phase the phase given to every lamp, so the lamps of the cuboid toggle together
+     */
+    public void start(int phase) {
+        this.phase = phase;
+        this.startNanos = System.nanoTime();
+        handle = platform.runRepeating(this, 1, 1);
+    }
+
+    /**
+     * Stops the operation without applying the remaining chunks.
+     */
+    public void cancel() {
+        if (handle != null) {
+            handle.cancel();
+            handle = null;
+            onFinish.run();
+        }
+    }
+
+    /**
+     * Requests the next chunks and applies the lamps scanned so far, within the per-tick budget.
+     */
+    @Override
+    public void run() {
+        for (int i = 0; i < chunksPerTick && requested < chunks.length && requested - applied < chunksPerTick * 4; i++) {
+            long chunk = chunks[requested++];
+            request((int) (chunk >> 32), (int) chunk);
+        }
+
+        int budget = lampsPerTick;
+        ChunkLamps lamps;
+        while (budget > 0 && (lamps = scanned.poll()) != null) {
+            changed += lampManager.applyBulk(world, mode, ticks, phase, owner, limit, lamps.chunkX(), lamps.chunkZ(),
+                    lamps.positions(), lamps.count());
+            budget -= Math.max(1, lamps.count());
+            applied++;
+        }
+
+        if (applied == chunks.length) {
+            cancel();
+            sender.sendMessage("§aOperazione completata: " + changed + " lampade " + describe() + " in "
+                    + (System.nanoTime() - startNanos) / 1_000_000 + " ms");
+        } else if (++ticksRun % PROGRESS_INTERVAL_TICKS == 0) {
+            sender.sendMessage("§eOperazione in corso: " + (applied * 100 / chunks.length) + "% ("
+                    + applied + "/" + chunks.length + " chunk, " + changed + " lampade)");
+        }
+    }
+
+    /**
+     * Loads a chunk without generating it and scans a snapshot of it in the background.
+     * Chunks that were never generated contain no lamps and are counted as scanned.
+     *
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     */
+    private void request(int chunkX, int chunkZ) {
+        world.getChunkAtAsync(chunkX, chunkZ, false).whenComplete((chunk, error) -> {
+            if (chunk == null) {
+                scanned.add(new ChunkLamps(chunkX, chunkZ, new long[0], 0));
+                return;
+            }
+
+            ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, false, false);
+            platform.runAsync(() -> scanned.add(scan(snapshot, chunk)));
+        });
+    }
+
+    /**
+     * Finds the Redstone Lamps of a snapshot inside the cuboid.
+     *
+     * @param snapshot the snapshot of the chunk
+     * @param chunk the chunk of the snapshot
+     * @return the lamps found
+     */
+    private ChunkLamps scan(ChunkSnapshot snapshot, Chunk chunk) {
+        int chunkX = chunk.getX();
+        int chunkZ = chunk.getZ();
+        if (!snapshot.contains(LampState.OFF.getBlockData()) && !snapshot.contains(LampState.ON.getBlockData())) {
+            return new ChunkLamps(chunkX, chunkZ, new long[0], 0);
+        }
+
+        int fromX = Math.max(minX, chunkX << 4);
+        int toX = Math.min(maxX, (chunkX << 4) + 15);
+        int fromZ = Math.max(minZ, chunkZ << 4);
+        int toZ = Math.min(maxZ, (chunkZ << 4) + 15);
+        long[] positions = new long[16];
+        int count = 0;
+
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = fromX; x <= toX; x++) {
+                for (int z = fromZ; z <= toZ; z++) {
+                    if (snapshot.getBlockType(x & 15, y, z & 15) == Material.REDSTONE_LAMP) {
+                        if (count == positions.length) {
+                            positions = Arrays.copyOf(positions, count * 2);
+                        }
+                        positions[count++] = BlockKey.pack(x, y, z);
+                    }
+                }
+            }
+        }
+        return new ChunkLamps(chunkX, chunkZ, positions, count);
+    }
+
+    /**
+     * Describes the change applied by the operation.
+     *
+     * @return the Italian past participle of the change
+     */
+    private String describe() {
+        return switch (mode) {
+            case ACTIVATE -> "attivate";
+            case DEACTIVATE -> "disattivate";
+            case RETIME -> "modificate";
+        };
+    }
+}
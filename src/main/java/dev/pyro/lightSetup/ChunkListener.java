@@ -0,0 +1,54 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Chunk;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+
+/**
+ * Listener for chunk load and unload events.
+ * This listener resumes the lamps of loaded chunks and suspends the lamps of unloaded chunks,
+ * so only lamps in loaded chunks are scheduled.
+ */
+public class ChunkListener implements Listener {
+    private final LampManager lampManager;
+
+    /**
+     * Constructs a new ChunkListener.
+     *
+     * @param lampManager the lamp manager instance
+     */
+    public ChunkListener(LampManager lampManager) {
+        this.lampManager = lampManager;
+    }
+
+    /**
+     * Handles the ChunkLoadEvent.
+     * Resumes every lamp registered in the loaded chunk.
+     *
+     * @param event the chunk load event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        if (event.isNewChunk()) {
+            return;
+        }
+
+        Chunk chunk = event.getChunk();
+        lampManager.resumeChunk(event.getWorld(), chunk.getX(), chunk.getZ());
+    }
+
+    /**
+     * Handles the ChunkUnloadEvent.
+     * Suspends every lamp registered in the unloaded chunk.
+     *
+     * @param event the chunk unload event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        Chunk chunk = event.getChunk();
+        lampManager.suspendChunk(event.getWorld(), chunk.getX(), chunk.getZ());
+    }
+}
@@ -0,0 +1,10 @@
+package dev.pyro.lightSetup;
+
+/**
+ * The stored plugin clock: the last tick processed by the lamp scheduler and when it was saved.
+ *
+ * @param tick the last tick processed by the scheduler
+ * @param savedAt the wall-clock time the tick was saved at, in milliseconds since the epoch
+ */
+public record ClockRecord(long tick, long savedAt) {
+}
@@ -0,0 +1,99 @@
+package dev.pyro.lightSetup;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Platform for Folia. Lamp scheduling runs on the global region thread with the {@code GlobalRegionScheduler},
+ * and work on blocks is sent to the region owning them with the {@code RegionScheduler}.
+ */
+public class FoliaPlatform implements LampPlatform {
+    private final Plugin plugin;
+
+    /**
+     * Constructs a new FoliaPlatform.
+     *
+     * @param plugin the plugin owning the tasks
+     */
+    public FoliaPlatform(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Checks if the server is Folia.
+     *
+     * @return true if the Folia region scheduler classes are present, otherwise false
+     */
+    public static boolean isSupported() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks if the server is region-threaded.
+     *
+     * @return always true
+     */
+    @Override
+    public boolean isRegionThreaded() {
+        return true;
+    }
+
+    /**
+     * Runs a task on the global region thread every given number of ticks.
+     *
+     * @param task the task to run
+     * @param delayTicks the number of ticks before the first run
+     * @param periodTicks the number of ticks between two runs
+     * @return the handle of the task
+     */
+    @Override
+    public Handle runRepeating(Runnable task, long delayTicks, long periodTicks) {
+        ScheduledTask scheduledTask = plugin.getServer().getGlobalRegionScheduler()
+                .runAtFixedRate(plugin, scheduled -> task.run(), Math.max(1, delayTicks), periodTicks);
+        return scheduledTask::cancel;
+    }
+
+    /**
+     * Runs a task on the global region thread, immediately if the caller is already on it.
+     *
+     * @param task the task to run
+     */
+    @Override
+    public void runOnLampThread(Runnable task) {
+        if (Bukkit.isGlobalTickThread()) {
+            task.run();
+        } else {
+            plugin.getServer().getGlobalRegionScheduler().execute(plugin, task);
+        }
+    }
+
+    /**
+     * Runs a task on the region thread owning a chunk.
+     *
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @param task the task to run
+     */
+    @Override
+    public void runAt(World world, int chunkX, int chunkZ, Runnable task) {
+        plugin.getServer().getRegionScheduler().execute(plugin, world, chunkX, chunkZ, task);
+    }
+
+    /**
+     * Runs a task on a background thread.
+     *
+     * @param task the task to run
+     */
+    @Override
+    public void runAsync(Runnable task) {
+        plugin.getServer().getAsyncScheduler().runNow(plugin, scheduled -> task.run());
+    }
+}
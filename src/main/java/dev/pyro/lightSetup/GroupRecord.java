@@ -0,0 +1,17 @@
+package dev.pyro.lightSetup;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A stored lamp group: its name, toggle period, phase, pattern, owner and members.
+ *
+ * @param name the name of the group
+ * @param period the number of ticks between two toggles
+ * @param phase the tick offset of the group within its period or pattern
+ * @param pattern the id of the group pattern, or 0 for a plain blinking group
+ * @param owner the UUID of the player who created the group, or null if it has no owner
+ * @param members the keys of the lamps of the group
+ */
+public record GroupRecord(String name, int period, int phase, int pattern, UUID owner, List<LampKey> members) {
+}
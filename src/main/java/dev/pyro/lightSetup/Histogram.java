@@ -0,0 +1,156 @@
+package dev.pyro.lightSetup;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of non-negative long values with logarithmic buckets, in the style of HdrHistogram.
+ * Values below 64 are counted exactly; larger values are counted in 32 sub-buckets per power of two,
+ * so reported percentiles are within about 3% of the real value. Recording never allocates.
+ * This class is not thread-safe.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT >> 1;
+    private static final int BUCKETS = SUB_COUNT + (Long.SIZE - SUB_BITS - 1) * HALF_COUNT;
+
+    private final long[] counts;
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * Constructs a new empty Histogram.
+     */
+    public Histogram() {
+        this.counts = new long[BUCKETS];
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts[bucketOf(v)]++;
+        count++;
+        sum += v;
+        if (v > max) {
+            max = v;
+        }
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return the number of values
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Gets the sum of the recorded values.
+     *
+     * @return the sum of the values
+     */
+    public long sum() {
+        return sum;
+    }
+
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return the largest value, or 0 if nothing was recorded
+     */
+    public long max() {
+        return max;
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     *
+     * @return the mean, or 0 if nothing was recorded
+     */
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Gets the value below which the given percentage of the recorded values fall.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the highest value of the bucket holding the percentile, or 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Math.min(max, highestValueOf(bucket));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Removes every recorded value.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    /**
+     * Creates a copy of this histogram.
+     *
+     * @return the copy
+     */
+    public Histogram copy() {
+        Histogram copy = new Histogram();
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        copy.count = count;
+        copy.sum = sum;
+        copy.max = max;
+        return copy;
+    }
+
+    /**
+     * Gets the bucket counting a value.
+     *
+     * @param value the value, not negative
+     * @return the bucket index
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+
+        int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB_COUNT + (shift - 1) * HALF_COUNT + (int) (value >>> shift) - HALF_COUNT;
+    }
+
+    /**
+     * Gets the highest value counted by a bucket.
+     *
+     * @param bucket the bucket index
+     * @return the highest value of the bucket
+     */
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+
+        int shift = (bucket - SUB_COUNT) / HALF_COUNT + 1;
+        long top = (bucket - SUB_COUNT) % HALF_COUNT + HALF_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+}
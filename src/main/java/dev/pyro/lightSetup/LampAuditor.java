@@ -0,0 +1,187 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Periodic task that slowly checks the blocks of running lamps, a few lamps per tick.
+ * Lamps are removed by block events as soon as their block is destroyed, and the block renderers skip blocks that
+ * are no longer lamps; this sweep catches the blocks changed without an event, for example by other plugins, of
+ * lamps that toggle rarely or are only shown to players. The lamps visited in a tick are grouped by chunk and
+ * every chunk is checked on the thread owning it; lamps whose block is not a Redstone Lamp anymore are reported
+ * back to the lamp thread.
+ */
+public class LampAuditor implements Runnable {
+    /**
+     * Callback receiving lamps whose block was found not to be a Redstone Lamp.
+     */
+    @FunctionalInterface
+    public interface InvalidLamps {
+        /**
+         * Called on the lamp thread with the lamps whose block is not a Redstone Lamp anymore.
+         *
+         * @param world the world of the lamps
+         * @param positions the coordinates packed with {@link BlockKey}
+         * @param count the number of positions
+         */
+        void remove(World world, long[] positions, int count);
+    }
+
+    private final LampPlatform platform;
+    private final LampIndex index;
+    private final LampScheduler scheduler;
+    private final InvalidLamps invalidLamps;
+    private final Function<UUID, World> worldLookup;
+    private final int lampsPerTick;
+    private LampPlatform.Handle handle;
+    private int cursor;
+
+    /**
+     * Constructs a new LampAuditor.
+     *
+     * @param platform the platform running the sweep on the lamp thread and the checks on the region threads
+     * @param index the index of the lamps to check
+     * @param scheduler the scheduler telling which lamps are running
+     * @param invalidLamps the callback receiving invalid lamps
+     * @param lampsPerTick the number of lamps visited per tick
+     */
+    public LampAuditor(LampPlatform platform, LampIndex index, LampScheduler scheduler, InvalidLamps invalidLamps,
+                       int lampsPerTick) {
+        this.platform = platform;
+        this.index = index;
+        this.scheduler = scheduler;
+        this.invalidLamps = invalidLamps;
+        this.worldLookup = Bukkit::getWorld;
+        this.lampsPerTick = Math.max(1, lampsPerTick);
+    }
+
+    /**
+     * Starts the sweep, running once every tick on the lamp thread.
+     */
+    public void start() {
+        handle = platform.runRepeating(this, 20, 1);
+    }
+
+    /**
+     * Stops the sweep.
+     */
+    public void stop() {
+        if (handle != null) {
+            handle.cancel();
+            handle = null;
+        }
+    }
+
+    /**
+     * Visits the next lamps of the index and sends the running ones to be checked, one batch per chunk.
+     * Suspended lamps are skipped: they are checked when their chunk is loaded again.
+     */
+    @Override
+    public void run() {
+        int limit = index.slotLimit();
+        if (limit == 0) {
+            return;
+        }
+
+        Map<Integer, Map<Long, Batch>> batches = null;
+        int visits = Math.min(lampsPerTick, limit);
+        for (int i = 0; i < visits; i++) {
+            if (cursor >= limit) {
+                cursor = 0;
+            }
+            int slot = cursor++;
+            if (!index.isUsed(slot) || !scheduler.isScheduled(slot)) {
+                continue;
+            }
+
+            if (batches == null) {
+                batches = new HashMap<>();
+            }
+            long position = index.position(slot);
+            int worldId = index.worldOf(slot);
+            batches.computeIfAbsent(worldId, id -> new HashMap<>())
+                    .computeIfAbsent(BlockKey.chunkKey(position), chunkKey -> new Batch(chunkKey))
+                    .add(position);
+        }
+
+        if (batches == null) {
+            return;
+        }
+        for (Map.Entry<Integer, Map<Long, Batch>> entry : batches.entrySet()) {
+            World world = worldLookup.apply(index.world(entry.getKey()));
+            if (world == null) {
+                continue;
+            }
+            for (Batch batch : entry.getValue().values()) {
+                platform.runAt(world, (int) (batch.chunkKey >> 32), (int) batch.chunkKey, () -> batch.check(world));
+            }
+        }
+    }
+
+    /**
+     * Lamps of one chunk checked by the thread owning it.
+     */
+    private class Batch {
+        private final long chunkKey;
+        private long[] positions;
+        private int size;
+
+        /**
+         * Constructs a new empty Batch.
+         *
+         * @param chunkKey the chunk coordinates packed with {@link BlockKey#chunkKey(int, int)}
+         */
+        Batch(long chunkKey) {
+            this.chunkKey = chunkKey;
+            this.positions = new long[4];
+        }
+
+        /**
+         * Adds a lamp to check.
+         *
+         * @param position the coordinates packed with {@link BlockKey}
+         */
+        void add(long position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        /**
+         * Checks every lamp of the batch. Runs on the thread owning the chunk, which may have been unloaded since.
+         *
+         * @param world the world of the chunk
+         */
+        void check(World world) {
+            if (!world.isChunkLoaded((int) (chunkKey >> 32), (int) chunkKey)) {
+                return;
+            }
+
+            long[] invalid = null;
+            int invalidCount = 0;
+            for (int i = 0; i < size; i++) {
+                long position = positions[i];
+                if (world.getType(BlockKey.x(position), BlockKey.y(position), BlockKey.z(position)) != Material.REDSTONE_LAMP) {
+                    if (invalid == null) {
+                        invalid = new long[size - i];
+                    }
+                    invalid[invalidCount++] = position;
+                }
+            }
+
+            if (invalidCount > 0) {
+                long[] removed = invalid;
+                int count = invalidCount;
+                platform.runOnLampThread(() -> invalidLamps.remove(world, removed, count));
+            }
+        }
+    }
+}
@@ -1,16 +1,28 @@
 package dev.pyro.lightSetup;
 
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.plugin.Plugin;
 
+import java.util.List;
+
 /**
- * Listener for block break events specifically targeting Redstone Lamps.
- * This listener deactivates lamps managed by the LampManager when they are broken.
+ * Listener for every event that destroys or moves a block, specifically targeting managed Redstone Lamps.
+ * This listener removes lamps managed by the LampManager as soon as their block is broken, blown up,
+ * burnt, pushed or pulled by a piston, or changed by an entity or a fluid, so the lamp task never has to
+ * read the block type. Each block is checked with a single index lookup.
  */
 public class LampBreakListener implements Listener {
     private final Plugin plugin;
@@ -29,7 +41,7 @@ public class LampBreakListener implements Listener {
 
     /**
      * Handles the BlockBreakEvent.
-     * If the broken block is an active Redstone Lamp, it deactivates the lamp and notifies the player.
+     * If the broken block is an active Redstone Lamp, it removes the lamp and notifies the player.
      *
      * @param event the block break event
      */
@@ -37,14 +49,126 @@ public class LampBreakListener implements Listener {
     public void onBlockBreak(BlockBreakEvent event) {
         Block block = event.getBlock();
 
-        if (block.getType() == Material.REDSTONE_LAMP) {
-            if (lampManager.isLampActive(block)) {
-                plugin.getLogger().info("Lampada attiva rotta a " + block.getLocation() + ", rimozione in corso...");
+        if (lampManager.isLampActive(block)) {
+            plugin.getLogger().info("Lampada attiva rotta a " + block.getLocation() + ", rimozione in corso...");
+
+            invalidate(block);
+
+            event.getPlayer().sendMessage("§cHai rotto una lampada attiva!");
+        }
+    }
+
+    /**
+     * Handles the BlockExplodeEvent, removing the active lamps destroyed by the explosion.
+     *
+     * @param event the block explode event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        invalidate(event.getBlock().getWorld(), event.blockList());
+    }
+
+    /**
+     * Handles the EntityExplodeEvent, removing the active lamps destroyed by the explosion.
+     *
+     * @param event the entity explode event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        List<Block> blocks = event.blockList();
+        if (!blocks.isEmpty()) {
+            invalidate(blocks.get(0).getWorld(), blocks);
+        }
+    }
+
+    /**
+     * Handles the BlockPistonExtendEvent, removing the active lamps pushed away from their position.
+     *
+     * @param event the piston extend event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        invalidate(event.getBlock().getWorld(), event.getBlocks());
+    }
 
-                lampManager.deactivateLamp(block);
+    /**
+     * Handles the BlockPistonRetractEvent, removing the active lamps pulled away from their position.
+     *
+     * @param event the piston retract event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        invalidate(event.getBlock().getWorld(), event.getBlocks());
+    }
 
-                event.getPlayer().sendMessage("§cHai rotto una lampada attiva!");
+    /**
+     * Handles the BlockBurnEvent, removing an active lamp destroyed by fire.
+     *
+     * @param event the block burn event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        invalidate(event.getBlock());
+    }
+
+    /**
+     * Handles the BlockFromToEvent, removing an active lamp replaced by a flowing fluid.
+     *
+     * @param event the block from-to event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFromTo(BlockFromToEvent event) {
+        invalidate(event.getToBlock());
+    }
+
+    /**
+     * Handles the EntityChangeBlockEvent, removing an active lamp turned into another block by an entity.
+     *
+     * @param event the entity change block event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityChangeBlock(EntityChangeBlockEvent event) {
+        if (event.getBlockData().getMaterial() != Material.REDSTONE_LAMP) {
+            invalidate(event.getBlock());
+        }
+    }
+
+    /**
+     * Removes the lamp of a block if it is active.
+     *
+     * @param block the block
+     */
+    private void invalidate(Block block) {
+        if (lampManager.isLampActive(block)) {
+            lampManager.invalidateLamps(block.getWorld(),
+                    new long[]{BlockKey.pack(block.getX(), block.getY(), block.getZ())}, 1);
+        }
+    }
+
+    /**
+     * Removes the active lamps among some blocks of a world.
+     *
+     * @param world the world of the blocks
+     * @param blocks the blocks
+     */
+    private void invalidate(World world, List<Block> blocks) {
+        if (blocks.isEmpty() || !lampManager.hasLamps(world)) {
+            return;
+        }
+
+        long[] positions = null;
+        int count = 0;
+        for (Block block : blocks) {
+            if (lampManager.isLampActive(block)) {
+                if (positions == null) {
+                    positions = new long[blocks.size()];
+                }
+                positions[count++] = BlockKey.pack(block.getX(), block.getY(), block.getZ());
             }
         }
+
+        if (count > 0) {
+            lampManager.invalidateLamps(world, positions, count);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,227 @@
+package dev.pyro.lightSetup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A named group of lamps toggled together.
+ * Every member shares the period, phase and pattern of the group, and the whole group has a single entry
+ * in the {@link LampScheduler}: when it is due, every running member is shown in the same pass.
+ * The group keeps the keys of its members, which are stored with the group, and the index slots of the
+ * members currently indexed. Groups are only used on the lamp thread.
+ */
+public final class LampGroup {
+    private final int id;
+    private final String name;
+    private final UUID owner;
+    private final Set<LampKey> members;
+    private int period;
+    private int phase;
+    private LampPattern pattern;
+    private int[] slots;
+    private int slotCount;
+
+    /**
+     * Constructs a new LampGroup without members.
+     *
+     * @param id the id of the group in the scheduler
+     * @param name the name of the group
+     * @param period the number of ticks between two toggles
+     * @param phase the phase of the group
+     * @param pattern the pattern of the group, or null for a plain blinking group
+     * @param owner the UUID of the player who created the group, or null if it has no owner
+     */
+    LampGroup(int id, String name, int period, int phase, LampPattern pattern, UUID owner) {
+        this.id = id;
+        this.name = name;
+        this.owner = owner;
+        this.members = new LinkedHashSet<>();
+        this.period = period;
+        this.phase = phase;
+        this.pattern = pattern;
+        this.slots = new int[16];
+    }
+
+    /**
+     * Gets the id of the group in the scheduler.
+     *
+     * @return the id
+     */
+    public int id() {
+        return id;
+    }
+
+    /**
+     * Gets the name of the group.
+     *
+     * @return the name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Gets the owner of the group, whose lamp quota counts the members of the group.
+     *
+     * @return the UUID of the player who created the group, or null if it has no owner
+     */
+    public UUID owner() {
+        return owner;
+    }
+
+    /**
+     * Gets the number of ticks between two toggles, used when the group has no pattern.
+     *
+     * @return the period in ticks
+     */
+    public int period() {
+        return period;
+    }
+
+    /**
+     * Gets the phase of the group.
+     *
+     * @return the phase in ticks
+     */
+    public int phase() {
+        return phase;
+    }
+
+    /**
+     * Gets the pattern of the group.
+     *
+     * @return the pattern, or null for a plain blinking group
+     */
+    public LampPattern pattern() {
+        return pattern;
+    }
+
+    /**
+     * Changes the timing of the group. The members of the index must be updated by the caller.
+     *
+     * @param newPeriod the number of ticks between two toggles
+     * @param newPhase the phase of the group
+     * @param newPattern the pattern of the group, or null for a plain blinking group
+     */
+    void setTiming(int newPeriod, int newPhase, LampPattern newPattern) {
+        this.period = newPeriod;
+        this.phase = newPhase;
+        this.pattern = newPattern;
+    }
+
+    /**
+     * Checks if the members of the group are lit at a given tick.
+     *
+     * @param tick the tick
+     * @return true if the members are lit, otherwise false
+     */
+    public boolean isLitAt(long tick) {
+        return pattern != null ? pattern.isLitAt(tick, phase) : LampScheduler.isLitAt(tick, period, phase);
+    }
+
+    /**
+     * Gets the first tick after the given one at which the members of the group toggle.
+     *
+     * @param tick the tick
+     * @return the tick of the next toggle
+     */
+    public long nextToggle(long tick) {
+        return pattern != null ? pattern.nextToggle(tick, phase) : LampScheduler.nextToggle(tick, period, phase);
+    }
+
+    /**
+     * Gets the number of members, indexed or not.
+     *
+     * @return the number of members
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Checks if a lamp is a member of the group.
+     *
+     * @param key the key of the lamp
+     * @return true if the lamp is a member, otherwise false
+     */
+    public boolean contains(LampKey key) {
+        return members.contains(key);
+    }
+
+    /**
+     * Gets the number of members currently indexed.
+     *
+     * @return the number of slots
+     */
+    public int slotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Gets the index slot of an indexed member.
+     *
+     * @param i the position of the member, below {@link #slotCount()}
+     * @return the slot of the member
+     */
+    public int slot(int i) {
+        return slots[i];
+    }
+
+    /**
+     * Adds a member.
+     *
+     * @param key the key of the lamp
+     */
+    void addMember(LampKey key) {
+        members.add(key);
+    }
+
+    /**
+     * Removes a member.
+     *
+     * @param key the key of the lamp
+     * @return true if the lamp was a member, otherwise false
+     */
+    boolean removeMember(LampKey key) {
+        return members.remove(key);
+    }
+
+    /**
+     * Records the index slot of a member.
+     *
+     * @param slot the slot of the lamp in the index
+     */
+    void attach(int slot) {
+        if (slotCount == slots.length) {
+            slots = Arrays.copyOf(slots, slots.length * 2);
+        }
+        slots[slotCount++] = slot;
+    }
+
+    /**
+     * Forgets the index slot of a member.
+     *
+     * @param slot the slot of the lamp in the index
+     */
+    void detach(int slot) {
+        for (int i = 0; i < slotCount; i++) {
+            if (slots[i] == slot) {
+                slots[i] = slots[--slotCount];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the stored form of the group.
+     *
+     * @return the record of the group
+     */
+    GroupRecord toRecord() {
+        return new GroupRecord(name, period, phase, pattern != null ? pattern.id() : 0, owner,
+                new ArrayList<>(members));
+    }
+}
@@ -0,0 +1,194 @@
+package dev.pyro.lightSetup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * The named lamp groups, with the group of every member lamp.
+ * Group ids are reused after a group is deleted and are used as ids in the scheduler wheel of the groups.
+ * This class is only used on the lamp thread.
+ */
+public class LampGroups {
+    private final Map<String, LampGroup> byName;
+    private final Map<LampKey, LampGroup> byMember;
+    private final List<LampGroup> byId;
+    private int modifications;
+
+    /**
+     * Constructs an empty LampGroups.
+     */
+    public LampGroups() {
+        this.byName = new LinkedHashMap<>();
+        this.byMember = new HashMap<>();
+        this.byId = new ArrayList<>();
+    }
+
+    /**
+     * Creates a group without members and without an owner.
+     *
+     * @param name the name of the group
+     * @param period the number of ticks between two toggles
+     * @param phase the phase of the group
+     * @param pattern the pattern of the group, or null for a plain blinking group
+     * @return the group, or null if a group with that name already exists
+     */
+    public LampGroup create(String name, int period, int phase, LampPattern pattern) {
+        return create(name, period, phase, pattern, null);
+    }
+
+    /**
+     * Creates a group without members.
+     *
+     * @param name the name of the group
+     * @param period the number of ticks between two toggles
+     * @param phase the phase of the group
+     * @param pattern the pattern of the group, or null for a plain blinking group
+     * @param owner the UUID of the player who created the group, or null if it has no owner
+     * @return the group, or null if a group with that name already exists
+     */
+    public LampGroup create(String name, int period, int phase, LampPattern pattern, UUID owner) {
+        if (byName.containsKey(name)) {
+            return null;
+        }
+
+        int id = byId.indexOf(null);
+        if (id < 0) {
+            id = byId.size();
+            byId.add(null);
+        }
+
+        modifications++;
+        LampGroup group = new LampGroup(id, name, period, phase, pattern, owner);
+        byId.set(id, group);
+        byName.put(name, group);
+        return group;
+    }
+
+    /**
+     * Deletes a group. Its members must already have been removed from the index.
+     *
+     * @param group the group
+     */
+    public void delete(LampGroup group) {
+        modifications++;
+        byName.remove(group.name());
+        byId.set(group.id(), null);
+        byMember.values().removeIf(member -> member == group);
+    }
+
+    /**
+     * Gets a group by name.
+     *
+     * @param name the name of the group
+     * @return the group, or null if there is none with that name
+     */
+    public LampGroup get(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Gets the group a lamp belongs to.
+     *
+     * @param key the key of the lamp
+     * @return the group, or null if the lamp is not a member of any group
+     */
+    public LampGroup groupOf(LampKey key) {
+        return byMember.get(key);
+    }
+
+    /**
+     * Adds a lamp to a group.
+     *
+     * @param group the group
+     * @param key the key of the lamp, which must not belong to another group
+     */
+    public void addMember(LampGroup group, LampKey key) {
+        modifications++;
+        group.addMember(key);
+        byMember.put(key, group);
+    }
+
+    /**
+     * Removes a lamp from its group.
+     *
+     * @param key the key of the lamp
+     * @return the group the lamp belonged to, or null if it was not a member of any group
+     */
+    public LampGroup removeMember(LampKey key) {
+        LampGroup group = byMember.remove(key);
+        if (group != null) {
+            modifications++;
+            group.removeMember(key);
+        }
+        return group;
+    }
+
+    /**
+     * Gets the number of changes made to the groups and their members, so a caller can tell if somebody else
+     * changed them meanwhile. Retiming a group is not counted.
+     *
+     * @return the number of changes so far
+     */
+    public int modifications() {
+        return modifications;
+    }
+
+    /**
+     * Gets every group, in the order they were created.
+     *
+     * @return the groups
+     */
+    public Collection<LampGroup> all() {
+        return Collections.unmodifiableCollection(byName.values());
+    }
+
+    /**
+     * Gets the stored form of every group.
+     *
+     * @return the records of the groups
+     */
+    public List<GroupRecord> records() {
+        List<GroupRecord> records = new ArrayList<>(byName.size());
+        for (LampGroup group : byName.values()) {
+            records.add(group.toRecord());
+        }
+        return records;
+    }
+
+    /**
+     * Recreates the stored groups, before their members are indexed.
+     * Groups whose pattern is no longer defined blink with their stored period instead.
+     *
+     * @param records the stored groups
+     * @param patterns the patterns of the groups
+     * @param logger the logger receiving the groups whose pattern is missing
+     */
+    public void restore(List<GroupRecord> records, PatternRegistry patterns, Logger logger) {
+        for (GroupRecord record : records) {
+            LampPattern pattern = null;
+            if (record.pattern() != 0) {
+                pattern = patterns.byId(record.pattern());
+                if (pattern == null) {
+                    logger.warning("Il gruppo '" + record.name() + "' usa un pattern non più definito e lampeggia con il suo intervallo");
+                }
+            }
+
+            LampGroup group = create(record.name(), record.period(), record.phase(), pattern, record.owner());
+            if (group == null) {
+                continue;
+            }
+            for (LampKey key : record.members()) {
+                if (!byMember.containsKey(key)) {
+                    addMember(group, key);
+                }
+            }
+        }
+    }
+}
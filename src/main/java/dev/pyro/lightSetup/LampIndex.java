@@ -0,0 +1,640 @@
+package dev.pyro.lightSetup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Index of active lamps backed by primitive arrays.
+ * Each world has its own {@link LongIntMap} from packed coordinates to a lamp slot, and every slot
+ * stores its world, position, period, phase, pattern, group, owner and lit state in parallel arrays. Slots are also linked into
+ * one list per chunk, so the lamps of a chunk can be found when it is loaded or unloaded.
+ * A new slot is marked stale until its block is first rendered: blocks are left as they are on shutdown,
+ * so the block of a lamp indexed again may show either state.
+ * The number of lamps of every owner is kept up to date, so lamp quotas are checked without a scan.
+ * Slot numbers are reused after removal and are also used as ids in the {@link TimingWheel}.
+ * Lookups and structural changes are synchronized, so any thread can check whether a block is a lamp.
+ * The per-slot accessors are not: they must only be used on the lamp thread, which makes every change.
+ */
+public class LampIndex {
+    private static final int FREE = -1;
+
+    private final Map<UUID, Integer> worldIds;
+    private final List<UUID> worlds;
+    private final List<LongIntMap> positions;
+    private final List<LongIntMap> chunkHeads;
+    private final Map<UUID, Integer> ownerIds;
+    private final List<UUID> owners;
+    private int[] ownerCounts;
+    private int[] worldOf;
+    private long[] position;
+    private int[] period;
+    private int[] phase;
+    private LampPattern[] pattern;
+    private LampGroup[] group;
+    private int[] owner;
+    private long[] lit;
+    private long[] stale;
+    private int[] chunkNext;
+    private int[] chunkPrev;
+    private int[] freeSlots;
+    private int freeCount;
+    private int nextSlot;
+    private int size;
+
+    /**
+     * Constructs a new LampIndex.
+     *
+     * @param initialCapacity the number of lamps expected
+     */
+    public LampIndex(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        this.worldIds = new HashMap<>();
+        this.worlds = new ArrayList<>();
+        this.positions = new ArrayList<>();
+        this.chunkHeads = new ArrayList<>();
+        this.ownerIds = new HashMap<>();
+        this.owners = new ArrayList<>();
+        this.ownerCounts = new int[16];
+        this.worldOf = new int[capacity];
+        this.position = new long[capacity];
+        this.period = new int[capacity];
+        this.phase = new int[capacity];
+        this.pattern = new LampPattern[capacity];
+        this.group = new LampGroup[capacity];
+        this.owner = new int[capacity];
+        this.lit = new long[(capacity + 63) >>> 6];
+        this.stale = new long[(capacity + 63) >>> 6];
+        this.chunkNext = new int[capacity];
+        this.chunkPrev = new int[capacity];
+        this.freeSlots = new int[16];
+        Arrays.fill(worldOf, FREE);
+    }
+
+    /**
+     * Gets the id of a world, registering it if needed.
+     *
+     * @param world the world UUID
+     * @return the world id
+     */
+    public synchronized int worldId(UUID world) {
+        Integer id = worldIds.get(world);
+        if (id != null) {
+            return id;
+        }
+
+        int newId = worlds.size();
+        worldIds.put(world, newId);
+        worlds.add(world);
+        positions.add(new LongIntMap(64));
+        chunkHeads.add(new LongIntMap(16));
+        return newId;
+    }
+
+    /**
+     * Finds the id of a world without registering it.
+     *
+     * @param world the world UUID
+     * @return the world id, or -1 if the world has no lamps
+     */
+    public synchronized int findWorld(UUID world) {
+        Integer id = worldIds.get(world);
+        return id == null ? FREE : id;
+    }
+
+    /**
+     * Gets the UUID of a world id.
+     *
+     * @param worldId the world id
+     * @return the world UUID
+     */
+    public synchronized UUID world(int worldId) {
+        return worlds.get(worldId);
+    }
+
+    /**
+     * Gets the number of registered worlds.
+     *
+     * @return the number of world ids
+     */
+    public synchronized int worldCount() {
+        return worlds.size();
+    }
+
+    /**
+     * Gets the number of lamps indexed in a world.
+     *
+     * @param worldId the world id
+     * @return the number of lamps of the world
+     */
+    public synchronized int worldSize(int worldId) {
+        return positions.get(worldId).size();
+    }
+
+    /**
+     * Releases the lookup tables of a world whose lamps have all been removed, keeping its world id.
+     * The tables grow again if lamps of the world are indexed later.
+     *
+     * @param worldId the world id
+     */
+    public synchronized void releaseWorld(int worldId) {
+        if (positions.get(worldId).size() == 0) {
+            positions.set(worldId, new LongIntMap(64));
+            chunkHeads.set(worldId, new LongIntMap(16));
+        }
+    }
+
+    /**
+     * Finds the slot of a lamp.
+     *
+     * @param world the world UUID
+     * @param key the coordinates packed with {@link BlockKey}
+     * @return the slot, or -1 if the lamp is not indexed
+     */
+    public synchronized int find(UUID world, long key) {
+        Integer id = worldIds.get(world);
+        return id == null ? FREE : find(id, key);
+    }
+
+    /**
+     * Finds the slot of a lamp.
+     *
+     * @param worldId the world id
+     * @param key the coordinates packed with {@link BlockKey}
+     * @return the slot, or -1 if the lamp is not indexed
+     */
+    public synchronized int find(int worldId, long key) {
+        return positions.get(worldId).get(key);
+    }
+
+    /**
+     * Gets the number of ticks between two toggles of a lamp. Safe to call from any thread.
+     *
+     * @param world the world UUID
+     * @param key the coordinates packed with {@link BlockKey}
+     * @return the period of the lamp, or -1 if the lamp is not indexed
+     */
+    public synchronized int periodOf(UUID world, long key) {
+        int slot = find(world, key);
+        return slot == FREE ? FREE : period[slot];
+    }
+
+    /**
+     * Checks if a lamp is lit at a given tick, according to its pattern or its period. Safe to call from any thread.
+     *
+     * @param world the world UUID
+     * @param key the coordinates packed with {@link BlockKey}
+     * @param tick the tick
+     * @return true if the lamp is indexed and lit, otherwise false
+     */
+    public synchronized boolean isLitAt(UUID world, long key, long tick) {
+        int slot = find(world, key);
+        return slot != FREE && isLitAt(slot, tick);
+    }
+
+    /**
+     * Copies the positions of the lamps of a chunk into an array, without allocating. Safe to call from any thread.
+     *
+     * @param world the world UUID
+     * @param chunkKey the chunk coordinates packed with {@link BlockKey#chunkKey(int, int)}
+     * @param out the array receiving the positions packed with {@link BlockKey}; lamps past its length are
+     *            counted but not copied
+     * @return the number of lamps in the chunk
+     */
+    public synchronized int chunkPositions(UUID world, long chunkKey, long[] out) {
+        Integer id = worldIds.get(world);
+        if (id == null) {
+            return 0;
+        }
+
+        int count = 0;
+        for (int slot = chunkHeads.get(id).get(chunkKey); slot != FREE; slot = chunkNext[slot]) {
+            if (count < out.length) {
+                out[count] = position[slot];
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Adds a plain blinking lamp, or updates its period and phase if it is already indexed.
+     *
+     * @param worldId the world id
+     * @param key the coordinates packed with {@link BlockKey}
+     * @param ticks the number of ticks between two toggles
+     * @param offset the phase of the lamp
+     * @return the slot of the lamp
+     */
+    public int add(int worldId, long key, int ticks, int offset) {
+        return add(worldId, key, ticks, offset, null);
+    }
+
+    /**
+     * Adds a lamp, or updates its period, phase and pattern if it is already indexed.
+     * The group of a lamp already indexed is left unchanged.
+     *
+     * @param worldId the world id
+     * @param key the coordinates packed with {@link BlockKey}
+     * @param ticks the number of ticks between two toggles, used when the lamp has no pattern
+     * @param offset the phase of the lamp
+     * @param lampPattern the pattern of the lamp, or null for a plain blinking lamp
+     * @return the slot of the lamp
+     */
+    public synchronized int add(int worldId, long key, int ticks, int offset, LampPattern lampPattern) {
+        LongIntMap map = positions.get(worldId);
+        int slot = map.get(key);
+
+        if (slot == LongIntMap.MISSING) {
+            slot = allocateSlot();
+            map.put(key, slot);
+            worldOf[slot] = worldId;
+            position[slot] = key;
+            setLit(slot, false);
+            setStale(slot, true);
+            group[slot] = null;
+            owner[slot] = FREE;
+            linkChunk(slot);
+            size++;
+        }
+
+        period[slot] = ticks;
+        phase[slot] = offset;
+        pattern[slot] = lampPattern;
+        return slot;
+    }
+
+    /**
+     * Removes a lamp.
+     *
+     * @param slot the slot of the lamp
+     */
+    public synchronized void remove(int slot) {
+        if (!isUsed(slot)) {
+            return;
+        }
+
+        positions.get(worldOf[slot]).remove(position[slot]);
+        unlinkChunk(slot);
+        if (owner[slot] != FREE) {
+            ownerCounts[owner[slot]]--;
+        }
+        worldOf[slot] = FREE;
+        pattern[slot] = null;
+        group[slot] = null;
+        owner[slot] = FREE;
+        size--;
+
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Removes every lamp.
+     */
+    public synchronized void clear() {
+        for (LongIntMap map : positions) {
+            map.clear();
+        }
+        for (LongIntMap map : chunkHeads) {
+            map.clear();
+        }
+        Arrays.fill(worldOf, FREE);
+        Arrays.fill(pattern, null);
+        Arrays.fill(group, null);
+        Arrays.fill(ownerCounts, 0);
+        nextSlot = 0;
+        freeCount = 0;
+        size = 0;
+    }
+
+    /**
+     * Gets the first lamp of a chunk.
+     *
+     * @param worldId the world id
+     * @param chunkKey the chunk coordinates packed with {@link BlockKey#chunkKey(int, int)}
+     * @return the slot of the first lamp, or -1 if the chunk has no lamps
+     */
+    public synchronized int firstInChunk(int worldId, long chunkKey) {
+        return chunkHeads.get(worldId).get(chunkKey);
+    }
+
+    /**
+     * Gets the next lamp in the same chunk.
+     *
+     * @param slot the slot of the current lamp
+     * @return the slot of the next lamp, or -1 if there are no more lamps in the chunk
+     */
+    public int nextInChunk(int slot) {
+        return chunkNext[slot];
+    }
+
+    /**
+     * Checks if a slot holds a lamp.
+     *
+     * @param slot the slot
+     * @return true if the slot is in use, otherwise false
+     */
+    public boolean isUsed(int slot) {
+        return slot >= 0 && slot < nextSlot && worldOf[slot] != FREE;
+    }
+
+    /**
+     * Gets the number of indexed lamps.
+     *
+     * @return the number of lamps
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the upper bound of slot numbers, for iterating with {@link #isUsed(int)}.
+     *
+     * @return one more than the highest slot ever used
+     */
+    public int slotLimit() {
+        return nextSlot;
+    }
+
+    /**
+     * Gets the world id of a lamp.
+     *
+     * @param slot the slot of the lamp
+     * @return the world id
+     */
+    public int worldOf(int slot) {
+        return worldOf[slot];
+    }
+
+    /**
+     * Gets the packed coordinates of a lamp.
+     *
+     * @param slot the slot of the lamp
+     * @return the coordinates packed with {@link BlockKey}
+     */
+    public long position(int slot) {
+        return position[slot];
+    }
+
+    /**
+     * Gets the number of ticks between two toggles of a lamp.
+     *
+     * @param slot the slot of the lamp
+     * @return the period in ticks
+     */
+    public int period(int slot) {
+        return period[slot];
+    }
+
+    /**
+     * Gets the phase of a lamp.
+     *
+     * @param slot the slot of the lamp
+     * @return the phase in ticks
+     */
+    public int phase(int slot) {
+        return phase[slot];
+    }
+
+    /**
+     * Gets the pattern of a lamp.
+     *
+     * @param slot the slot of the lamp
+     * @return the pattern, or null for a plain blinking lamp
+     */
+    public LampPattern pattern(int slot) {
+        return pattern[slot];
+    }
+
+    /**
+     * Gets the group of a lamp.
+     *
+     * @param slot the slot of the lamp
+     * @return the group, or null if the lamp is scheduled on its own
+     */
+    public LampGroup group(int slot) {
+        return group[slot];
+    }
+
+    /**
+     * Sets the group of a lamp.
+     *
+     * @param slot the slot of the lamp
+     * @param lampGroup the group, or null to schedule the lamp on its own
+     */
+    public void setGroup(int slot, LampGroup lampGroup) {
+        group[slot] = lampGroup;
+    }
+
+    /**
+     * Gets the owner of a lamp.
+     *
+     * @param slot the slot of the lamp
+     * @return the UUID of the player who activated the lamp, or null if it has no owner
+     */
+    public synchronized UUID owner(int slot) {
+        return owner[slot] == FREE ? null : owners.get(owner[slot]);
+    }
+
+    /**
+     * Sets the owner of a lamp, moving it to the lamp count of its new owner.
+     *
+     * @param slot the slot of the lamp
+     * @param player the UUID of the owner, or null to leave the lamp without an owner
+     */
+    public synchronized void setOwner(int slot, UUID player) {
+        if (owner[slot] != FREE) {
+            ownerCounts[owner[slot]]--;
+        }
+
+        if (player == null) {
+            owner[slot] = FREE;
+            return;
+        }
+
+        Integer id = ownerIds.get(player);
+        if (id == null) {
+            id = owners.size();
+            ownerIds.put(player, id);
+            owners.add(player);
+            if (id == ownerCounts.length) {
+                ownerCounts = Arrays.copyOf(ownerCounts, id * 2);
+            }
+        }
+        owner[slot] = id;
+        ownerCounts[id]++;
+    }
+
+    /**
+     * Gets the number of indexed lamps owned by a player.
+     *
+     * @param player the UUID of the player
+     * @return the number of lamps of the player
+     */
+    public synchronized int ownedBy(UUID player) {
+        Integer id = ownerIds.get(player);
+        return id == null ? 0 : ownerCounts[id];
+    }
+
+    /**
+     * Checks if a lamp is lit at a given tick, according to its pattern or its period.
+     *
+     * @param slot the slot of the lamp
+     * @param tick the tick
+     * @return true if the lamp is lit, otherwise false
+     */
+    public boolean isLitAt(int slot, long tick) {
+        LampPattern lampPattern = pattern[slot];
+        return lampPattern != null
+                ? lampPattern.isLitAt(tick, phase[slot])
+                : LampScheduler.isLitAt(tick, period[slot], phase[slot]);
+    }
+
+    /**
+     * Gets the first tick after the given one at which a lamp toggles, according to its pattern or its period.
+     *
+     * @param slot the slot of the lamp
+     * @param tick the tick
+     * @return the tick of the next toggle
+     */
+    public long nextToggle(int slot, long tick) {
+        LampPattern lampPattern = pattern[slot];
+        return lampPattern != null
+                ? lampPattern.nextToggle(tick, phase[slot])
+                : LampScheduler.nextToggle(tick, period[slot], phase[slot]);
+    }
+
+    /**
+     * Checks if a lamp was last set to lit.
+     *
+     * @param slot the slot of the lamp
+     * @return true if the lamp is lit, otherwise false
+     */
+    public boolean isLit(int slot) {
+        return (lit[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Sets the lit state of a lamp.
+     *
+     * @param slot the slot of the lamp
+     * @param value whether the lamp is lit
+     */
+    public void setLit(int slot, boolean value) {
+        if (value) {
+            lit[slot >>> 6] |= 1L << slot;
+        } else {
+            lit[slot >>> 6] &= ~(1L << slot);
+        }
+    }
+
+    /**
+     * Checks if the block of a lamp has not been rendered since the lamp was indexed.
+     *
+     * @param slot the slot of the lamp
+     * @return true if the block may not match the lit state, otherwise false
+     */
+    public boolean isStale(int slot) {
+        return (stale[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Sets whether the block of a lamp has not been rendered since the lamp was indexed.
+     *
+     * @param slot the slot of the lamp
+     * @param value whether the block may not match the lit state
+     */
+    public void setStale(int slot, boolean value) {
+        if (value) {
+            stale[slot >>> 6] |= 1L << slot;
+        } else {
+            stale[slot >>> 6] &= ~(1L << slot);
+        }
+    }
+
+    /**
+     * Gets the number of bytes used by the backing arrays.
+     *
+     * @return the approximate heap footprint in bytes
+     */
+    public synchronized long memoryFootprint() {
+        long bytes = (long) worldOf.length * (Integer.BYTES * 8 + Long.BYTES)
+                + (long) lit.length * Long.BYTES * 2
+                + (long) freeSlots.length * Integer.BYTES;
+        for (LongIntMap map : positions) {
+            bytes += map.memoryFootprint();
+        }
+        for (LongIntMap map : chunkHeads) {
+            bytes += map.memoryFootprint();
+        }
+        return bytes;
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+
+        if (nextSlot == worldOf.length) {
+            grow();
+        }
+        return nextSlot++;
+    }
+
+    private void grow() {
+        int oldCapacity = worldOf.length;
+        int newCapacity = oldCapacity + (oldCapacity >> 1);
+
+        worldOf = Arrays.copyOf(worldOf, newCapacity);
+        Arrays.fill(worldOf, oldCapacity, newCapacity, FREE);
+        position = Arrays.copyOf(position, newCapacity);
+        period = Arrays.copyOf(period, newCapacity);
+        phase = Arrays.copyOf(phase, newCapacity);
+        pattern = Arrays.copyOf(pattern, newCapacity);
+        group = Arrays.copyOf(group, newCapacity);
+        owner = Arrays.copyOf(owner, newCapacity);
+        lit = Arrays.copyOf(lit, (newCapacity + 63) >>> 6);
+        stale = Arrays.copyOf(stale, (newCapacity + 63) >>> 6);
+        chunkNext = Arrays.copyOf(chunkNext, newCapacity);
+        chunkPrev = Arrays.copyOf(chunkPrev, newCapacity);
+    }
+
+    private void linkChunk(int slot) {
+        LongIntMap heads = chunkHeads.get(worldOf[slot]);
+        long chunkKey = BlockKey.chunkKey(position[slot]);
+        int head = heads.get(chunkKey);
+
+        chunkNext[slot] = head;
+        chunkPrev[slot] = FREE;
+        if (head != FREE) {
+            chunkPrev[head] = slot;
+        }
+        heads.put(chunkKey, slot);
+    }
+
+    private void unlinkChunk(int slot) {
+        int before = chunkPrev[slot];
+        int after = chunkNext[slot];
+
+        if (after != FREE) {
+            chunkPrev[after] = before;
+        }
+        if (before != FREE) {
+            chunkNext[before] = after;
+        } else {
+            LongIntMap heads = chunkHeads.get(worldOf[slot]);
+            long chunkKey = BlockKey.chunkKey(position[slot]);
+            if (after != FREE) {
+                heads.put(chunkKey, after);
+            } else {
+                heads.remove(chunkKey);
+            }
+        }
+    }
+}
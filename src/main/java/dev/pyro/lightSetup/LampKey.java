@@ -0,0 +1,12 @@
+package dev.pyro.lightSetup;
+
+import java.util.UUID;
+
+/**
+ * Identifies a stored lamp by its world and packed block coordinates.
+ *
+ * @param world the UUID of the world
+ * @param position the coordinates packed with {@link BlockKey}
+ */
+public record LampKey(UUID world, long position) {
+}
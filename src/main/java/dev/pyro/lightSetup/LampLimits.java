@@ -0,0 +1,155 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-player lamp limits read from the 'limits' section of config.yml.
+ * Every player gets the default limits; a player with the permission {@code lightsetup.limits.<tier>} also gets
+ * the limits of that tier, and the most generous of them apply. Players with {@value #BYPASS_PERMISSION}
+ * have no limits. Limits are resolved on the thread handling the player and checked on the lamp thread.
+ */
+public class LampLimits {
+    /**
+     * Permission lifting every limit.
+     */
+    public static final String BYPASS_PERMISSION = "lightsetup.limits.bypass";
+
+    /**
+     * Limits of one player.
+     *
+     * @param maxLamps the maximum number of active lamps the player can own, or 0 for no limit
+     * @param minTicks the minimum number of ticks between two toggles of a lamp
+     */
+    public record Limit(int maxLamps, int minTicks) {
+        /**
+         * Limits of players without any limit.
+         */
+        public static final Limit NONE = new Limit(0, 1);
+
+        /**
+         * Checks if the player can own one more lamp.
+         *
+         * @param owned the number of lamps the player owns
+         * @return true if another lamp is allowed, otherwise false
+         */
+        public boolean allowsAnother(int owned) {
+            return maxLamps <= 0 || owned < maxLamps;
+        }
+
+        /**
+         * Merges two limits, keeping the most generous value of each.
+         *
+         * @param other the other limits
+         * @return the merged limits
+         */
+        Limit widen(Limit other) {
+            int lamps = maxLamps <= 0 || other.maxLamps <= 0 ? 0 : Math.max(maxLamps, other.maxLamps);
+            return new Limit(lamps, Math.min(minTicks, other.minTicks));
+        }
+    }
+
+    private final Limit defaults;
+    private final Map<String, Limit> tiers;
+    private final boolean quantize;
+
+    /**
+     * Constructs a new LampLimits.
+     *
+     * @param defaults the limits of every player
+     * @param tiers the limits granted by each permission tier
+     * @param quantize whether periods are rounded to shared buckets while the scheduler is overloaded
+     */
+    public LampLimits(Limit defaults, Map<String, Limit> tiers, boolean quantize) {
+        this.defaults = defaults;
+        this.tiers = tiers;
+        this.quantize = quantize;
+    }
+
+    /**
+     * Reads the limits of a configuration section.
+     *
+     * @param section the 'limits' section, or null if there is none
+     * @return the limits
+     */
+    public static LampLimits load(ConfigurationSection section) {
+        if (section == null) {
+            return new LampLimits(Limit.NONE, Map.of(), true);
+        }
+
+        Limit defaults = readLimit(section, Limit.NONE);
+        Map<String, Limit> tiers = new LinkedHashMap<>();
+        ConfigurationSection tierSection = section.getConfigurationSection("tiers");
+        if (tierSection != null) {
+            for (String name : tierSection.getKeys(false)) {
+                tiers.put(name, readLimit(tierSection.getConfigurationSection(name), defaults));
+            }
+        }
+        return new LampLimits(defaults, tiers, section.getBoolean("quantize-when-overloaded", true));
+    }
+
+    /**
+     * Gets the limits of a player, or of any other sender.
+     *
+     * @param player the player
+     * @return the most generous limits among the defaults and the tiers the player has
+     */
+    public Limit of(CommandSender player) {
+        if (player.hasPermission(BYPASS_PERMISSION)) {
+            return Limit.NONE;
+        }
+
+        Limit limit = defaults;
+        for (Map.Entry<String, Limit> tier : tiers.entrySet()) {
+            if (player.hasPermission("lightsetup.limits." + tier.getKey())) {
+                limit = limit.widen(tier.getValue());
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Checks if periods are rounded to shared buckets while the scheduler is overloaded.
+     *
+     * @return true if quantization is enabled, otherwise false
+     */
+    public boolean quantizesWhenOverloaded() {
+        return quantize;
+    }
+
+    /**
+     * Rounds a period up to the nearest bucket. Periods up to 4 ticks are kept; longer periods are rounded up
+     * to a multiple of a quarter of their highest power of two, so periods within about 25% of each other
+     * share the same bucket and no lamp toggles more often than asked.
+     *
+     * @param ticks the number of ticks between two toggles
+     * @return the period of the bucket
+     */
+    public static int quantize(int ticks) {
+        if (ticks <= 4) {
+            return ticks;
+        }
+        int step = Integer.highestOneBit(ticks) >> 2;
+        return (int) Math.min(Integer.MAX_VALUE, ((long) ticks + step - 1) / step * step);
+    }
+
+    /**
+     * Reads the limits of one section. Keys missing from the section keep the inherited value, so a tier
+     * setting only one of them does not lift the other.
+     *
+     * @param section the section, or null to keep the inherited limits
+     * @param inherited the limits used for the keys missing from the section
+     * @return the limits
+     */
+    private static Limit readLimit(ConfigurationSection section, Limit inherited) {
+        if (section == null) {
+            return inherited;
+        }
+        int maxLamps = section.contains("max-lamps") ? Math.max(0, section.getInt("max-lamps")) : inherited.maxLamps();
+        int minTicks = section.contains("min-ticks") ? Math.max(1, section.getInt("min-ticks")) : inherited.minTicks();
+        return new Limit(maxLamps, minTicks);
+    }
+}
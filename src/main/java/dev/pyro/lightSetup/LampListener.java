@@ -7,42 +7,48 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
 
 /**
  * Listener for player interactions with Redstone Lamps.
  * This listener toggles the state of Redstone Lamps when a player interacts with them using a specific wand item.
+ * Left-clicking a block with the wand selects the first corner of a cuboid, sneaking and right-clicking selects the second.
  */
 public class LampListener implements Listener {
     private final Plugin plugin;
     private final LampManager lampManager;
+    private final WandSelection selection;
 
     /**
      * Constructs a new LampListener.
      *
      * @param plugin the plugin instance
      * @param lampManager the lamp manager instance
+     * @param selection the cuboid selections of the players
      */
-    public LampListener(Plugin plugin, LampManager lampManager) {
+    public LampListener(Plugin plugin, LampManager lampManager, WandSelection selection) {
         this.plugin = plugin;
         this.lampManager = lampManager;
+        this.selection = selection;
     }
 
     /**
      * Handles the PlayerInteractEvent.
      * If the player right-clicks a Redstone Lamp with a specific wand item, it toggles the lamp's state.
+     * Left clicks and sneaking right clicks with the wand select the corners of a cuboid instead.
      *
      * @param event the player interact event
      */
     @EventHandler
     public void onPlayerInteract(PlayerInteractEvent event) {
-        if (event.getAction() != Action.RIGHT_CLICK_BLOCK) {
+        if (event.getAction() != Action.RIGHT_CLICK_BLOCK && event.getAction() != Action.LEFT_CLICK_BLOCK) {
             return;
         }
 
         Block clickedBlock = event.getClickedBlock();
-        if (clickedBlock == null || clickedBlock.getType() != Material.REDSTONE_LAMP) {
+        if (clickedBlock == null) {
             return;
         }
 
@@ -55,11 +61,67 @@ public class LampListener implements Listener {
             return;
         }
 
+        Player player = event.getPlayer();
+        if (event.getAction() == Action.LEFT_CLICK_BLOCK) {
+            event.setCancelled(true);
+            selection.setFirst(player.getUniqueId(), clickedBlock.getLocation());
+            player.sendMessage("§dPrimo punto selezionato: " + formatBlock(clickedBlock));
+            return;
+        }
+
+        if (player.isSneaking()) {
+            event.setCancelled(true);
+            selection.setSecond(player.getUniqueId(), clickedBlock.getLocation());
+            player.sendMessage("§dSecondo punto selezionato: " + formatBlock(clickedBlock));
+            return;
+        }
+
+        if (clickedBlock.getType() != Material.REDSTONE_LAMP) {
+            return;
+        }
+
         event.setCancelled(true);
 
+        String groupName = WandCreator.getWandGroup(item);
+        if (groupName != null) {
+            lampManager.toggleGroupMember(clickedBlock, player, groupName);
+            return;
+        }
+
+        String patternName = WandCreator.getWandPattern(item);
+        if (patternName != null) {
+            LampPattern pattern = lampManager.getPatterns().get(patternName);
+            if (pattern == null) {
+                player.sendMessage("§cIl pattern '" + patternName + "' non esiste più!");
+            } else if (lampManager.toggleLampWithPattern(clickedBlock, player, pattern, WandCreator.getWandOffset(item))) {
+                WandCreator.advanceWandOffset(item);
+            }
+            return;
+        }
+
         int ticks = WandCreator.getWandTicks(item);
 
-        lampManager.toggleLampWithTicks(clickedBlock, event.getPlayer(), ticks);
+        lampManager.toggleLampWithTicks(clickedBlock, player, ticks);
+    }
+
+    /**
+     * Handles the PlayerQuitEvent, forgetting the cuboid selected by the player.
+     *
+     * @param event the player quit event
+     */
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        selection.clear(event.getPlayer().getUniqueId());
+    }
+
+    /**
+     * Formats the coordinates of a block for chat messages.
+     *
+     * @param block the block
+     * @return the coordinates separated by commas
+     */
+    private String formatBlock(Block block) {
+        return block.getX() + ", " + block.getY() + ", " + block.getZ();
     }
 
     /**
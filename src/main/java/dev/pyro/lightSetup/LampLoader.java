@@ -0,0 +1,391 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Loads the stored lamps at startup without blocking the server.
+ * The store is read and grouped by chunk on the background writer. The lamps of every loaded chunk are then
+ * checked against a snapshot of the chunk on a background thread, and registered on the lamp thread in batches.
+ * Lamps of unloaded chunks are registered without a check, unless checking them is enabled, and are checked
+ * when their chunk loads. Lamps found invalid are pruned from the store with a single flush at the end.
+ * Members of the stored groups are loaded the same way and attached to their group as they are registered;
+ * the groups themselves must be restored in the {@link LampGroups} before {@link #start()}.
+ * A loader is also started for every world loaded after startup, with the stored lamps of that world only.
+ */
+public class LampLoader implements Runnable {
+    /**
+     * Decides whether the lamps of a loaded chunk should start running.
+     */
+    @FunctionalInterface
+    public interface ChunkFilter {
+        /**
+         * Checks a chunk.
+         *
+         * @param world the world of the chunk
+         * @param chunkX the chunk x coordinate
+         * @param chunkZ the chunk z coordinate
+         * @return true if the lamps of the chunk should run, otherwise false
+         */
+        boolean test(World world, int chunkX, int chunkZ);
+    }
+
+    /**
+     * Stored lamps of one chunk.
+     *
+     * @param world the world of the chunk, or null while the world is not resolved
+     * @param worldUid the UUID of the world
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @param lamps the stored lamps of the chunk
+     */
+    private record ChunkLamps(World world, UUID worldUid, int chunkX, int chunkZ, List<LampRecord> lamps) {
+    }
+
+    /**
+     * Lamps of one chunk ready to be registered.
+     *
+     * @param chunk the chunk
+     * @param valid the lamps to register
+     * @param invalid the lamps to prune
+     */
+    private record Batch(ChunkLamps chunk, List<LampRecord> valid, List<LampRecord> invalid) {
+    }
+
+    private final LampPlatform platform;
+    private final LampIndex index;
+    private final LampScheduler scheduler;
+    private final LampPersistence persistence;
+    private final PatternRegistry patterns;
+    private final LampGroups groups;
+    private final ChunkFilter filter;
+    private final Logger logger;
+    private final Function<UUID, World> worldLookup;
+    private final boolean checkUnloaded;
+    private final int chunksPerTick;
+    private final int lampsPerTick;
+    private final Queue<Batch> ready;
+    private List<ChunkLamps> chunks;
+    private List<LampKey> duplicates;
+    private LampPlatform.Handle handle;
+    private int requested;
+    private int registered;
+    private int loaded;
+    private int pruned;
+    private int unknownPatterns;
+    private boolean groupsChanged;
+    private boolean done;
+    private long startNanos;
+
+    /**
+     * Constructs a new LampLoader.
+     *
+     * @param platform the platform running the loader
+     * @param index the index receiving the lamps
+     * @param scheduler the scheduler running the lamps
+     * @param persistence the persistence pruning invalid lamps and tracking pending changes
+     * @param patterns the patterns of the stored lamps
+     * @param groups the groups of the stored lamps
+     * @param filter the filter deciding which loaded chunks start running
+     * @param logger the logger receiving the summary
+     * @param checkUnloaded whether unloaded chunks are loaded to check their lamps
+     * @param chunksPerTick the number of chunks checked per tick
+     * @param lampsPerTick the number of lamps registered per tick
+     */
+    public LampLoader(LampPlatform platform, LampIndex index, LampScheduler scheduler, LampPersistence persistence,
+                      PatternRegistry patterns, LampGroups groups, ChunkFilter filter, Logger logger,
+                      boolean checkUnloaded, int chunksPerTick, int lampsPerTick) {
+        this(platform, index, scheduler, persistence, patterns, groups, filter, logger, checkUnloaded, chunksPerTick,
+                lampsPerTick, Bukkit::getWorld);
+    }
+
+    /**
+     * Constructs a new LampLoader with a custom world lookup.
+     *
+     * @param platform the platform running the loader
+     * @param index the index receiving the lamps
+     * @param scheduler the scheduler running the lamps
+     * @param persistence the persistence pruning invalid lamps and tracking pending changes
+     * @param patterns the patterns of the stored lamps
+     * @param groups the groups of the stored lamps
+     * @param filter the filter deciding which loaded chunks start running
+     * @param logger the logger receiving the summary
+     * @param checkUnloaded whether unloaded chunks are loaded to check their lamps
+     * @param chunksPerTick the number of chunks checked per tick
+     * @param lampsPerTick the number of lamps registered per tick
+     * @param worldLookup the function returning the loaded world of a UUID, or null
+     */
+    LampLoader(LampPlatform platform, LampIndex index, LampScheduler scheduler, LampPersistence persistence,
+               PatternRegistry patterns, LampGroups groups, ChunkFilter filter, Logger logger, boolean checkUnloaded,
+               int chunksPerTick, int lampsPerTick, Function<UUID, World> worldLookup) {
+        this.platform = platform;
+        this.index = index;
+        this.scheduler = scheduler;
+        this.persistence = persistence;
+        this.patterns = patterns;
+        this.groups = groups;
+        this.filter = filter;
+        this.logger = logger;
+        this.worldLookup = worldLookup;
+        this.checkUnloaded = checkUnloaded;
+        this.chunksPerTick = Math.max(1, chunksPerTick);
+        this.lampsPerTick = Math.max(1, lampsPerTick);
+        this.ready = new ConcurrentLinkedQueue<>();
+        this.chunks = new ArrayList<>();
+        this.duplicates = new ArrayList<>();
+    }
+
+    /**
+     * Groups the stored lamps and the members of the stored groups by chunk. Runs on any thread, before {@link #start()}.
+     * A lamp stored both on its own and in a group, left by a crash while it was moved into the group,
+     * is loaded as a group member and its own record is pruned.
+     *
+     * @param lamps the stored lamps
+     * @param groupRecords the stored groups
+     */
+    public void prepare(Map<LampKey, LampRecord> lamps, List<GroupRecord> groupRecords) {
+        startNanos = System.nanoTime();
+        for (GroupRecord group : groupRecords) {
+            for (LampKey key : group.members()) {
+                if (lamps.put(key, new LampRecord(key, group.period(), group.phase(), group.pattern(), group.owner())) != null) {
+                    duplicates.add(key);
+                }
+            }
+        }
+
+        Map<UUID, Map<Long, List<LampRecord>>> byChunk = new HashMap<>();
+        for (LampRecord record : lamps.values()) {
+            byChunk.computeIfAbsent(record.key().world(), uid -> new HashMap<>())
+                    .computeIfAbsent(BlockKey.chunkKey(record.key().position()), chunk -> new ArrayList<>())
+                    .add(record);
+        }
+
+        List<ChunkLamps> grouped = new ArrayList<>();
+        for (Map.Entry<UUID, Map<Long, List<LampRecord>>> world : byChunk.entrySet()) {
+            for (Map.Entry<Long, List<LampRecord>> chunk : world.getValue().entrySet()) {
+                long chunkKey = chunk.getKey();
+                grouped.add(new ChunkLamps(null, world.getKey(), (int) (chunkKey >> 32), (int) chunkKey, chunk.getValue()));
+            }
+        }
+        chunks = grouped;
+    }
+
+    /**
+     * Starts checking and registering the grouped lamps. Must be called on the lamp thread.
+     * Lamps whose world is not loaded are kept in the store and loaded with their world.
+     */
+    public void start() {
+        Map<UUID, World> worlds = new HashMap<>();
+        List<ChunkLamps> resolved = new ArrayList<>(chunks.size());
+        for (ChunkLamps chunk : chunks) {
+            World world = worlds.computeIfAbsent(chunk.worldUid(), worldLookup);
+            if (world != null) {
+                resolved.add(new ChunkLamps(world, chunk.worldUid(), chunk.chunkX(), chunk.chunkZ(), chunk.lamps()));
+            }
+        }
+        chunks = resolved;
+
+        persistence.hold();
+        for (LampKey key : duplicates) {
+            persistence.removeLamp(key);
+        }
+        handle = platform.runRepeating(this, 1, 1);
+    }
+
+    /**
+     * Stops loading, leaving the lamps not registered yet in the store.
+     */
+    public void cancel() {
+        if (handle != null) {
+            handle.cancel();
+            handle = null;
+            persistence.release();
+        }
+    }
+
+    /**
+     * Checks if every lamp has been registered.
+     *
+     * @return true once loading is complete, otherwise false
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Gets the number of lamps registered.
+     *
+     * @return the number of lamps loaded
+     */
+    public int getLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Requests the next chunk snapshots and registers the lamps checked so far, within the per-tick budget.
+     */
+    @Override
+    public void run() {
+        for (int i = 0; i < chunksPerTick && requested < chunks.size(); i++) {
+            request(chunks.get(requested++));
+        }
+
+        int budget = lampsPerTick;
+        Batch batch;
+        while (budget > 0 && (batch = ready.poll()) != null) {
+            register(batch);
+            budget -= Math.max(1, batch.valid().size() + batch.invalid().size());
+            registered++;
+        }
+
+        if (registered == chunks.size() && !done) {
+            done = true;
+            if (groupsChanged) {
+                persistence.saveGroups(groups.records());
+            }
+            cancel();
+            logger.info("Caricate " + loaded + " lampade in " + (System.nanoTime() - startNanos) / 1_000_000 + " ms"
+                    + (pruned > 0 ? " (" + pruned + " non valide rimosse)" : ""));
+            if (unknownPatterns > 0) {
+                logger.warning(unknownPatterns + " lampade usano un pattern non più definito e lampeggiano con il loro intervallo");
+            }
+        }
+    }
+
+    /**
+     * Checks if the world of a chunk is still loaded.
+     *
+     * @param chunk the stored lamps of the chunk
+     * @return true if the world has not been unloaded since the loader started, otherwise false
+     */
+    private boolean isAttached(ChunkLamps chunk) {
+        return worldLookup.apply(chunk.worldUid()) == chunk.world();
+    }
+
+    /**
+     * Checks the lamps of a chunk against a snapshot taken on the thread owning it.
+     * Unloaded chunks are registered unchecked unless checking them is enabled; chunks that were never
+     * generated or cannot be loaded are registered unchecked too.
+     *
+     * @param chunk the stored lamps of the chunk
+     */
+    private void request(ChunkLamps chunk) {
+        World world = chunk.world();
+        if (!isAttached(chunk)) {
+            ready.add(new Batch(chunk, List.of(), List.of()));
+            return;
+        }
+        if (!checkUnloaded && !world.isChunkLoaded(chunk.chunkX(), chunk.chunkZ())) {
+            ready.add(new Batch(chunk, chunk.lamps(), List.of()));
+            return;
+        }
+
+        world.getChunkAtAsync(chunk.chunkX(), chunk.chunkZ(), false).whenComplete((loadedChunk, error) -> {
+            if (loadedChunk == null) {
+                ready.add(new Batch(chunk, chunk.lamps(), List.of()));
+                return;
+            }
+
+            ChunkSnapshot snapshot = loadedChunk.getChunkSnapshot(false, false, false);
+            platform.runAsync(() -> ready.add(check(chunk, snapshot)));
+        });
+    }
+
+    /**
+     * Splits the lamps of a chunk into lamps whose block is still a Redstone Lamp and invalid lamps.
+     *
+     * @param chunk the stored lamps of the chunk
+     * @param snapshot the snapshot of the chunk
+     * @return the checked lamps
+     */
+    private Batch check(ChunkLamps chunk, ChunkSnapshot snapshot) {
+        List<LampRecord> valid = new ArrayList<>(chunk.lamps().size());
+        List<LampRecord> invalid = new ArrayList<>();
+        for (LampRecord record : chunk.lamps()) {
+            long position = record.key().position();
+            if (snapshot.getBlockType(BlockKey.x(position) & 15, BlockKey.y(position), BlockKey.z(position) & 15)
+                    == Material.REDSTONE_LAMP) {
+                valid.add(record);
+            } else {
+                invalid.add(record);
+            }
+        }
+        return new Batch(chunk, valid, invalid);
+    }
+
+    /**
+     * Registers the lamps of a chunk and prunes its invalid lamps. Runs on the lamp thread.
+     * Lamps already indexed were activated again since startup and keep their new state, valid or not; lamps with a
+     * change still waiting to be written, such as a deactivation, keep that change and are not registered again.
+     * Lamps whose pattern is no longer defined blink with their stored period instead.
+     * Group members take the timing of their group, and invalid members are removed from it.
+     * Lamps of a world unloaded meanwhile are left in the store, to be loaded when the world is loaded again.
+     *
+     * @param batch the checked lamps
+     */
+    private void register(Batch batch) {
+        ChunkLamps chunk = batch.chunk();
+        if (!isAttached(chunk)) {
+            return;
+        }
+
+        World world = chunk.world();
+        int worldId = index.worldId(chunk.worldUid());
+        boolean resume = world.isChunkLoaded(chunk.chunkX(), chunk.chunkZ())
+                && filter.test(world, chunk.chunkX(), chunk.chunkZ());
+
+        for (LampRecord record : batch.valid()) {
+            long position = record.key().position();
+            if (index.find(worldId, position) >= 0 || persistence.isPending(record.key())) {
+                continue;
+            }
+
+            LampGroup group = groups.groupOf(record.key());
+            int slot;
+            if (group != null) {
+                slot = index.add(worldId, position, group.period(), group.phase(), group.pattern());
+                index.setGroup(slot, group);
+                group.attach(slot);
+            } else {
+                LampPattern pattern = null;
+                if (record.pattern() != 0) {
+                    pattern = patterns.byId(record.pattern());
+                    if (pattern == null) {
+                        unknownPatterns++;
+                    }
+                }
+                slot = index.add(worldId, position, record.period(), record.phase(), pattern);
+            }
+            index.setOwner(slot, record.owner());
+
+            if (resume) {
+                scheduler.resume(slot);
+            }
+            loaded++;
+        }
+
+        for (LampRecord record : batch.invalid()) {
+            if (index.find(worldId, record.key().position()) >= 0) {
+                continue;
+            }
+            if (groups.removeMember(record.key()) != null) {
+                groupsChanged = true;
+            } else {
+                persistence.removeLamp(record.key());
+            }
+            pruned++;
+        }
+    }
+}
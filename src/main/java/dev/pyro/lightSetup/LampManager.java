@@ -4,26 +4,57 @@ import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
+import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
-import org.bukkit.scheduler.BukkitRunnable;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
 
 /**
  * Manages the activation and deactivation of Redstone Lamps.
- * Handles saving and loading lamp states to and from a configuration file.
+ * Handles saving and loading lamp states to and from the binary lamp store.
+ * Changes to the lamp index are made on the lamp thread of the {@link LampPlatform}: the main thread on Paper,
+ * the global region thread on Folia. Public methods can be called from any thread and hop there when needed.
  */
-public class LampManager {
+public final class LampManager {
+    private static final List<String> RESTART_SETTINGS = List.of("render.mode", "culling.enabled", "culling.radius",
+            "culling.check-interval-ticks", "metrics.dump-interval-ticks", "metrics.dump-format", "metrics.top-chunks",
+            "validation.audit-lamps-per-tick", "persistence.flush-interval-ticks", "persistence.flush-threshold",
+            "persistence.compaction-ratio", "api.lamps-per-tick");
+
     private final Plugin plugin;
-    private final Map<Block, BukkitRunnable> activeLamps;
-    private final Map<String, Integer> savedLampTicks;
+    private final LampPlatform platform;
+    private final LampIndex index;
+    private final LampScheduler scheduler;
+    private final LampTask task;
+    private final LampRenderer renderer;
+    private final LampMetrics metrics;
+    private volatile PatternRegistry patterns;
+    private final LampGroups groups;
+    private volatile LampLimits limits;
     private final File configFile;
+    private final LampPersistence persistence;
+    private final ObserverTracker observers;
+    private final MetricsDumper metricsDumper;
+    private final LampAuditor auditor;
+    private final LampService service;
+    private final Map<UUID, BulkOperation> bulkOperations;
+    private final List<LampLoader> loaders;
+    private LampReloader reloader;
 
     /**
      * Constructs a new LampManager.
@@ -32,8 +63,30 @@ public class LampManager {
      */
     public LampManager(Plugin plugin) {
         this.plugin = plugin;
-        this.activeLamps = new HashMap<>();
-        this.savedLampTicks = new HashMap<>();
+        this.platform = FoliaPlatform.isSupported() ? new FoliaPlatform(plugin) : new PaperPlatform(plugin);
+        this.patterns = PatternRegistry.load(plugin.getConfig().getConfigurationSection("patterns"), plugin.getLogger());
+        this.groups = new LampGroups();
+        this.limits = LampLimits.load(plugin.getConfig().getConfigurationSection("limits"));
+        this.index = new LampIndex(256);
+        String renderMode = plugin.getConfig().getString("render.mode", "block");
+        if (platform.isRegionThreaded()) {
+            if ("visual".equalsIgnoreCase(renderMode)) {
+                plugin.getLogger().warning("La modalità 'visual' non è supportata su Folia, uso la modalità 'block'");
+            }
+            this.renderer = new RegionRenderer(platform, this::removeInvalidLamps);
+        } else if ("visual".equalsIgnoreCase(renderMode)) {
+            VisualRenderer visualRenderer = new VisualRenderer(index);
+            plugin.getServer().getPluginManager().registerEvents(visualRenderer, plugin);
+            this.renderer = visualRenderer;
+        } else {
+            this.renderer = new BlockRenderer(this::removeInvalidLamps);
+        }
+        this.metrics = new LampMetrics();
+        this.bulkOperations = new ConcurrentHashMap<>();
+        this.loaders = new CopyOnWriteArrayList<>();
+        this.task = new LampTask(index, renderer, metrics, plugin.getLogger());
+        this.scheduler = new LampScheduler(platform, index, task, metrics);
+        configureBudget();
         this.configFile = new File(plugin.getDataFolder(), "config.yml");
 
         if (!plugin.getDataFolder().exists()) {
@@ -49,20 +102,220 @@ public class LampManager {
             }
         }
 
-        YamlConfiguration config = YamlConfiguration.loadConfiguration(configFile);
-        if (!config.contains("lamps")) {
-            config.createSection("lamps");
-            try {
-                config.save(configFile);
-                plugin.getLogger().info("Inizializzata sezione 'lamps' in config.yml");
-            } catch (IOException e) {
-                plugin.getLogger().severe("Errore salvando config.yml: " + e.getMessage());
+        LampStore store = new LampStore(plugin.getDataFolder().toPath(), plugin.getLogger(),
+                plugin.getConfig().getDouble("persistence.compaction-ratio", 1.0));
+        this.persistence = new LampPersistence(plugin, store, metrics,
+                plugin.getConfig().getInt("persistence.flush-interval-ticks", 100),
+                plugin.getConfig().getInt("persistence.flush-threshold", 256));
+        restoreClock();
+
+        boolean culling = plugin.getConfig().getBoolean("culling.enabled", false);
+        if (culling && !platform.isRegionThreaded()) {
+            this.observers = new ObserverTracker(platform, this,
+                    plugin.getConfig().getInt("culling.radius", 0),
+                    plugin.getConfig().getInt("culling.check-interval-ticks", 20));
+            observers.start();
+        } else {
+            if (culling) {
+                plugin.getLogger().warning("Il culling delle lampade non è supportato su Folia e viene disattivato");
             }
+            this.observers = null;
+        }
+
+        int dumpInterval = plugin.getConfig().getInt("metrics.dump-interval-ticks", 0);
+        if (dumpInterval > 0) {
+            this.metricsDumper = new MetricsDumper(plugin, platform, this, dumpInterval,
+                    plugin.getConfig().getString("metrics.dump-format", "csv"),
+                    plugin.getConfig().getInt("metrics.top-chunks", 5));
+            metricsDumper.start();
+        } else {
+            this.metricsDumper = null;
         }
 
+        int auditLamps = plugin.getConfig().getInt("validation.audit-lamps-per-tick", 64);
+        if (auditLamps > 0) {
+            this.auditor = new LampAuditor(platform, index, scheduler, this::removeInvalidLamps, auditLamps);
+            auditor.start();
+        } else {
+            this.auditor = null;
+        }
+
+        this.service = new LampService(platform, this, index, scheduler, persistence,
+                plugin.getConfig().getInt("api.lamps-per-tick", 2000));
+        service.start();
+
+        scheduler.start();
+        importLegacyLamps();
         loadLamps();
     }
 
+    /**
+     * Restores the plugin clock from the lamp store and keeps saving it, so lamps come back in phase after a restart.
+     * With the wall clock, the time the server was stopped is added to the clock as well.
+     */
+    private void restoreClock() {
+        boolean wallClock = configureClock();
+        ClockRecord clock = persistence.loadClock();
+        if (clock != null) {
+            long downtime = wallClock ? Math.max(0, System.currentTimeMillis() - clock.savedAt()) / 50 : 0;
+            scheduler.setClock(clock.tick() + downtime);
+        }
+        persistence.trackClock(scheduler::publishedTick);
+    }
+
+    /**
+     * Applies the per-tick budget and the toggle rate of config.yml to the scheduler.
+     */
+    private void configureBudget() {
+        scheduler.setBudget(plugin.getConfig().getInt("budget.max-lamps-per-tick", 0),
+                plugin.getConfig().getLong("budget.max-micros-per-tick", 0),
+                plugin.getConfig().getBoolean("budget.adaptive", false),
+                plugin.getConfig().getDouble("budget.adaptive-min-tps", 18.0));
+        scheduler.setToggleRate(plugin.getConfig().getInt("budget.max-toggles-per-second", 0));
+    }
+
+    /**
+     * Applies the clock mode of config.yml to the scheduler.
+     *
+     * @return true if the wall clock is used, otherwise false
+     */
+    private boolean configureClock() {
+        boolean wallClock = "wall".equalsIgnoreCase(plugin.getConfig().getString("clock.mode", "ticks"));
+        scheduler.setWallClock(wallClock, plugin.getConfig().getInt("clock.max-catch-up-ticks", 100));
+        return wallClock;
+    }
+
+    /**
+     * Reloads config.yml and the lamp store without restarting the lamps.
+     * Patterns, limits, budget and clock are applied at once; settings read only at startup are reported to the
+     * sender. The store is then compared with the running lamps by a {@link LampReloader}, which applies only
+     * the differences, a few thousand lamps per tick. Refused while stored lamps are being loaded or reloaded.
+     *
+     * @param sender the sender receiving the result
+     */
+    public void reload(CommandSender sender) {
+        platform.runOnLampThread(() -> {
+            if (reloader != null || isLoading()) {
+                sender.sendMessage("§cRicaricamento o caricamento già in corso, riprova tra poco!");
+                return;
+            }
+
+            Map<String, Object> before = new HashMap<>();
+            for (String path : RESTART_SETTINGS) {
+                before.put(path, plugin.getConfig().get(path));
+            }
+            plugin.reloadConfig();
+            List<String> changed = new ArrayList<>();
+            for (String path : RESTART_SETTINGS) {
+                if (!Objects.equals(before.get(path), plugin.getConfig().get(path))) {
+                    changed.add(path);
+                }
+            }
+            if (!changed.isEmpty()) {
+                sender.sendMessage("§eQueste impostazioni richiedono un riavvio: " + String.join(", ", changed));
+            }
+
+            patterns = PatternRegistry.reload(plugin.getConfig().getConfigurationSection("patterns"), plugin.getLogger(), patterns);
+            limits = LampLimits.load(plugin.getConfig().getConfigurationSection("limits"));
+            configureBudget();
+            configureClock();
+
+            reloader = new LampReloader(platform, this, index, groups, persistence, sender, plugin.getLogger(),
+                    plugin.getConfig().getInt("reload.lamps-per-tick", 5000), () -> reloader = null);
+            sender.sendMessage("§eRicaricamento delle lampade in corso...");
+            reloader.start();
+        });
+    }
+
+    /**
+     * Creates a stored group that is missing, or retimes it if its timing differs from the store.
+     * Runs on the lamp thread during a reload.
+     *
+     * @param record the stored group
+     */
+    void reloadGroup(GroupRecord record) {
+        LampPattern pattern = record.pattern() != 0 ? patterns.byId(record.pattern()) : null;
+        LampGroup group = groups.get(record.name());
+        if (group == null) {
+            groups.create(record.name(), record.period(), record.phase(), pattern, record.owner());
+        } else if (group.period() != record.period() || group.phase() != record.phase() || group.pattern() != pattern) {
+            retimeGroup(group, record.period(), record.phase(), pattern);
+        }
+    }
+
+    /**
+     * Makes a lamp run as stored, unless it already does. Runs on the lamp thread during a reload.
+     * A stored group member joins its group; a lamp stored on its own is indexed again if its timing, pattern or
+     * owner differ, leaving any group. The lamp store is not written, since the lamp comes from it.
+     *
+     * @param world the world of the lamp
+     * @param record the stored lamp
+     * @param group the group of the lamp, or null if it is stored on its own
+     * @return true if the lamp was changed, otherwise false
+     */
+    boolean reloadLamp(World world, LampRecord record, LampGroup group) {
+        UUID worldUid = world.getUID();
+        long position = record.key().position();
+        int slot = index.find(worldUid, position);
+        if (group != null) {
+            if (slot >= 0 && index.group(slot) == group) {
+                return false;
+            }
+            joinGroup(group, world, position);
+            return true;
+        }
+
+        LampPattern pattern = record.pattern() != 0 ? patterns.byId(record.pattern()) : null;
+        if (slot >= 0 && index.group(slot) == null && index.period(slot) == record.period()
+                && index.phase(slot) == record.phase() && index.pattern(slot) == pattern
+                && Objects.equals(index.owner(slot), record.owner())) {
+            return false;
+        }
+
+        leaveGroup(worldUid, position);
+        if (slot >= 0) {
+            scheduler.cancel(slot);
+        }
+        slot = index.add(index.worldId(worldUid), position, record.period(), record.phase(), pattern);
+        index.setOwner(slot, record.owner());
+        int chunkX = BlockKey.x(position) >> 4;
+        int chunkZ = BlockKey.z(position) >> 4;
+        if (world.isChunkLoaded(chunkX, chunkZ) && isObserved(world, chunkX, chunkZ)) {
+            resumeLamp(world, slot);
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the groups that are no longer stored and have no lamp left, and removes the members of unloaded
+     * worlds that are no longer stored. Runs on the lamp thread at the end of a reload.
+     *
+     * @param names the names of the stored groups
+     * @param memberOf the group name of every stored member
+     */
+    void pruneGroups(Set<String> names, Map<LampKey, String> memberOf) {
+        boolean changed = false;
+        for (LampGroup group : new ArrayList<>(groups.all())) {
+            if (!names.contains(group.name()) && group.slotCount() == 0) {
+                scheduler.cancelGroup(group);
+                groups.delete(group);
+                changed = true;
+            }
+        }
+        for (GroupRecord record : groups.records()) {
+            for (LampKey key : record.members()) {
+                if (Bukkit.getWorld(key.world()) == null && !record.name().equals(memberOf.get(key))) {
+                    groups.removeMember(key);
+                    changed = true;
+                }
+            }
+        }
+
+        if (changed) {
+            saveGroups();
+        }
+    }
+
     /**
      * Checks if a lamp is currently active.
      *
@@ -70,7 +323,39 @@ public class LampManager {
      * @return true if the lamp is active, otherwise false
      */
     public boolean isLampActive(Block block) {
-        return activeLamps.containsKey(block);
+        return findSlot(block) >= 0;
+    }
+
+    /**
+     * Checks if a world has any lamp, active or suspended.
+     *
+     * @param world the world to check
+     * @return true if lamps have been indexed in the world, otherwise false
+     */
+    public boolean hasLamps(World world) {
+        int worldId = index.findWorld(world.getUID());
+        return worldId >= 0 && index.worldSize(worldId) > 0;
+    }
+
+    /**
+     * Removes lamps whose block has been destroyed or moved, leaving the blocks as they are.
+     *
+     * @param world the world of the lamps
+     * @param positions the coordinates of the lamps, packed with {@link BlockKey}
+     * @param count the number of positions
+     */
+    public void invalidateLamps(World world, long[] positions, int count) {
+        platform.runOnLampThread(() -> removeInvalidLamps(world, positions, count));
+    }
+
+    /**
+     * Finds the index slot of a lamp.
+     *
+     * @param block the lamp block
+     * @return the slot, or -1 if the lamp is not active
+     */
+    private int findSlot(Block block) {
+        return index.find(block.getWorld().getUID(), BlockKey.pack(block.getX(), block.getY(), block.getZ()));
     }
 
     /**
@@ -90,9 +375,122 @@ public class LampManager {
             deactivateLamp(lamp);
             player.sendMessage("§cLampada disattivata!");
         } else {
-            activateLampWithTicks(lamp, ticks);
-            player.sendMessage("§aLampada attivata con intervallo di " + ticks + " tick!");
+            activateLampWithTicks(lamp, ticks, player.getUniqueId(), limits.of(player), player);
+        }
+    }
+
+    /**
+     * Toggles the state of a Redstone Lamp, activating it with a pattern.
+     *
+     * @param lamp the lamp block
+     * @param player the player interacting with the lamp
+     * @param pattern the pattern of the lamp
+     * @param offset the number of ticks the lamp runs behind the start of the pattern
+     * @return true if the lamp was activated, false if it was deactivated or is not a lamp
+     */
+    public boolean toggleLampWithPattern(Block lamp, Player player, LampPattern pattern, int offset) {
+        if (lamp.getType() != org.bukkit.Material.REDSTONE_LAMP) {
+            player.sendMessage("§cErrore: questo blocco non è una lampada redstone!");
+            return false;
         }
+
+        if (isLampActive(lamp)) {
+            deactivateLamp(lamp);
+            player.sendMessage("§cLampada disattivata!");
+            return false;
+        }
+
+        LampLimits.Limit limit = limits.of(player);
+        if (!checkMinTicks(player, pattern.shortestRun(), limit)) {
+            return false;
+        }
+        activateLampWithPattern(lamp, pattern, offset, player.getUniqueId(), limit, player);
+        return true;
+    }
+
+    /**
+     * Activates a Redstone Lamp with a pattern.
+     * The phase of the lamp only depends on the offset, so lamps using the same pattern stay in sync
+     * regardless of when they were activated.
+     *
+     * @param lamp the lamp block
+     * @param pattern the pattern of the lamp
+     * @param offset the number of ticks the lamp runs behind the start of the pattern
+     */
+    public void activateLampWithPattern(Block lamp, LampPattern pattern, int offset) {
+        activateLampWithPattern(lamp, pattern, offset, null, LampLimits.Limit.NONE, null);
+    }
+
+    /**
+     * Activates a Redstone Lamp with a pattern on behalf of a player, within the limits of the player.
+     * The lamp is refused if the pattern changes state faster than the minimum number of ticks, or if it would
+     * be a new lamp past the lamp limit of the player.
+     *
+     * @param lamp the lamp block
+     * @param pattern the pattern of the lamp
+     * @param offset the number of ticks the lamp runs behind the start of the pattern
+     * @param owner the UUID of the player owning the lamp, or null if the lamp has no owner
+     * @param limit the limits of the owner
+     * @param sender the sender receiving the result, or null
+     */
+    public void activateLampWithPattern(Block lamp, LampPattern pattern, int offset, UUID owner, LampLimits.Limit limit,
+                                        CommandSender sender) {
+        if (lamp.getType() != org.bukkit.Material.REDSTONE_LAMP) {
+            return;
+        }
+
+        platform.runOnLampThread(() -> {
+            try {
+                UUID worldUid = lamp.getWorld().getUID();
+                long position = BlockKey.pack(lamp.getX(), lamp.getY(), lamp.getZ());
+                if (!checkMinTicks(sender, pattern.shortestRun(), limit) || !checkQuota(sender, worldUid, position, owner, limit)) {
+                    return;
+                }
+
+                int phase = Math.floorMod(offset, pattern.length());
+                int period = Math.max(1, pattern.length() / 2);
+                leaveGroup(worldUid, position);
+                int slot = index.add(index.worldId(worldUid), position, period, phase, pattern);
+                index.setOwner(slot, owner);
+
+                if (isObserved(lamp.getWorld(), lamp.getX() >> 4, lamp.getZ() >> 4)) {
+                    scheduler.resume(slot);
+                }
+                persistence.saveLamp(new LampRecord(keyOf(lamp.getLocation()), period, phase, pattern.id(), owner));
+                if (sender != null) {
+                    sender.sendMessage("§aLampada attivata con il pattern '" + pattern.name() + "' (offset " + offset + ")!");
+                }
+            } catch (Exception e) {
+                plugin.getLogger().severe("Errore durante l'attivazione della lampada: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Gets the lamp patterns defined in config.yml.
+     *
+     * @return the pattern registry
+     */
+    public PatternRegistry getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * Gets the service offered to other plugins.
+     *
+     * @return the API service
+     */
+    public LightSetupAPI getApi() {
+        return service;
+    }
+
+    /**
+     * Gets the per-player lamp limits defined in config.yml.
+     *
+     * @return the lamp limits
+     */
+    public LampLimits getLimits() {
+        return limits;
     }
 
     /**
@@ -102,58 +500,627 @@ public class LampManager {
      * @param ticks the number of ticks for the lamp to stay active
      */
     public void activateLampWithTicks(Block lamp, int ticks) {
+        activateLampWithTicks(lamp, ticks, null, LampLimits.Limit.NONE, null);
+    }
+
+    /**
+     * Activates a Redstone Lamp with a specified number of ticks on behalf of a player, within the limits of the player.
+     * The lamp is refused if the number of ticks is below the minimum, or if it would be a new lamp past the lamp
+     * limit of the player. While the scheduler is overloaded the number of ticks may be rounded up to a shared
+     * bucket, see {@link LampLimits#quantize(int)}.
+     *
+     * @param lamp the lamp block
+     * @param ticks the number of ticks for the lamp to stay active
+     * @param owner the UUID of the player owning the lamp, or null if the lamp has no owner
+     * @param limit the limits of the owner
+     * @param sender the sender receiving the result, or null
+     */
+    public void activateLampWithTicks(Block lamp, int ticks, UUID owner, LampLimits.Limit limit, CommandSender sender) {
         if (lamp.getType() != org.bukkit.Material.REDSTONE_LAMP) {
             return;
         }
 
-        try {
-            LampTask task = new LampTask(lamp);
-            task.runTaskTimer(plugin, 0, ticks);
-            activeLamps.put(lamp, task);
+        platform.runOnLampThread(() -> {
+            try {
+                UUID worldUid = lamp.getWorld().getUID();
+                long position = BlockKey.pack(lamp.getX(), lamp.getY(), lamp.getZ());
+                if (!checkMinTicks(sender, ticks, limit) || !checkQuota(sender, worldUid, position, owner, limit)) {
+                    return;
+                }
 
-            String locationKey = serializeLocation(lamp.getLocation());
-            savedLampTicks.put(locationKey, ticks);
+                int period = quantize(ticks);
+                int phase = scheduler.phaseStartingNextTick(period);
+                leaveGroup(worldUid, position);
+                int slot = index.add(index.worldId(worldUid), position, period, phase);
+                index.setOwner(slot, owner);
 
-            saveLamp(lamp.getLocation(), ticks);
+                if (isObserved(lamp.getWorld(), lamp.getX() >> 4, lamp.getZ() >> 4)) {
+                    scheduler.resume(slot);
+                }
+                saveLamp(lamp.getLocation(), period, phase, owner);
+                if (sender != null) {
+                    sender.sendMessage("§aLampada attivata con intervallo di " + period + " tick!");
+                }
+            } catch (Exception e) {
+                plugin.getLogger().severe("Errore durante l'attivazione della lampada: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Checks the number of ticks of a lamp against the minimum allowed to a player.
+     *
+     * @param sender the sender receiving the refusal, or null
+     * @param ticks the shortest number of ticks between two toggles of the lamp
+     * @param limit the limits of the player
+     * @return true if the number of ticks is allowed, otherwise false
+     */
+    boolean checkMinTicks(CommandSender sender, int ticks, LampLimits.Limit limit) {
+        if (ticks >= limit.minTicks()) {
+            return true;
+        }
+        if (sender != null) {
+            sender.sendMessage("§cL'intervallo minimo consentito è di " + limit.minTicks() + " tick!");
+        }
+        return false;
+    }
 
-        } catch (Exception e) {
-            plugin.getLogger().severe("Errore durante l'attivazione della lampada: " + e.getMessage());
+    /**
+     * Checks if a player can activate a lamp without going past their lamp limit. Runs on the lamp thread.
+     * A lamp that is already indexed does not count as a new one.
+     *
+     * @param sender the sender receiving the refusal, or null
+     * @param worldUid the world of the lamp
+     * @param position the coordinates of the lamp, packed with {@link BlockKey}
+     * @param owner the UUID of the player, or null if the lamp has no owner
+     * @param limit the limits of the player
+     * @return true if the lamp is allowed, otherwise false
+     */
+    private boolean checkQuota(CommandSender sender, UUID worldUid, long position, UUID owner, LampLimits.Limit limit) {
+        if (owner == null || index.find(worldUid, position) >= 0 || limit.allowsAnother(index.ownedBy(owner))) {
+            return true;
+        }
+        if (sender != null) {
+            sender.sendMessage("§cHai raggiunto il limite di " + limit.maxLamps() + " lampade attive!");
         }
+        return false;
+    }
+
+    /**
+     * Rounds the number of ticks of a new lamp up to a shared bucket while the scheduler is overloaded,
+     * so lamps with near-identical periods toggle in the same ticks.
+     *
+     * @param ticks the number of ticks asked for
+     * @return the number of ticks to use
+     */
+    private int quantize(int ticks) {
+        return limits.quantizesWhenOverloaded() && scheduler.isOverloaded() ? LampLimits.quantize(ticks) : ticks;
     }
 
     /**
      * Deactivates a Redstone Lamp.
+     * The lamp is removed on the lamp thread, then its block is set to OFF on the thread owning it.
      *
      * @param lamp the lamp block
      */
     public void deactivateLamp(Block lamp) {
-        if (isLampActive(lamp)) {
-            try {
-                activeLamps.get(lamp).cancel();
-                activeLamps.remove(lamp);
-                lamp.setBlockData(LampState.OFF.getBlockData(lamp));
+        platform.runOnLampThread(() -> {
+            int slot = findSlot(lamp);
+            if (slot >= 0) {
+                try {
+                    if (forgetLamp(lamp.getWorld().getUID(), slot)) {
+                        saveGroups();
+                    }
+                    platform.runAt(lamp.getWorld(), lamp.getX() >> 4, lamp.getZ() >> 4, () -> {
+                        lamp.setBlockData(LampState.OFF.getBlockData());
+                        renderer.refresh(lamp.getWorld(), lamp.getX(), lamp.getY(), lamp.getZ());
+                    });
+                } catch (Exception e) {
+                    plugin.getLogger().severe("Errore durante la disattivazione della lampada: " + e.getMessage());
+                }
+            }
+        });
+    }
 
-                removeLamp(lamp.getLocation());
-            } catch (Exception e) {
-                plugin.getLogger().severe("Errore durante la disattivazione della lampada: " + e.getMessage());
+    /**
+     * Starts a bulk operation on every Redstone Lamp in a cuboid.
+     * Flushes of the lamp store are held back until the operation ends, so its changes are written at once.
+     *
+     * @param sender the sender receiving progress messages
+     * @param owner the id of the player starting the operation, who can run one operation at a time
+     *              and owns the lamps it activates
+     * @param limit the limits of the player, capping the number of lamps the operation can activate
+     * @param first a corner of the cuboid
+     * @param second the opposite corner of the cuboid, in the same world
+     * @param mode the change to apply
+     * @param ticks the number of ticks of the lamps, ignored when deactivating
+     * @return false if the player already has an operation running, otherwise true
+     */
+    public boolean startBulk(CommandSender sender, UUID owner, LampLimits.Limit limit, Location first, Location second,
+                             BulkOperation.Mode mode, int ticks) {
+        int period = mode == BulkOperation.Mode.DEACTIVATE ? ticks : quantize(ticks);
+        BulkOperation operation = new BulkOperation(platform, this, sender, owner, limit, first, second, mode, period,
+                plugin.getConfig().getInt("bulk.chunks-per-tick", 4),
+                plugin.getConfig().getInt("bulk.lamps-per-tick", 500),
+                () -> {
+                    bulkOperations.remove(owner);
+                    persistence.release();
+                });
+        if (bulkOperations.putIfAbsent(owner, operation) != null) {
+            return false;
+        }
+
+        persistence.hold();
+        platform.runOnLampThread(() ->
+                operation.start(mode == BulkOperation.Mode.DEACTIVATE ? 0 : scheduler.phaseStartingNextTick(period)));
+        return true;
+    }
+
+    /**
+     * Applies a bulk operation to the lamps found in one chunk. Runs on the lamp thread.
+     * Deactivated lamps are set to OFF with a single task on the thread owning the chunk.
+     * Lamps activated or retimed leave their group and run on their own, keeping their owner; new lamps past
+     * the lamp limit of the owner are skipped.
+     *
+     * @param world the world of the chunk
+     * @param mode the change to apply
+     * @param ticks the number of ticks of the lamps
+     * @param phase the phase of the lamps
+     * @param owner the UUID of the player owning new lamps, or null
+     * @param limit the limits of the owner
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @param positions the coordinates of the Redstone Lamps of the chunk, packed with {@link BlockKey}
+     * @param count the number of positions
+     * @return the number of lamps changed
+     */
+    int applyBulk(World world, BulkOperation.Mode mode, int ticks, int phase, UUID owner, LampLimits.Limit limit,
+                  int chunkX, int chunkZ, long[] positions, int count) {
+        UUID worldUid = world.getUID();
+        boolean resume = world.isChunkLoaded(chunkX, chunkZ) && isObserved(world, chunkX, chunkZ);
+        long[] removed = mode == BulkOperation.Mode.DEACTIVATE ? new long[count] : null;
+        int changed = 0;
+        boolean groupsChanged = false;
+
+        for (int i = 0; i < count; i++) {
+            long position = positions[i];
+            int slot = index.find(worldUid, position);
+
+            if (mode == BulkOperation.Mode.DEACTIVATE) {
+                if (slot >= 0) {
+                    groupsChanged |= forgetLamp(worldUid, slot);
+                    removed[changed++] = position;
+                }
+            } else if (slot >= 0 || mode == BulkOperation.Mode.ACTIVATE) {
+                if (slot < 0 && owner != null && !limit.allowsAnother(index.ownedBy(owner))) {
+                    continue;
+                }
+                boolean wasScheduled = slot >= 0 && scheduler.isScheduled(slot);
+                UUID lampOwner = slot >= 0 ? index.owner(slot) : owner;
+                groupsChanged |= leaveGroup(worldUid, position);
+                slot = index.add(index.worldId(worldUid), position, ticks, phase);
+                index.setOwner(slot, lampOwner);
+                if (mode == BulkOperation.Mode.ACTIVATE ? resume : wasScheduled) {
+                    scheduler.resume(slot);
+                }
+                persistence.saveLamp(new LampRecord(new LampKey(worldUid, position), ticks, phase, 0, lampOwner));
+                changed++;
+            }
+        }
+
+        if (groupsChanged) {
+            saveGroups();
+        }
+        if (removed != null && changed > 0) {
+            turnOff(world, chunkX, chunkZ, removed, changed);
+        }
+        return changed;
+    }
+
+    /**
+     * Sets lamps of one chunk to OFF with a single task on the thread owning the chunk.
+     *
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @param positions the coordinates of the lamps, packed with {@link BlockKey}
+     * @param count the number of positions
+     */
+    private void turnOff(World world, int chunkX, int chunkZ, long[] positions, int count) {
+        platform.runAt(world, chunkX, chunkZ, () -> {
+            for (int i = 0; i < count; i++) {
+                long position = positions[i];
+                world.setBlockData(BlockKey.x(position), BlockKey.y(position), BlockKey.z(position),
+                        LampState.OFF.getBlockData());
+                renderer.refresh(world, BlockKey.x(position), BlockKey.y(position), BlockKey.z(position));
+            }
+        });
+    }
+
+    /**
+     * Creates a lamp group blinking with a number of ticks. Its lamps are added with a group wand.
+     * A group created by a player is owned by the player, and its lamps count toward their lamp limit.
+     *
+     * @param sender the sender receiving the result
+     * @param name the name of the group
+     * @param ticks the number of ticks between two toggles
+     */
+    public void createGroup(CommandSender sender, String name, int ticks) {
+        platform.runOnLampThread(() -> {
+            UUID owner = sender instanceof Player player ? player.getUniqueId() : null;
+            if (groups.create(name, ticks, scheduler.phaseStartingNextTick(ticks), null, owner) == null) {
+                sender.sendMessage("§cEsiste già un gruppo chiamato '" + name + "'!");
+                return;
+            }
+            saveGroups();
+            sender.sendMessage("§aGruppo '" + name + "' creato con intervallo di " + ticks + " tick!");
+        });
+    }
+
+    /**
+     * Changes the number of ticks of a lamp group. Its lamps keep toggling together, in a new phase.
+     *
+     * @param sender the sender receiving the result
+     * @param name the name of the group
+     * @param ticks the number of ticks between two toggles
+     */
+    public void setGroupTicks(CommandSender sender, String name, int ticks) {
+        platform.runOnLampThread(() -> {
+            LampGroup group = groups.get(name);
+            if (group == null) {
+                sender.sendMessage("§cGruppo non trovato: " + name);
+                return;
+            }
+            retimeGroup(group, ticks, scheduler.phaseStartingNextTick(ticks), null);
+            sender.sendMessage("§aIl gruppo '" + name + "' ora lampeggia ogni " + ticks + " tick!");
+        });
+    }
+
+    /**
+     * Sets the pattern of a lamp group.
+     *
+     * @param sender the sender receiving the result
+     * @param name the name of the group
+     * @param pattern the pattern of the group
+     * @param offset the number of ticks the group runs behind the start of the pattern
+     */
+    public void setGroupPattern(CommandSender sender, String name, LampPattern pattern, int offset) {
+        platform.runOnLampThread(() -> {
+            LampGroup group = groups.get(name);
+            if (group == null) {
+                sender.sendMessage("§cGruppo non trovato: " + name);
+                return;
+            }
+            retimeGroup(group, Math.max(1, pattern.length() / 2), Math.floorMod(offset, pattern.length()), pattern);
+            sender.sendMessage("§aIl gruppo '" + name + "' ora usa il pattern '" + pattern.name() + "'!");
+        });
+    }
+
+    /**
+     * Deletes a lamp group, deactivating its lamps.
+     * Refused while the stored lamps are still being loaded, since members not registered yet would be lost.
+     *
+     * @param sender the sender receiving the result
+     * @param name the name of the group
+     */
+    public void deleteGroup(CommandSender sender, String name) {
+        platform.runOnLampThread(() -> {
+            LampGroup group = groups.get(name);
+            if (group == null) {
+                sender.sendMessage("§cGruppo non trovato: " + name);
+                return;
+            }
+            if (isLoading()) {
+                sender.sendMessage("§cCaricamento delle lampade in corso, riprova tra poco!");
+                return;
+            }
+
+            Map<Integer, Map<Long, List<Long>>> off = new HashMap<>();
+            int count = group.size();
+            while (group.slotCount() > 0) {
+                int slot = group.slot(0);
+                long position = index.position(slot);
+                off.computeIfAbsent(index.worldOf(slot), worldId -> new HashMap<>())
+                        .computeIfAbsent(BlockKey.chunkKey(position), chunk -> new ArrayList<>())
+                        .add(position);
+                forgetLamp(index.world(index.worldOf(slot)), slot);
+            }
+            scheduler.cancelGroup(group);
+            groups.delete(group);
+            saveGroups();
+
+            for (Map.Entry<Integer, Map<Long, List<Long>>> worldEntry : off.entrySet()) {
+                World world = Bukkit.getWorld(index.world(worldEntry.getKey()));
+                if (world == null) {
+                    continue;
+                }
+                for (Map.Entry<Long, List<Long>> chunk : worldEntry.getValue().entrySet()) {
+                    long[] positions = chunk.getValue().stream().mapToLong(Long::longValue).toArray();
+                    turnOff(world, (int) (chunk.getKey() >> 32), (int) (long) chunk.getKey(), positions, positions.length);
+                }
+            }
+            sender.sendMessage("§cGruppo '" + name + "' eliminato, " + count + " lampade disattivate!");
+        });
+    }
+
+    /**
+     * Sends the list of lamp groups.
+     *
+     * @param sender the sender receiving the list
+     */
+    public void listGroups(CommandSender sender) {
+        platform.runOnLampThread(() -> {
+            if (groups.all().isEmpty()) {
+                sender.sendMessage("§cNessun gruppo creato!");
+                return;
+            }
+
+            sender.sendMessage("§eGruppi di lampade:");
+            for (LampGroup group : groups.all()) {
+                String timing = group.pattern() != null
+                        ? "pattern '" + group.pattern().name() + "'"
+                        : group.period() + " tick";
+                sender.sendMessage("§e- " + group.name() + ": " + group.size() + " lampade, " + timing);
             }
+        });
+    }
+
+    /**
+     * Adds a Redstone Lamp to a group, or removes it from the group and deactivates it if it is already a member.
+     * A lamp active on its own or in another group is moved into the group. New lamps count toward the owner of
+     * the group and are refused past the lamp limit of the player.
+     *
+     * @param lamp the lamp block
+     * @param player the player interacting with the lamp
+     * @param name the name of the group
+     */
+    public void toggleGroupMember(Block lamp, Player player, String name) {
+        if (lamp.getType() != org.bukkit.Material.REDSTONE_LAMP) {
+            player.sendMessage("§cErrore: questo blocco non è una lampada redstone!");
+            return;
         }
+
+        LampLimits.Limit limit = limits.of(player);
+        platform.runOnLampThread(() -> {
+            LampGroup group = groups.get(name);
+            if (group == null) {
+                player.sendMessage("§cIl gruppo '" + name + "' non esiste!");
+                return;
+            }
+            if (!checkQuota(player, lamp.getWorld().getUID(), BlockKey.pack(lamp.getX(), lamp.getY(), lamp.getZ()),
+                    group.owner(), limit)) {
+                return;
+            }
+
+            World world = lamp.getWorld();
+            long position = BlockKey.pack(lamp.getX(), lamp.getY(), lamp.getZ());
+            int slot = index.find(world.getUID(), position);
+            if (slot >= 0 && index.group(slot) == group) {
+                forgetLamp(world.getUID(), slot);
+                saveGroups();
+                turnOff(world, lamp.getX() >> 4, lamp.getZ() >> 4, new long[]{position}, 1);
+                player.sendMessage("§cLampada rimossa dal gruppo '" + name + "'!");
+                return;
+            }
+
+            joinGroup(group, world, position);
+            saveGroups();
+            player.sendMessage("§aLampada aggiunta al gruppo '" + name + "' (" + group.size() + " lampade)!");
+        });
     }
 
     /**
-     * Stops all active lamps.
+     * Makes a lamp a member of a group, indexing it if needed. Runs on the lamp thread.
+     * A lamp active on its own is removed from the lamp store, since it is now stored with the group.
+     * The lamp is owned by the owner of the group.
+     *
+     * @param group the group
+     * @param world the world of the lamp
+     * @param position the coordinates of the lamp, packed with {@link BlockKey}
+     */
+    private void joinGroup(LampGroup group, World world, long position) {
+        UUID worldUid = world.getUID();
+        LampKey key = new LampKey(worldUid, position);
+        int slot = index.find(worldUid, position);
+        if (slot >= 0 && !leaveGroup(worldUid, position)) {
+            persistence.removeLamp(key);
+        }
+
+        slot = index.add(index.worldId(worldUid), position, group.period(), group.phase(), group.pattern());
+        scheduler.cancel(slot);
+        index.setGroup(slot, group);
+        index.setOwner(slot, group.owner());
+        group.attach(slot);
+        groups.addMember(group, key);
+
+        int chunkX = BlockKey.x(position) >> 4;
+        int chunkZ = BlockKey.z(position) >> 4;
+        if (world.isChunkLoaded(chunkX, chunkZ) && isObserved(world, chunkX, chunkZ)) {
+            scheduler.resume(slot);
+        }
+    }
+
+    /**
+     * Takes an indexed lamp out of its group, leaving it indexed but not scheduled. Runs on the lamp thread.
+     *
+     * @param worldUid the world of the lamp
+     * @param position the coordinates of the lamp, packed with {@link BlockKey}
+     * @return true if the lamp was a member of a group, otherwise false
+     */
+    private boolean leaveGroup(UUID worldUid, long position) {
+        int slot = index.find(worldUid, position);
+        if (slot < 0 || index.group(slot) == null) {
+            return false;
+        }
+
+        scheduler.cancel(slot);
+        index.group(slot).detach(slot);
+        index.setGroup(slot, null);
+        groups.removeMember(new LampKey(worldUid, position));
+        return true;
+    }
+
+    /**
+     * Changes the timing of a group and of its indexed members. Runs on the lamp thread.
+     *
+     * @param group the group
+     * @param period the number of ticks between two toggles
+     * @param phase the phase of the group
+     * @param pattern the pattern of the group, or null for a plain blinking group
+     */
+    private void retimeGroup(LampGroup group, int period, int phase, LampPattern pattern) {
+        group.setTiming(period, phase, pattern);
+        for (int i = 0; i < group.slotCount(); i++) {
+            int slot = group.slot(i);
+            index.add(index.worldOf(slot), index.position(slot), period, phase, pattern);
+        }
+        scheduler.retime(group);
+        saveGroups();
+    }
+
+    /**
+     * Removes an indexed lamp from the scheduler, its group and the index. Runs on the lamp thread.
+     * A lamp running on its own is also removed from the lamp store; the groups must be saved by the caller
+     * when the lamp was a member.
+     *
+     * @param worldUid the world of the lamp
+     * @param slot the slot of the lamp in the index
+     * @return true if the lamp was a member of a group, otherwise false
+     */
+    private boolean forgetLamp(UUID worldUid, int slot) {
+        LampKey key = new LampKey(worldUid, index.position(slot));
+        LampGroup group = index.group(slot);
+        scheduler.cancel(slot);
+        if (group != null) {
+            group.detach(slot);
+            groups.removeMember(key);
+        }
+        index.remove(slot);
+        metrics.forget(slot);
+
+        if (group == null) {
+            persistence.removeLamp(key);
+        }
+        return group != null;
+    }
+
+    /**
+     * Marks every lamp group as changed in the lamp store.
+     */
+    private void saveGroups() {
+        persistence.saveGroups(groups.records());
+    }
+
+    /**
+     * Stops all active lamps, leaving their blocks as they are.
+     * Stored lamps are rendered again in their current state when their chunk is loaded, so the blocks need no reset.
      */
     public void stopAllLamps() {
-        for (Map.Entry<Block, BukkitRunnable> entry : activeLamps.entrySet()) {
-            try {
-                entry.getValue().cancel();
-                entry.getKey().setBlockData(LampState.OFF.getBlockData(entry.getKey()));
-            } catch (Exception e) {
-                plugin.getLogger().severe("Errore durante l'arresto di una lampada: " + e.getMessage());
+        scheduler.stop();
+        if (observers != null) {
+            observers.stop();
+        }
+        if (metricsDumper != null) {
+            metricsDumper.stop();
+        }
+        if (auditor != null) {
+            auditor.stop();
+        }
+        for (LampLoader lampLoader : loaders) {
+            lampLoader.cancel();
+        }
+        for (BulkOperation operation : bulkOperations.values()) {
+            operation.cancel();
+        }
+        service.stop();
+        if (reloader != null) {
+            reloader.cancel();
+        }
+        index.clear();
+    }
+
+    /**
+     * Runs a task on the lamp thread, where lamps and stats can be read safely.
+     *
+     * @param task the task to run
+     */
+    public void runOnLampThread(Runnable task) {
+        platform.runOnLampThread(task);
+    }
+
+    /**
+     * Takes a snapshot of the metrics and counts the active and suspended lamps of every world.
+     * The cost of a chunk is estimated from its toggle count and the mean time spent per toggle.
+     *
+     * @param topChunks the number of most expensive chunks to include
+     * @return the snapshot
+     */
+    public LampStats collectStats(int topChunks) {
+        Histogram togglesPerTick = metrics.getTogglesPerTick();
+        Histogram tickNanos = metrics.getTickNanos();
+        int worldCount = index.worldCount();
+        int[] active = new int[worldCount];
+        int[] suspended = new int[worldCount];
+        List<Map<Long, Long>> chunkToggles = new ArrayList<>();
+        for (int worldId = 0; worldId < worldCount; worldId++) {
+            chunkToggles.add(new HashMap<>());
+        }
+
+        for (int slot = 0; slot < index.slotLimit(); slot++) {
+            if (!index.isUsed(slot)) {
+                continue;
+            }
+
+            int worldId = index.worldOf(slot);
+            if (scheduler.isScheduled(slot)) {
+                active[worldId]++;
+            } else {
+                suspended[worldId]++;
+            }
+
+            int toggles = metrics.togglesOf(slot);
+            if (toggles > 0 && topChunks > 0) {
+                chunkToggles.get(worldId).merge(BlockKey.chunkKey(index.position(slot)), (long) toggles, Long::sum);
+            }
+        }
+
+        double nanosPerToggle = togglesPerTick.sum() == 0 ? 0 : (double) tickNanos.sum() / togglesPerTick.sum();
+        List<LampStats.WorldStats> worlds = new ArrayList<>();
+        List<LampStats.ChunkStats> chunks = new ArrayList<>();
+        for (int worldId = 0; worldId < worldCount; worldId++) {
+            String name = worldName(worldId);
+            if (active[worldId] + suspended[worldId] > 0) {
+                worlds.add(new LampStats.WorldStats(name, active[worldId], suspended[worldId]));
+            }
+            for (Map.Entry<Long, Long> entry : chunkToggles.get(worldId).entrySet()) {
+                long chunk = entry.getKey();
+                chunks.add(new LampStats.ChunkStats(name, (int) (chunk >> 32), (int) chunk, entry.getValue(),
+                        (long) (entry.getValue() * nanosPerToggle)));
             }
         }
 
-        activeLamps.clear();
+        chunks.sort(Comparator.comparingLong(LampStats.ChunkStats::toggles).reversed());
+        List<LampStats.ChunkStats> hottest = new ArrayList<>(chunks.subList(0, Math.min(topChunks, chunks.size())));
+        return new LampStats(togglesPerTick, tickNanos, metrics.getDeferDelay(), scheduler.deferredSize(),
+                scheduler.getBudgetScale(), metrics.getFlushNanos(), metrics.getBytesWritten(), worlds, hottest);
+    }
+
+    /**
+     * Clears every performance counter.
+     */
+    public void resetStats() {
+        metrics.reset();
+    }
+
+    /**
+     * Gets the name of a world id.
+     *
+     * @param worldId the world id
+     * @return the world name, or its UUID if the world is not loaded
+     */
+    private String worldName(int worldId) {
+        World world = Bukkit.getWorld(index.world(worldId));
+        return world != null ? world.getName() : index.world(worldId).toString();
     }
 
     /**
@@ -162,7 +1129,7 @@ public class LampManager {
      * @param location the location to serialize
      * @return the serialized location string
      */
-    private String serializeLocation(Location location) {
+    static String serializeLocation(Location location) {
         return location.getWorld().getName() + ":" +
                 location.getBlockX() + ":" +
                 location.getBlockY() + ":" +
@@ -173,16 +1140,17 @@ public class LampManager {
      * Deserializes a location from a string.
      *
      * @param locationStr the serialized location string
+     * @param worldLookup the function returning the loaded world of a name, or null
      * @return the deserialized location
      */
-    private Location deserializeLocation(String locationStr) {
+    static Location deserializeLocation(String locationStr, Function<String, World> worldLookup) {
         String[] parts = locationStr.split(":");
 
         if (parts.length != 4) {
             return null;
         }
 
-        World world = Bukkit.getWorld(parts[0]);
+        World world = worldLookup.apply(parts[0]);
         if (world == null) {
             return null;
         }
@@ -198,116 +1166,438 @@ public class LampManager {
     }
 
     /**
-     * Saves a lamp's state to the configuration file.
+     * Gets the store key of a location.
+     *
+     * @param location the location of the lamp
+     * @return the store key
+     */
+    private LampKey keyOf(Location location) {
+        return new LampKey(location.getWorld().getUID(),
+                BlockKey.pack(location.getBlockX(), location.getBlockY(), location.getBlockZ()));
+    }
+
+    /**
+     * Saves a lamp's state to the lamp store.
+     * The change is written in the background by {@link LampPersistence}.
      *
      * @param location the location of the lamp
      * @param ticks the number of ticks for the lamp to stay active
+     * @param phase the phase of the lamp
+     * @param owner the UUID of the player owning the lamp, or null
      */
-    private void saveLamp(Location location, int ticks) {
+    private void saveLamp(Location location, int ticks, int phase, UUID owner) {
+        persistence.saveLamp(new LampRecord(keyOf(location), ticks, phase, 0, owner));
+    }
+
+    /**
+     * Moves the lamps of the old 'lamps' section of config.yml into the lamp store.
+     * Lamps whose world is not loaded are left in config.yml and imported on a later start.
+     */
+    private void importLegacyLamps() {
         YamlConfiguration config = YamlConfiguration.loadConfiguration(configFile);
-        String locationKey = serializeLocation(location);
+        if (!config.isConfigurationSection("lamps")) {
+            return;
+        }
+
+        Set<String> keys = config.getConfigurationSection("lamps").getKeys(false);
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        List<LampRecord> records = new ArrayList<>();
+        List<String> imported = new ArrayList<>();
+        for (String locationKey : keys) {
+            Location location = deserializeLocation(locationKey, Bukkit::getWorld);
+            if (location != null) {
+                records.add(new LampRecord(keyOf(location), config.getInt("lamps." + locationKey), 0));
+                imported.add(locationKey);
+            }
+        }
 
-        if (!config.contains("lamps")) {
-            config.createSection("lamps");
+        if (records.isEmpty() || !persistence.importLamps(records)) {
+            return;
         }
 
-        config.set("lamps." + locationKey, ticks);
+        for (String locationKey : imported) {
+            config.set("lamps." + locationKey, null);
+        }
 
         try {
             config.save(configFile);
+            plugin.getLogger().info("Importate " + imported.size() + " lampade da config.yml");
         } catch (IOException e) {
-            plugin.getLogger().severe("Errore salvando lampada in config.yml: " + e.getMessage());
+            plugin.getLogger().severe("Errore salvando config.yml dopo l'importazione: " + e.getMessage());
         }
     }
 
     /**
-     * Removes a lamp's state from the configuration file.
+     * Checks if lamps in a chunk should run, i.e. culling is disabled or a player is close enough.
      *
-     * @param location the location of the lamp
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @return true if the lamps of the chunk should run, otherwise false
      */
-    private void removeLamp(Location location) {
-        YamlConfiguration config = YamlConfiguration.loadConfiguration(configFile);
-        String locationKey = serializeLocation(location);
+    private boolean isObserved(World world, int chunkX, int chunkZ) {
+        return observers == null || observers.isObserved(world, chunkX, chunkZ);
+    }
 
-        config.set("lamps." + locationKey, null);
-        savedLampTicks.remove(locationKey);
+    /**
+     * Resumes the lamps of a chunk that has just been loaded, unless nobody can see them.
+     *
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     */
+    public void resumeChunk(World world, int chunkX, int chunkZ) {
+        platform.runOnLampThread(() -> {
+            if (isObserved(world, chunkX, chunkZ)) {
+                resumeLoadedChunk(world, chunkX, chunkZ);
+            }
+        });
+    }
 
-        try {
-            config.save(configFile);
-        } catch (IOException e) {
-            plugin.getLogger().severe("Errore rimuovendo lampada da config.yml: " + e.getMessage());
+    /**
+     * Resumes the lamps of every loaded chunk in a group of chunks that a player has come close to.
+     *
+     * @param world the world of the group
+     * @param groupX the group x coordinate
+     * @param groupZ the group z coordinate
+     */
+    public void resumeGroup(World world, int groupX, int groupZ) {
+        if (index.findWorld(world.getUID()) < 0) {
+            return;
+        }
+
+        int size = 1 << ObserverTracker.GROUP_SHIFT;
+        for (int chunkX = groupX * size; chunkX < (groupX + 1) * size; chunkX++) {
+            for (int chunkZ = groupZ * size; chunkZ < (groupZ + 1) * size; chunkZ++) {
+                if (world.isChunkLoaded(chunkX, chunkZ)) {
+                    resumeLoadedChunk(world, chunkX, chunkZ);
+                }
+            }
         }
     }
 
     /**
-     * Loads all lamps from the configuration file.
+     * Freezes the lamps of a group of chunks that no player can see anymore.
+     * The lamps keep their current state and resume in phase when a player comes back.
+     *
+     * @param world the world of the group
+     * @param groupX the group x coordinate
+     * @param groupZ the group z coordinate
      */
-    public void loadLamps() {
-        YamlConfiguration config = YamlConfiguration.loadConfiguration(configFile);
+    public void freezeGroup(World world, int groupX, int groupZ) {
+        if (index.findWorld(world.getUID()) < 0) {
+            return;
+        }
 
-        if (!config.contains("lamps")) {
-            config.createSection("lamps");
-            try {
-                config.save(configFile);
-            } catch (IOException e) {
-                plugin.getLogger().severe("Errore creando sezione lamps: " + e.getMessage());
+        int size = 1 << ObserverTracker.GROUP_SHIFT;
+        for (int chunkX = groupX * size; chunkX < (groupX + 1) * size; chunkX++) {
+            for (int chunkZ = groupZ * size; chunkZ < (groupZ + 1) * size; chunkZ++) {
+                suspendLoadedChunk(world, chunkX, chunkZ);
             }
+        }
+    }
+
+    /**
+     * Resumes the lamps of a loaded chunk.
+     *
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     */
+    private void resumeLoadedChunk(World world, int chunkX, int chunkZ) {
+        int worldId = index.findWorld(world.getUID());
+        if (worldId < 0) {
             return;
         }
 
-        Set<String> keys = config.getConfigurationSection("lamps").getKeys(false);
-        // plugin.getLogger().info("Trovate " + keys.size() + " lampade da caricare");
+        int slot = index.firstInChunk(worldId, BlockKey.chunkKey(chunkX, chunkZ));
+        if (platform.isRegionThreaded()) {
+            long[] positions = new long[8];
+            int count = 0;
+            for (; slot >= 0; slot = index.nextInChunk(slot)) {
+                if (count == positions.length) {
+                    positions = Arrays.copyOf(positions, count * 2);
+                }
+                positions[count++] = index.position(slot);
+            }
+            if (count > 0) {
+                resumeChecked(world, chunkX, chunkZ, positions, count);
+            }
+            return;
+        }
 
-        for (String locationKey : keys) {
-            int ticks = config.getInt("lamps." + locationKey);
-            Location location = deserializeLocation(locationKey);
+        while (slot >= 0) {
+            int next = index.nextInChunk(slot);
+            resumeLamp(world, slot);
+            slot = next;
+        }
+    }
 
-            if (location != null) {
-                Block lamp = location.getBlock();
-
-                if (lamp.getType() == org.bukkit.Material.REDSTONE_LAMP) {
-                    activateLampWithTicks(lamp, ticks);
-                    // plugin.getLogger().info("Lampada caricata: " + locationKey + " con " + ticks + " tick");
-                } else {
-                    config.set("lamps." + locationKey, null);
-                    plugin.getLogger().info("Lampada rimossa perché non valida: " + locationKey);
+    /**
+     * Suspends the lamps of a chunk that is being unloaded.
+     * The lamps stay indexed and are resumed when the chunk is loaded again.
+     *
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     */
+    public void suspendChunk(World world, int chunkX, int chunkZ) {
+        platform.runOnLampThread(() -> suspendLoadedChunk(world, chunkX, chunkZ));
+    }
+
+    /**
+     * Suspends the lamps of a chunk. Runs on the lamp thread.
+     *
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     */
+    private void suspendLoadedChunk(World world, int chunkX, int chunkZ) {
+        int worldId = index.findWorld(world.getUID());
+        if (worldId < 0) {
+            return;
+        }
+
+        int slot = index.firstInChunk(worldId, BlockKey.chunkKey(chunkX, chunkZ));
+        while (slot >= 0) {
+            scheduler.cancel(slot);
+            slot = index.nextInChunk(slot);
+        }
+    }
+
+    /**
+     * Shows the current state of an indexed lamp whose chunk is loaded and schedules its next toggle,
+     * or removes it if its block is no longer a Redstone Lamp.
+     * On Folia the lamp thread cannot read the block, so it is checked on the thread owning the chunk first.
+     *
+     * @param world the world of the lamp
+     * @param slot the slot of the lamp in the index
+     */
+    private void resumeLamp(World world, int slot) {
+        long position = index.position(slot);
+
+        if (platform.isRegionThreaded()) {
+            resumeChecked(world, BlockKey.x(position) >> 4, BlockKey.z(position) >> 4, new long[]{position}, 1);
+        } else if (world.getType(BlockKey.x(position), BlockKey.y(position), BlockKey.z(position))
+                == org.bukkit.Material.REDSTONE_LAMP) {
+            scheduler.resume(slot);
+        } else {
+            dropLamp(world, slot);
+        }
+    }
+
+    /**
+     * Checks the blocks of lamps of one chunk on the thread owning it, then resumes on the lamp thread the lamps
+     * still on a Redstone Lamp and removes the others. Used on Folia, where the lamp thread cannot read blocks.
+     * Lamps whose chunk is unloaded meanwhile stay suspended and are checked again when it is loaded.
+     *
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @param positions the coordinates of the lamps, packed with {@link BlockKey}
+     * @param count the number of positions
+     */
+    private void resumeChecked(World world, int chunkX, int chunkZ, long[] positions, int count) {
+        platform.runAt(world, chunkX, chunkZ, () -> {
+            if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                return;
+            }
+            boolean[] valid = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                long position = positions[i];
+                valid[i] = world.getType(BlockKey.x(position), BlockKey.y(position), BlockKey.z(position))
+                        == org.bukkit.Material.REDSTONE_LAMP;
+            }
+
+            platform.runOnLampThread(() -> {
+                if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                    return;
+                }
+                for (int i = 0; i < count; i++) {
+                    int slot = index.find(world.getUID(), positions[i]);
+                    if (slot < 0) {
+                        continue;
+                    }
+                    if (valid[i]) {
+                        scheduler.resume(slot);
+                    } else {
+                        dropLamp(world, slot);
+                    }
                 }
+            });
+        });
+    }
+
+    /**
+     * Removes lamps whose block was destroyed, moved or found not to be a Redstone Lamp anymore.
+     * Runs on the lamp thread.
+     *
+     * @param world the world of the lamps
+     * @param positions the coordinates packed with {@link BlockKey}
+     * @param count the number of positions
+     */
+    private void removeInvalidLamps(World world, long[] positions, int count) {
+        int removed = 0;
+        boolean groupsChanged = false;
+        for (int i = 0; i < count; i++) {
+            int slot = index.find(world.getUID(), positions[i]);
+            if (slot >= 0) {
+                groupsChanged |= forgetLamp(world.getUID(), slot);
+                removed++;
             }
         }
 
-        try {
-            config.save(configFile);
-        } catch (IOException e) {
-            plugin.getLogger().severe("Errore salvando config.yml dopo caricamento: " + e.getMessage());
+        if (groupsChanged) {
+            saveGroups();
+        }
+        if (removed > 0) {
+            plugin.getLogger().info("Rimosse " + removed + " lampade non più presenti in " + world.getName());
         }
     }
 
     /**
-     * Saves all active lamps to the configuration file.
+     * Removes an invalid lamp from the index and the lamp store.
+     *
+     * @param world the world of the lamp
+     * @param slot the slot of the lamp in the index
      */
-    public void saveAllLamps() {
-        YamlConfiguration config = YamlConfiguration.loadConfiguration(configFile);
+    private void dropLamp(World world, int slot) {
+        long position = index.position(slot);
+        if (forgetLamp(world.getUID(), slot)) {
+            saveGroups();
+        }
+        plugin.getLogger().info("Lampada rimossa perché non valida: " + world.getName() + ":" + BlockKey.x(position) + ":"
+                + BlockKey.y(position) + ":" + BlockKey.z(position));
+    }
+
+    /**
+     * Loads all lamps from the lamp store without blocking the server.
+     * The store is read on the background writer and the lamps are checked and registered by a {@link LampLoader};
+     * only lamps in loaded chunks are scheduled, the others are resumed by {@link #resumeChunk(World, int, int)}.
+     * Lamps whose world is not loaded are kept in the store and loaded by {@link #attachWorld(World)}.
+     */
+    public void loadLamps() {
+        LampLoader lampLoader = newLoader();
+
+        persistence.loadGroupsAsync().thenCombine(persistence.loadAsync(), (groupRecords, lamps) -> {
+            lampLoader.prepare(lamps, groupRecords);
+            platform.runOnLampThread(() -> {
+                groups.restore(groupRecords, patterns, plugin.getLogger());
+                lampLoader.start();
+            });
+            return null;
+        });
+    }
+
+    /**
+     * Loads the stored lamps of a world that has just been loaded, including the members of the groups.
+     * Legacy lamps of the world left in config.yml are imported first.
+     *
+     * @param world the loaded world
+     */
+    public void attachWorld(World world) {
+        importLegacyLamps();
+        UUID worldUid = world.getUID();
+        platform.runOnLampThread(() -> {
+            LampLoader lampLoader = newLoader();
+            List<GroupRecord> members = new ArrayList<>();
+            for (GroupRecord record : groups.records()) {
+                members.add(new GroupRecord(record.name(), record.period(), record.phase(), record.pattern(), record.owner(),
+                        record.members().stream().filter(key -> key.world().equals(worldUid)).toList()));
+            }
 
-        config.set("config-version", 1);
-        config.set("lamps", null);
-        config.createSection("lamps");
+            persistence.loadWorldAsync(worldUid).thenAccept(lamps -> {
+                if (lamps.isEmpty() && members.stream().allMatch(record -> record.members().isEmpty())) {
+                    loaders.remove(lampLoader);
+                    return;
+                }
+                lampLoader.prepare(lamps, members);
+                platform.runOnLampThread(lampLoader::start);
+            });
+        });
+    }
+
+    /**
+     * Releases the lamps of a world that is being unloaded.
+     * The lamps leave the index and the scheduler but are kept in the lamp store, and their groups keep them
+     * as members, so they are loaded again by {@link #attachWorld(World)} when the world is loaded.
+     *
+     * @param world the unloading world
+     */
+    public void detachWorld(World world) {
+        platform.runOnLampThread(() -> {
+            int worldId = index.findWorld(world.getUID());
+            if (worldId < 0) {
+                return;
+            }
 
-        // plugin.getLogger().info("Salvando " + savedLampTicks.size() + " lampade in config.yml");
+            int released = 0;
+            for (int slot = 0; slot < index.slotLimit(); slot++) {
+                if (!index.isUsed(slot) || index.worldOf(slot) != worldId) {
+                    continue;
+                }
 
-        for (Map.Entry<String, Integer> entry : savedLampTicks.entrySet()) {
-            String locationKey = entry.getKey();
-            int ticks = entry.getValue();
+                scheduler.cancel(slot);
+                LampGroup group = index.group(slot);
+                if (group != null) {
+                    group.detach(slot);
+                }
+                index.remove(slot);
+                metrics.forget(slot);
+                released++;
+            }
+            index.releaseWorld(worldId);
+            task.forgetWorld(worldId);
+
+            if (released > 0) {
+                plugin.getLogger().info("Scaricate " + released + " lampade del mondo " + world.getName());
+            }
+        });
+    }
+
+    /**
+     * Creates a loader for stored lamps, registered until it is done so it can be cancelled on shutdown.
+     *
+     * @return the loader
+     */
+    private LampLoader newLoader() {
+        LampLoader lampLoader = new LampLoader(platform, index, scheduler, persistence, patterns, groups, this::isObserved, plugin.getLogger(),
+                plugin.getConfig().getBoolean("startup.check-unloaded-chunks", false),
+                plugin.getConfig().getInt("startup.chunks-per-tick", 16),
+                plugin.getConfig().getInt("startup.lamps-per-tick", 5000));
+        loaders.removeIf(LampLoader::isDone);
+        loaders.add(lampLoader);
+        return lampLoader;
+    }
 
-            config.set("lamps." + locationKey, ticks);
-            plugin.getLogger().info("Salvata lampada: " + locationKey + " con " + ticks + " tick");
+    /**
+     * Checks if stored lamps are still being loaded.
+     *
+     * @return true if a loader has not registered every lamp yet, otherwise false
+     */
+    private boolean isLoading() {
+        for (LampLoader lampLoader : loaders) {
+            if (!lampLoader.isDone()) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        try {
-            config.save(configFile);
-            plugin.getLogger().info("Tutte le lampade salvate con successo in config.yml");
-        } catch (IOException e) {
-            plugin.getLogger().severe("ERRORE CRITICO durante il salvataggio di config.yml: " + e.getMessage());
-            e.printStackTrace();
+    /**
+     * Writes the changes not yet saved to the lamp store.
+     * Lamps are saved as they change, so this is a final flush of the background writer, waiting at most the
+     * configured shutdown timeout.
+     */
+    public void saveAllLamps() {
+        long timeout = plugin.getConfig().getLong("persistence.shutdown-timeout-ms", 5000);
+        if (persistence.close(timeout)) {
+            plugin.getLogger().info("Tutte le lampade salvate con successo");
+        } else {
+            plugin.getLogger().severe("ERRORE CRITICO durante il salvataggio delle lampade: salvataggio finale incompleto");
         }
     }
-}
\ No newline at end of file
+}
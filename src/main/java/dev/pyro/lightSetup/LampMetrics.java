@@ -0,0 +1,175 @@
+package dev.pyro.lightSetup;
+
+import java.util.Arrays;
+
+/**
+ * Registry of the performance counters of the plugin.
+ * Lamp toggles and scheduler ticks are recorded on the main thread without allocating; persistence
+ * flushes are recorded by the background writer and guarded by their own lock.
+ * Toggles are also counted per lamp slot, so the most expensive chunks can be found when stats are read.
+ */
+public class LampMetrics {
+    private final Histogram togglesPerTick;
+    private final Histogram tickNanos;
+    private final Histogram flushNanos;
+    private final Histogram deferDelay;
+    private final Object flushLock;
+    private int[] slotToggles;
+    private int tickToggles;
+    private long totalToggles;
+    private long bytesWritten;
+
+    /**
+     * Constructs a new LampMetrics.
+     */
+    public LampMetrics() {
+        this.togglesPerTick = new Histogram();
+        this.tickNanos = new Histogram();
+        this.flushNanos = new Histogram();
+        this.deferDelay = new Histogram();
+        this.flushLock = new Object();
+        this.slotToggles = new int[256];
+    }
+
+    /**
+     * Records a lamp toggle in the current tick.
+     *
+     * @param slot the slot of the toggled lamp
+     */
+    public void recordToggle(int slot) {
+        if (slot >= slotToggles.length) {
+            slotToggles = Arrays.copyOf(slotToggles, Math.max(slot + 1, slotToggles.length * 2));
+        }
+        slotToggles[slot]++;
+        tickToggles++;
+    }
+
+    /**
+     * Records the end of a scheduler tick.
+     *
+     * @param nanos the time spent updating lamps during the tick, in nanoseconds
+     */
+    public void recordTick(long nanos) {
+        tickNanos.record(nanos);
+        togglesPerTick.record(tickToggles);
+        totalToggles += tickToggles;
+        tickToggles = 0;
+    }
+
+    /**
+     * Records a lamp update that ran later than its due tick because the tick budget was exhausted.
+     *
+     * @param delayTicks the number of ticks the update was deferred by
+     */
+    public void recordDeferred(long delayTicks) {
+        deferDelay.record(delayTicks);
+    }
+
+    /**
+     * Records a persistence flush. Can be called from any thread.
+     *
+     * @param nanos the time spent writing, in nanoseconds
+     * @param bytes the number of bytes written
+     */
+    public void recordFlush(long nanos, long bytes) {
+        synchronized (flushLock) {
+            flushNanos.record(nanos);
+            bytesWritten += bytes;
+        }
+    }
+
+    /**
+     * Clears the toggle count of a slot whose lamp has been removed, so it is not attributed to the next lamp.
+     *
+     * @param slot the slot of the removed lamp
+     */
+    public void forget(int slot) {
+        if (slot < slotToggles.length) {
+            slotToggles[slot] = 0;
+        }
+    }
+
+    /**
+     * Gets the number of toggles of a lamp since the last reset.
+     *
+     * @param slot the slot of the lamp
+     * @return the number of toggles
+     */
+    public int togglesOf(int slot) {
+        return slot < slotToggles.length ? slotToggles[slot] : 0;
+    }
+
+    /**
+     * Gets the total number of toggles since the last reset.
+     *
+     * @return the number of toggles
+     */
+    public long getTotalToggles() {
+        return totalToggles;
+    }
+
+    /**
+     * Gets a copy of the histogram of toggles per tick.
+     *
+     * @return the histogram
+     */
+    public Histogram getTogglesPerTick() {
+        return togglesPerTick.copy();
+    }
+
+    /**
+     * Gets a copy of the histogram of nanoseconds spent updating lamps per tick.
+     *
+     * @return the histogram
+     */
+    public Histogram getTickNanos() {
+        return tickNanos.copy();
+    }
+
+    /**
+     * Gets a copy of the histogram of ticks by which deferred lamp updates were delayed.
+     *
+     * @return the histogram
+     */
+    public Histogram getDeferDelay() {
+        return deferDelay.copy();
+    }
+
+    /**
+     * Gets a copy of the histogram of persistence flush latencies in nanoseconds.
+     *
+     * @return the histogram
+     */
+    public Histogram getFlushNanos() {
+        synchronized (flushLock) {
+            return flushNanos.copy();
+        }
+    }
+
+    /**
+     * Gets the number of bytes written by persistence flushes since the last reset.
+     *
+     * @return the number of bytes
+     */
+    public long getBytesWritten() {
+        synchronized (flushLock) {
+            return bytesWritten;
+        }
+    }
+
+    /**
+     * Clears every counter.
+     */
+    public void reset() {
+        togglesPerTick.reset();
+        tickNanos.reset();
+        deferDelay.reset();
+        Arrays.fill(slotToggles, 0);
+        tickToggles = 0;
+        totalToggles = 0;
+        synchronized (flushLock) {
+            flushNanos.reset();
+            bytesWritten = 0;
+        }
+    }
+}
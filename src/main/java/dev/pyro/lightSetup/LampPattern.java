@@ -0,0 +1,209 @@
+package dev.pyro.lightSetup;
+
+import java.util.Arrays;
+
+/**
+ * A lamp sequence compiled into frame tables.
+ * The pattern repeats every {@link #length()} ticks; the lit state of every tick of the cycle is stored in a
+ * bitset, and the number of ticks until the state changes in a parallel table. The state of a lamp at any tick,
+ * and the tick of its next toggle, are then a single table lookup off the scheduler tick, so a patterned lamp
+ * costs the same as a plain blinking lamp.
+ * A pattern must contain both lit and unlit ticks.
+ */
+public final class LampPattern {
+    /**
+     * Longest cycle accepted, in ticks (one hour).
+     */
+    public static final int MAX_LENGTH = 72000;
+
+    private final String name;
+    private final int length;
+    private final long[] frames;
+    private final int[] untilChange;
+    private final int shortestRun;
+
+    /**
+     * Compiles a pattern from consecutive runs of lit and unlit ticks.
+     *
+     * @param name the name of the pattern
+     * @param lit the state of every run
+     * @param durations the length in ticks of every run
+     */
+    private LampPattern(String name, boolean[] lit, int[] durations) {
+        long total = 0;
+        for (int duration : durations) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException("Durata non positiva: " + duration);
+            }
+            total += duration;
+        }
+        if (total > MAX_LENGTH) {
+            throw new IllegalArgumentException("Pattern troppo lungo: " + total + " tick (massimo " + MAX_LENGTH + ")");
+        }
+
+        this.name = name;
+        this.length = (int) total;
+        this.frames = new long[(length + 63) >>> 6];
+        this.untilChange = new int[length];
+
+        int position = 0;
+        for (int run = 0; run < durations.length; run++) {
+            for (int i = 0; i < durations[run]; i++, position++) {
+                if (lit[run]) {
+                    frames[position >>> 6] |= 1L << position;
+                }
+            }
+        }
+
+        int change = -1;
+        for (int i = 0; i < length && change < 0; i++) {
+            if (frame(i) != frame((i + 1) % length)) {
+                change = i;
+            }
+        }
+        if (change < 0) {
+            throw new IllegalArgumentException("Il pattern deve contenere sia tick accesi che spenti");
+        }
+
+        int distance = 1;
+        untilChange[change] = 1;
+        for (int i = 1; i < length; i++) {
+            int current = Math.floorMod(change - i, length);
+            distance = frame(current) != frame((current + 1) % length) ? 1 : distance + 1;
+            untilChange[current] = distance;
+        }
+
+        int shortest = length;
+        for (int i = 0; i < length; i++) {
+            if (frame(i) != frame(Math.floorMod(i - 1, length))) {
+                shortest = Math.min(shortest, untilChange[i]);
+            }
+        }
+        this.shortestRun = shortest;
+    }
+
+    /**
+     * Compiles a pattern from a sequence of bits, each lasting the same number of ticks.
+     *
+     * @param name the name of the pattern
+     * @param sequence the bits of the pattern, '1' for lit and '0' for unlit
+     * @param stepTicks the number of ticks of every bit
+     * @return the compiled pattern
+     * @throws IllegalArgumentException if the sequence or the step is not valid
+     */
+    public static LampPattern fromSequence(String name, String sequence, int stepTicks) {
+        boolean[] lit = new boolean[sequence.length()];
+        int[] durations = new int[sequence.length()];
+        for (int i = 0; i < sequence.length(); i++) {
+            char bit = sequence.charAt(i);
+            if (bit != '0' && bit != '1') {
+                throw new IllegalArgumentException("Carattere non valido nella sequenza: '" + bit + "'");
+            }
+            lit[i] = bit == '1';
+            durations[i] = stepTicks;
+        }
+        return new LampPattern(name, lit, durations);
+    }
+
+    /**
+     * Compiles a pattern that stays lit for some ticks and then unlit for some ticks.
+     *
+     * @param name the name of the pattern
+     * @param onTicks the number of lit ticks
+     * @param offTicks the number of unlit ticks
+     * @return the compiled pattern
+     * @throws IllegalArgumentException if a duration is not positive
+     */
+    public static LampPattern fromDurations(String name, int onTicks, int offTicks) {
+        return new LampPattern(name, new boolean[]{true, false}, new int[]{onTicks, offTicks});
+    }
+
+    /**
+     * Gets the name of the pattern.
+     *
+     * @return the name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Gets the id stored with the lamps using this pattern, derived from its name.
+     *
+     * @return the id, never 0
+     */
+    public int id() {
+        return idOf(name);
+    }
+
+    /**
+     * Gets the id of a pattern name. 0 is reserved for lamps without a pattern.
+     *
+     * @param name the name of the pattern
+     * @return the id, never 0
+     */
+    public static int idOf(String name) {
+        int id = name.hashCode();
+        return id != 0 ? id : 1;
+    }
+
+    /**
+     * Gets the length of the cycle.
+     *
+     * @return the number of ticks after which the pattern repeats
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Gets the shortest number of ticks a lamp using the pattern keeps the same state.
+     *
+     * @return the length in ticks of the shortest lit or unlit run
+     */
+    public int shortestRun() {
+        return shortestRun;
+    }
+
+    /**
+     * Checks if another pattern has the same name and cycle, so lamps using either one show the same frames.
+     *
+     * @param other the other pattern
+     * @return true if the patterns are interchangeable, otherwise false
+     */
+    public boolean sameAs(LampPattern other) {
+        return name.equals(other.name) && length == other.length && Arrays.equals(frames, other.frames);
+    }
+
+    /**
+     * Checks if a lamp using this pattern is lit at a given tick.
+     *
+     * @param tick the tick
+     * @param phase the phase of the lamp
+     * @return true if the lamp is lit, otherwise false
+     */
+    public boolean isLitAt(long tick, int phase) {
+        return frame((int) Math.floorMod(tick - phase, (long) length));
+    }
+
+    /**
+     * Gets the first tick after the given one at which a lamp using this pattern toggles.
+     *
+     * @param tick the tick
+     * @param phase the phase of the lamp
+     * @return the tick of the next toggle
+     */
+    public long nextToggle(long tick, int phase) {
+        return tick + untilChange[(int) Math.floorMod(tick - phase, (long) length)];
+    }
+
+    /**
+     * Gets the state of a tick of the cycle.
+     *
+     * @param position the tick within the cycle
+     * @return true if the pattern is lit at that tick, otherwise false
+     */
+    private boolean frame(int position) {
+        return (frames[position >>> 6] & (1L << position)) != 0;
+    }
+}
@@ -0,0 +1,506 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Write-behind persistence for lamp entries.
+ * Changes are collected in an in-memory dirty set and appended to the {@link LampStore} journal by a
+ * single background thread, either periodically or as soon as enough changes are pending.
+ * The same thread compacts the journal into a new snapshot once it grows too large.
+ * Flushes can be held back while a bulk operation runs, so its changes are written in a single flush.
+ * Lamp groups are written as a whole by the same flush, before the lamp changes: a lamp moved into a group
+ * is removed from the journal only after the group holding it has been written.
+ * The tick of the plugin clock, when tracked, is saved by every periodic flush and by the final one.
+ */
+public class LampPersistence {
+    private final Plugin plugin;
+    private final LampStore store;
+    private final LampMetrics metrics;
+    private final int flushThreshold;
+    private final ScheduledExecutorService writer;
+    private final AtomicBoolean flushQueued;
+    private final AtomicInteger holds;
+    private final Object lock;
+    private Map<LampKey, LampRecord> dirty;
+    private List<GroupRecord> dirtyGroups;
+    private volatile LongSupplier clock;
+    private long savedTick;
+    private boolean groupsLocked;
+    private boolean groupsDiscarded;
+
+    /**
+     * Lamps and groups read from the store.
+     *
+     * @param lamps the stored lamps, in insertion order
+     * @param groups the stored groups, in the order they were created
+     */
+    public record Stored(Map<LampKey, LampRecord> lamps, List<GroupRecord> groups) {
+    }
+
+    /**
+     * Constructs a new LampPersistence and starts its background writer.
+     *
+     * @param plugin the plugin instance
+     * @param store the store written by the background writer
+     * @param metrics the metrics receiving the latency and size of every flush
+     * @param flushIntervalTicks the number of ticks between two periodic flushes
+     * @param flushThreshold the number of pending changes that triggers an immediate flush
+     */
+    public LampPersistence(Plugin plugin, LampStore store, LampMetrics metrics, int flushIntervalTicks, int flushThreshold) {
+        this.plugin = plugin;
+        this.store = store;
+        this.metrics = metrics;
+        this.flushThreshold = Math.max(1, flushThreshold);
+        this.flushQueued = new AtomicBoolean();
+        this.holds = new AtomicInteger();
+        this.lock = new Object();
+        this.dirty = new HashMap<>();
+        this.savedTick = -1;
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LightSetup-Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long intervalMillis = Math.max(1, flushIntervalTicks) * 50L;
+        writer.scheduleWithFixedDelay(this::periodicFlush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Loads every stored lamp, waiting for the background writer to read the store.
+     *
+     * @return the stored lamps, or an empty map if the store cannot be read
+     */
+    public Map<LampKey, LampRecord> load() {
+        try {
+            return writer.submit(store::load).get();
+        } catch (ExecutionException e) {
+            plugin.getLogger().severe("Errore caricando le lampade: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new HashMap<>();
+    }
+
+    /**
+     * Loads the stored plugin clock, waiting for the background writer to read it.
+     *
+     * @return the stored clock, or null if none was stored or it cannot be read
+     */
+    public ClockRecord loadClock() {
+        try {
+            return writer.submit(store::loadClock).get();
+        } catch (ExecutionException e) {
+            plugin.getLogger().severe("Errore caricando l'orologio delle lampade: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Starts saving the plugin clock with every periodic flush.
+     *
+     * @param clock the supplier of the current tick, safe to call from the background writer
+     */
+    public void trackClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Loads every stored lamp on the background writer without waiting for it.
+     *
+     * @return a future completed on the background writer with the stored lamps,
+     *         or an empty map if the store cannot be read
+     */
+    public CompletableFuture<Map<LampKey, LampRecord>> loadAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.load();
+            } catch (IOException e) {
+                plugin.getLogger().severe("Errore caricando le lampade: " + e.getMessage());
+                return new HashMap<>();
+            }
+        }, writer);
+    }
+
+    /**
+     * Loads the stored lamps of one world on the background writer without waiting for it.
+     * Pending changes are applied to the lamps read without being flushed, so lamps removed just before the world
+     * was unloaded are not loaded again, and flushes held back by an operation stay held back.
+     *
+     * @param world the UUID of the world
+     * @return a future completed on the background writer with the stored lamps of the world,
+     *         or an empty map if the store cannot be read
+     */
+    public CompletableFuture<Map<LampKey, LampRecord>> loadWorldAsync(UUID world) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Map<LampKey, LampRecord> lamps = store.load();
+                lamps.keySet().removeIf(key -> !key.world().equals(world));
+                overlayPending(lamps, world);
+                return lamps;
+            } catch (IOException e) {
+                plugin.getLogger().severe("Errore caricando le lampade: " + e.getMessage());
+                return new HashMap<>();
+            }
+        }, writer);
+    }
+
+    /**
+     * Reads the stored lamps and groups with the pending changes applied, on the background writer without
+     * waiting for it. Nothing is flushed, so flushes held back by an operation stay held back.
+     * Used by a reload, which compares the store with the lamps running.
+     *
+     * @return a future completed on the background writer with the stored lamps and groups,
+     *         or with null if the store cannot be read
+     */
+    public CompletableFuture<Stored> reloadAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Map<LampKey, LampRecord> lamps = store.load();
+                overlayPending(lamps, null);
+                List<GroupRecord> groups;
+                synchronized (lock) {
+                    groups = dirtyGroups;
+                }
+                return new Stored(lamps, groups != null ? groups : store.loadGroups());
+            } catch (IOException e) {
+                plugin.getLogger().severe("Errore caricando le lampade: " + e.getMessage());
+                return null;
+            }
+        }, writer);
+    }
+
+    /**
+     * Loads every stored lamp group on the background writer without waiting for it.
+     *
+     * A groups file that cannot be read is moved aside, so it is not replaced by the next write of the groups;
+     * if it cannot be moved, groups are not written at all until the next start.
+     *
+     * @return a future completed on the background writer with the stored groups,
+     *         or an empty list if the groups cannot be read
+     */
+    public CompletableFuture<List<GroupRecord>> loadGroupsAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.loadGroups();
+            } catch (IOException e) {
+                plugin.getLogger().severe("Errore caricando i gruppi di lampade: " + e.getMessage());
+                preserveGroups();
+                return new ArrayList<>();
+            }
+        }, writer);
+    }
+
+    /**
+     * Moves a damaged groups file aside, or stops writing the groups if it cannot be moved.
+     * Runs on the background writer only.
+     */
+    private void preserveGroups() {
+        try {
+            Path copy = store.preserveGroups();
+            plugin.getLogger().severe("Il file dei gruppi danneggiato è stato spostato in " + copy.getFileName()
+                    + ", i gruppi ripartono vuoti");
+        } catch (IOException e) {
+            groupsLocked = true;
+            plugin.getLogger().severe("Impossibile spostare il file dei gruppi danneggiato, i gruppi non verranno salvati: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes lamps to the store immediately, waiting for the background writer to finish.
+     *
+     * @param records the lamps to write
+     * @return true if the lamps were written, otherwise false
+     */
+    public boolean importLamps(Collection<LampRecord> records) {
+        Map<LampKey, LampRecord> changes = new HashMap<>();
+        for (LampRecord record : records) {
+            changes.put(record.key(), record);
+        }
+
+        try {
+            writer.submit(() -> {
+                store.append(changes);
+                return null;
+            }).get();
+            return true;
+        } catch (ExecutionException e) {
+            plugin.getLogger().severe("Errore importando le lampade: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Marks a lamp as saved.
+     *
+     * @param record the lamp to save
+     */
+    public void saveLamp(LampRecord record) {
+        markDirty(record.key(), record);
+    }
+
+    /**
+     * Marks a lamp as removed.
+     *
+     * @param key the key of the lamp to remove
+     */
+    public void removeLamp(LampKey key) {
+        markDirty(key, null);
+    }
+
+    /**
+     * Marks every lamp group as saved, replacing any group change still pending.
+     *
+     * @param groups the stored form of every group
+     */
+    public void saveGroups(List<GroupRecord> groups) {
+        synchronized (lock) {
+            dirtyGroups = groups;
+        }
+    }
+
+    /**
+     * Checks if a change to a lamp is waiting to be written.
+     *
+     * @param key the key of the lamp
+     * @return true if the lamp was saved or removed since the last flush, otherwise false
+     */
+    public boolean isPending(LampKey key) {
+        synchronized (lock) {
+            return dirty.containsKey(key);
+        }
+    }
+
+    /**
+     * Requests a flush on the background writer.
+     */
+    public void requestFlush() {
+        if (flushQueued.compareAndSet(false, true)) {
+            try {
+                writer.execute(this::flush);
+            } catch (Exception e) {
+                flushQueued.set(false);
+            }
+        }
+    }
+
+    /**
+     * Holds back periodic and threshold flushes until {@link #release()} is called.
+     */
+    public void hold() {
+        holds.incrementAndGet();
+    }
+
+    /**
+     * Releases a hold, flushing every pending change when no hold is left.
+     */
+    public void release() {
+        if (holds.decrementAndGet() == 0) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * Performs a final flush and stops the background writer, waiting at most the given time.
+     *
+     * @param timeoutMillis the maximum time to wait in milliseconds
+     * @return true if every pending change was written, otherwise false
+     */
+    public boolean close(long timeoutMillis) {
+        if (!writer.isShutdown()) {
+            writer.execute(this::flush);
+            writer.execute(this::saveClock);
+            writer.execute(this::closeStore);
+            writer.shutdown();
+        }
+
+        try {
+            if (!writer.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                plugin.getLogger().severe("Salvataggio finale delle lampade non completato entro " + timeoutMillis + " ms");
+                writer.shutdownNow();
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writer.shutdownNow();
+            return false;
+        }
+
+        if (groupsDiscarded) {
+            plugin.getLogger().warning("Modifiche ai gruppi di lampade non salvate: il file dei gruppi è danneggiato");
+            return false;
+        }
+        synchronized (lock) {
+            return dirty.isEmpty() && dirtyGroups == null;
+        }
+    }
+
+    /**
+     * Closes the store. Runs on the background writer only.
+     */
+    private void closeStore() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            plugin.getLogger().severe("Errore chiudendo l'archivio delle lampade: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a change to the dirty set, triggering a flush if the threshold is reached.
+     *
+     * @param key the lamp key
+     * @param record the lamp, or null to remove the lamp
+     */
+    private void markDirty(LampKey key, LampRecord record) {
+        int pending;
+        synchronized (lock) {
+            dirty.put(key, record);
+            pending = dirty.size();
+        }
+
+        if (pending >= flushThreshold && holds.get() == 0) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * Applies the pending lamp changes of a world, or of every world, to lamps read from the store, so they match what the next flush
+     * will write. Runs on the background writer only.
+     *
+     * @param lamps the lamps read from the store
+     * @param world the UUID of the world of the lamps, or null for every world
+     */
+    private void overlayPending(Map<LampKey, LampRecord> lamps, UUID world) {
+        synchronized (lock) {
+            for (Map.Entry<LampKey, LampRecord> change : dirty.entrySet()) {
+                if (world != null && !change.getKey().world().equals(world)) {
+                    continue;
+                }
+                if (change.getValue() == null) {
+                    lamps.remove(change.getKey());
+                } else {
+                    lamps.put(change.getKey(), change.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes the pending changes unless flushes are held back. Runs on the background writer only.
+     */
+    private void periodicFlush() {
+        if (holds.get() == 0) {
+            flush();
+        }
+        saveClock();
+    }
+
+    /**
+     * Writes the current tick of the plugin clock if it changed since the last write.
+     * Runs on the background writer only.
+     */
+    private void saveClock() {
+        LongSupplier current = clock;
+        if (current == null) {
+            return;
+        }
+
+        long tick = current.getAsLong();
+        if (tick == savedTick) {
+            return;
+        }
+        try {
+            store.writeClock(new ClockRecord(tick, System.currentTimeMillis()));
+            savedTick = tick;
+        } catch (IOException e) {
+            plugin.getLogger().severe("Errore salvando l'orologio delle lampade: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends every pending change to the journal and compacts it when needed.
+     * Runs on the background writer only.
+     */
+    private void flush() {
+        flushQueued.set(false);
+
+        Map<LampKey, LampRecord> changes;
+        List<GroupRecord> groups;
+        synchronized (lock) {
+            if (dirty.isEmpty() && dirtyGroups == null) {
+                return;
+            }
+            changes = dirty;
+            groups = dirtyGroups;
+            dirty = new HashMap<>();
+            dirtyGroups = null;
+        }
+
+        long start = System.nanoTime();
+        long bytesBefore = store.getBytesWritten();
+        try {
+            if (groups != null) {
+                if (groupsLocked) {
+                    groupsDiscarded = true;
+                } else {
+                    store.writeGroups(groups);
+                }
+                groups = null;
+            }
+            store.append(changes);
+        } catch (IOException e) {
+            plugin.getLogger().severe("Errore salvando le lampade: " + e.getMessage());
+            requeue(changes, groups);
+            return;
+        }
+
+        if (store.needsCompaction()) {
+            try {
+                store.compact();
+            } catch (IOException e) {
+                plugin.getLogger().severe("Errore durante la compattazione delle lampade: " + e.getMessage());
+            }
+        }
+        metrics.recordFlush(System.nanoTime() - start, store.getBytesWritten() - bytesBefore);
+    }
+
+    /**
+     * Puts back changes that could not be written, keeping any newer change made meanwhile.
+     *
+     * @param changes the changes that failed to be written
+     * @param groups the groups that failed to be written, or null if they were written
+     */
+    private void requeue(Map<LampKey, LampRecord> changes, List<GroupRecord> groups) {
+        synchronized (lock) {
+            Map<LampKey, LampRecord> merged = new HashMap<>(changes);
+            merged.putAll(dirty);
+            dirty = merged;
+            if (dirtyGroups == null) {
+                dirtyGroups = groups;
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.World;
+
+/**
+ * Abstraction over the task schedulers of the server.
+ * On Paper every lamp task runs on the main thread; on Folia the lamp index and scheduler live on the
+ * global region thread and block writes run on the region thread owning the blocks.
+ * The thread owning the lamp index is called the lamp thread.
+ */
+public interface LampPlatform {
+    /**
+     * Handle of a repeating task.
+     */
+    @FunctionalInterface
+    interface Handle {
+        /**
+         * Cancels the task.
+         */
+        void cancel();
+    }
+
+    /**
+     * Checks if the server is region-threaded.
+     *
+     * @return true on Folia, otherwise false
+     */
+    boolean isRegionThreaded();
+
+    /**
+     * Runs a task on the lamp thread every given number of ticks.
+     *
+     * @param task the task to run
+     * @param delayTicks the number of ticks before the first run
+     * @param periodTicks the number of ticks between two runs
+     * @return the handle of the task
+     */
+    Handle runRepeating(Runnable task, long delayTicks, long periodTicks);
+
+    /**
+     * Runs a task on the lamp thread, immediately if the caller is already on it.
+     *
+     * @param task the task to run
+     */
+    void runOnLampThread(Runnable task);
+
+    /**
+     * Runs a task on the thread owning a chunk.
+     *
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @param task the task to run
+     */
+    void runAt(World world, int chunkX, int chunkZ, Runnable task);
+
+    /**
+     * Runs a task on a background thread.
+     *
+     * @param task the task to run
+     */
+    void runAsync(Runnable task);
+}
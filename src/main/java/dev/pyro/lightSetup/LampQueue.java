@@ -0,0 +1,112 @@
+package dev.pyro.lightSetup;
+
+/**
+ * First-in first-out queue of lamp slots, each with the tick at which it was due.
+ * Backed by growable ring buffers of primitives, so pushing and popping never allocate once the
+ * queue has reached its working size.
+ */
+public class LampQueue {
+    private int[] slots;
+    private long[] ticks;
+    private int head;
+    private int size;
+
+    /**
+     * Constructs a new LampQueue.
+     *
+     * @param initialCapacity the number of entries expected
+     */
+    public LampQueue(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1;
+        this.slots = new int[capacity];
+        this.ticks = new long[capacity];
+    }
+
+    /**
+     * Adds an entry at the end of the queue.
+     *
+     * @param slot the slot of the lamp
+     * @param tick the tick at which the lamp was due
+     */
+    public void push(int slot, long tick) {
+        if (size == slots.length) {
+            grow();
+        }
+
+        int index = (head + size) & (slots.length - 1);
+        slots[index] = slot;
+        ticks[index] = tick;
+        size++;
+    }
+
+    /**
+     * Gets the slot of the first entry.
+     *
+     * @return the slot of the oldest lamp
+     */
+    public int peekSlot() {
+        return slots[head];
+    }
+
+    /**
+     * Gets the due tick of the first entry.
+     *
+     * @return the tick at which the oldest lamp was due
+     */
+    public long peekTick() {
+        return ticks[head];
+    }
+
+    /**
+     * Removes the first entry.
+     */
+    public void pop() {
+        head = (head + 1) & (slots.length - 1);
+        size--;
+    }
+
+    /**
+     * Checks if the queue is empty.
+     *
+     * @return true if there are no entries, otherwise false
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the number of entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Doubles the capacity, moving the entries to the start of the new buffers.
+     */
+    private void grow() {
+        int capacity = slots.length;
+        int[] newSlots = new int[capacity * 2];
+        long[] newTicks = new long[capacity * 2];
+        int firstPart = capacity - head;
+
+        System.arraycopy(slots, head, newSlots, 0, firstPart);
+        System.arraycopy(slots, 0, newSlots, firstPart, head);
+        System.arraycopy(ticks, head, newTicks, 0, firstPart);
+        System.arraycopy(ticks, 0, newTicks, firstPart, head);
+
+        slots = newSlots;
+        ticks = newTicks;
+        head = 0;
+    }
+}
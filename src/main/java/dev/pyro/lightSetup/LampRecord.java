@@ -0,0 +1,37 @@
+package dev.pyro.lightSetup;
+
+import java.util.UUID;
+
+/**
+ * A stored lamp: its key, toggle period, phase, pattern and owner.
+ *
+ * @param key the lamp key
+ * @param period the number of ticks between two toggles
+ * @param phase the tick offset of the lamp within its period or pattern
+ * @param pattern the id of the lamp pattern, or 0 for a plain blinking lamp
+ * @param owner the UUID of the player who activated the lamp, or null if it has no owner
+ */
+public record LampRecord(LampKey key, int period, int phase, int pattern, UUID owner) {
+    /**
+     * Creates a record of a lamp without an owner.
+     *
+     * @param key the lamp key
+     * @param period the number of ticks between two toggles
+     * @param phase the tick offset of the lamp within its period or pattern
+     * @param pattern the id of the lamp pattern, or 0 for a plain blinking lamp
+     */
+    public LampRecord(LampKey key, int period, int phase, int pattern) {
+        this(key, period, phase, pattern, null);
+    }
+
+    /**
+     * Creates a record of a plain blinking lamp without an owner.
+     *
+     * @param key the lamp key
+     * @param period the number of ticks between two toggles
+     * @param phase the tick offset of the lamp within its period
+     */
+    public LampRecord(LampKey key, int period, int phase) {
+        this(key, period, phase, 0, null);
+    }
+}
@@ -0,0 +1,290 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Reloads the lamp store into the running lamps without restarting them.
+ * The store is read on the background writer, with the changes not written yet applied; the stored lamps are then compared
+ * with the lamp index on the lamp thread, a fixed number of lamps per tick, and only the differences are applied:
+ * stored lamps that are missing or differ are activated or retimed, and running lamps that are no longer stored are
+ * deactivated. Lamps that match keep running untouched, so a reload causes no blackout.
+ * Flushes of the lamp store are held back while the reload runs. Lamps changed meanwhile, whose change is still
+ * waiting to be written, keep their new state; if the groups are changed meanwhile, no group member is removed.
+ */
+public class LampReloader implements Runnable {
+    private final LampPlatform platform;
+    private final LampManager lampManager;
+    private final LampIndex index;
+    private final LampGroups groups;
+    private final LampPersistence persistence;
+    private final CommandSender sender;
+    private final Logger logger;
+    private final int lampsPerTick;
+    private final Runnable onFinish;
+    private final int startModifications;
+    private Map<LampKey, LampRecord> stored;
+    private Map<LampKey, String> memberOf;
+    private List<GroupRecord> storedGroups;
+    private List<LampRecord> records;
+    private LampPlatform.Handle handle;
+    private int modifications;
+    private boolean groupsTouched;
+    private int nextRecord;
+    private int nextSlot;
+    private int updated;
+    private int removed;
+    private long startNanos;
+
+    /**
+     * Constructs a new LampReloader. Must be called on the lamp thread.
+     *
+     * @param platform the platform running the reload
+     * @param lampManager the lamp manager applying the differences
+     * @param index the index of the running lamps
+     * @param groups the running lamp groups
+     * @param persistence the persistence reading the store
+     * @param sender the sender receiving the result, or null
+     * @param logger the logger receiving the result
+     * @param lampsPerTick the number of lamps compared per tick
+     * @param onFinish the task run on the lamp thread once the reload has ended or failed
+     */
+    public LampReloader(LampPlatform platform, LampManager lampManager, LampIndex index, LampGroups groups,
+                        LampPersistence persistence, CommandSender sender, Logger logger, int lampsPerTick,
+                        Runnable onFinish) {
+        this.platform = platform;
+        this.lampManager = lampManager;
+        this.index = index;
+        this.groups = groups;
+        this.persistence = persistence;
+        this.sender = sender;
+        this.logger = logger;
+        this.lampsPerTick = Math.max(1, lampsPerTick);
+        this.onFinish = onFinish;
+        this.startModifications = groups.modifications();
+    }
+
+    /**
+     * Holds back flushes and reads the store on the background writer, then starts comparing it on the lamp thread.
+     * If the store cannot be read, nothing is changed.
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+        persistence.hold();
+        persistence.reloadAsync().thenAccept(result -> {
+            if (result != null) {
+                prepare(result);
+            }
+            platform.runOnLampThread(() -> begin(result));
+        });
+    }
+
+    /**
+     * Stops the reload, leaving the lamps not compared yet as they are.
+     */
+    public void cancel() {
+        if (handle != null) {
+            handle.cancel();
+            handle = null;
+            persistence.release();
+        }
+    }
+
+    /**
+     * Lists the stored lamps, members of the stored groups included, and the group of every member.
+     * Runs on the background writer.
+     *
+     * @param result the stored lamps and groups
+     */
+    private void prepare(LampPersistence.Stored result) {
+        stored = result.lamps();
+        memberOf = new HashMap<>();
+        for (GroupRecord group : result.groups()) {
+            for (LampKey key : group.members()) {
+                stored.put(key, new LampRecord(key, group.period(), group.phase(), group.pattern(), group.owner()));
+                memberOf.put(key, group.name());
+            }
+        }
+        storedGroups = result.groups();
+        records = new ArrayList<>(stored.values());
+    }
+
+    /**
+     * Applies the stored groups and starts comparing the lamps. Runs on the lamp thread.
+     *
+     * @param result the stored lamps and groups, or null if the store could not be read
+     */
+    private void begin(LampPersistence.Stored result) {
+        if (result == null) {
+            persistence.release();
+            onFinish.run();
+            send("§cImpossibile leggere l'archivio delle lampade, ricaricamento annullato!");
+            return;
+        }
+
+        groupsTouched = groups.modifications() != startModifications;
+        for (GroupRecord record : storedGroups) {
+            lampManager.reloadGroup(record);
+        }
+        modifications = groups.modifications();
+        handle = platform.runRepeating(this, 1, 1);
+    }
+
+    /**
+     * Compares the next lamps within the per-tick budget: first the stored lamps, then the running ones.
+     */
+    @Override
+    public void run() {
+        if (groups.modifications() != modifications) {
+            groupsTouched = true;
+        }
+
+        int budget = lampsPerTick;
+        while (budget > 0 && nextRecord < records.size()) {
+            compareStored(records.get(nextRecord++));
+            budget--;
+        }
+
+        Map<UUID, Map<Long, Positions>> missing = new HashMap<>();
+        while (budget > 0 && nextSlot < index.slotLimit()) {
+            int slot = nextSlot++;
+            budget--;
+            if (index.isUsed(slot)) {
+                compareRunning(slot, missing);
+            }
+        }
+        for (Map.Entry<UUID, Map<Long, Positions>> world : missing.entrySet()) {
+            deactivate(world.getKey(), world.getValue());
+        }
+        modifications = groups.modifications();
+
+        if (nextRecord == records.size() && nextSlot >= index.slotLimit()) {
+            finish();
+        }
+    }
+
+    /**
+     * Activates or retimes a stored lamp that is not running as stored.
+     * Lamps of worlds that are not loaded are left to be loaded with their world.
+     *
+     * @param record the stored lamp
+     */
+    private void compareStored(LampRecord record) {
+        LampKey key = record.key();
+        String groupName = memberOf.get(key);
+        LampGroup group = groupName != null ? groups.get(groupName) : null;
+        World world = Bukkit.getWorld(key.world());
+        if (world == null) {
+            if (group != null && groups.groupOf(key) == null) {
+                groups.addMember(group, key);
+            }
+            return;
+        }
+
+        if (!persistence.isPending(key) && lampManager.reloadLamp(world, record, group)) {
+            updated++;
+        }
+    }
+
+    /**
+     * Collects a running lamp that is no longer stored, unless it was changed since the reload started.
+     *
+     * @param slot the slot of the lamp in the index
+     * @param missing the lamps to deactivate, by world and chunk
+     */
+    private void compareRunning(int slot, Map<UUID, Map<Long, Positions>> missing) {
+        UUID world = index.world(index.worldOf(slot));
+        long position = index.position(slot);
+        LampKey key = new LampKey(world, position);
+        if (stored.containsKey(key) || persistence.isPending(key) || (groupsTouched && index.group(slot) != null)) {
+            return;
+        }
+
+        missing.computeIfAbsent(world, uid -> new HashMap<>())
+                .computeIfAbsent(BlockKey.chunkKey(position), chunk -> new Positions())
+                .add(position);
+    }
+
+    /**
+     * Deactivates the lamps of one world that are no longer stored, one chunk at a time.
+     *
+     * @param worldUid the world of the lamps
+     * @param chunks the lamps to deactivate, by chunk
+     */
+    private void deactivate(UUID worldUid, Map<Long, Positions> chunks) {
+        World world = Bukkit.getWorld(worldUid);
+        if (world == null) {
+            return;
+        }
+
+        for (Map.Entry<Long, Positions> chunk : chunks.entrySet()) {
+            long chunkKey = chunk.getKey();
+            Positions positions = chunk.getValue();
+            removed += lampManager.applyBulk(world, BulkOperation.Mode.DEACTIVATE, 0, 0, null, LampLimits.Limit.NONE,
+                    (int) (chunkKey >> 32), (int) chunkKey, positions.values, positions.size);
+        }
+    }
+
+    /**
+     * Removes the groups and the members of unloaded worlds that are no longer stored, unless the groups were
+     * changed meanwhile, then releases the store and reports the result.
+     */
+    private void finish() {
+        if (!groupsTouched) {
+            Set<String> names = new HashSet<>();
+            for (GroupRecord record : storedGroups) {
+                names.add(record.name());
+            }
+            lampManager.pruneGroups(names, memberOf);
+        }
+
+        cancel();
+        onFinish.run();
+        long millis = (System.nanoTime() - startNanos) / 1_000_000;
+        String result = updated + " lampade aggiornate, " + removed + " rimosse (" + millis + " ms)";
+        logger.info("Ricaricamento completato: " + result);
+        send("§aRicaricamento completato: " + result);
+    }
+
+    /**
+     * Sends a message to the sender of the reload, if any.
+     *
+     * @param message the message
+     */
+    private void send(String message) {
+        if (sender != null) {
+            sender.sendMessage(message);
+        }
+    }
+
+    /**
+     * Packed positions of the lamps of one chunk.
+     */
+    private static class Positions {
+        private long[] values = new long[8];
+        private int size;
+
+        /**
+         * Adds a position.
+         *
+         * @param position the coordinates packed with {@link BlockKey}
+         */
+        void add(long position) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = position;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.World;
+
+/**
+ * Strategy used by {@link LampTask} to show the state of a lamp.
+ */
+public interface LampRenderer {
+    /**
+     * Shows a lamp as lit or unlit.
+     *
+     * @param world the world of the lamp
+     * @param x the block x coordinate
+     * @param y the block y coordinate
+     * @param z the block z coordinate
+     * @param lit whether the lamp is lit
+     */
+    void render(World world, int x, int y, int z, boolean lit);
+
+    /**
+     * Called before the lamps of a chunk are rendered. The lamps of a tick are rendered chunk by chunk,
+     * section by section, so a renderer can look the chunk up once for all of them.
+     *
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     */
+    default void chunk(World world, int chunkX, int chunkZ) {
+    }
+
+    /**
+     * Sends everything rendered during the current tick. Called once at the end of every scheduler tick.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Makes players see the real block again after a lamp has been deactivated.
+     *
+     * @param world the world of the lamp
+     * @param x the block x coordinate
+     * @param y the block y coordinate
+     * @param z the block z coordinate
+     */
+    default void refresh(World world, int x, int y, int z) {
+    }
+}
@@ -0,0 +1,623 @@
+package dev.pyro.lightSetup;
+
+
+import java.util.Arrays;
+
+/**
+ * Single repeating task that drives every active lamp.
+ * Lamp slots of the {@link LampIndex} are kept in a {@link TimingWheel}, so each server tick only runs
+ * the lamps that are due instead of having one Bukkit task per lamp.
+ * The state of a lamp is derived from the scheduler tick, its period and its phase: a lamp is lit during
+ * the first {@code period} ticks of every {@code 2 * period} tick cycle, starting at {@code phase}.
+ * Lamps with a {@link LampPattern} look their state up in the frame table of the pattern instead.
+ * This lets a lamp that was suspended come back in the same phase as if it had never stopped.
+ * The tick is a plugin clock that is saved and restored across restarts, so lamps also come back in phase after
+ * a restart. By default the clock advances by one on every server tick; with the wall clock enabled it follows real
+ * time instead, skipping the ticks the server missed while lagging, and due lamps are shown in the state of the
+ * tick reached.
+ * Members of a {@link LampGroup} are not in the wheel: the group has a single entry in a second wheel, and when
+ * it is due every running member is shown in the same pass. A due group is never split by the budget; if the
+ * budget is already exhausted, the whole group is deferred to the next tick.
+ * An optional per-tick budget limits how many lamps are updated and for how long; due lamps past the
+ * budget are deferred to the following ticks in FIFO order and shown in the state of the tick they run in.
+ * An optional toggle rate caps the number of lamp updates per second across ticks, on top of the per-tick budget.
+ */
+public class LampScheduler implements Runnable {
+    private static final int ADAPT_INTERVAL_TICKS = 20;
+    private static final double MIN_BUDGET_SCALE = 0.1;
+    private static final int TIME_CHECK_MASK = 7;
+    private static final int TICKS_PER_SECOND = 20;
+    private static final int OVERLOAD_TICKS = 20;
+    private static final long NANOS_PER_TICK = 50_000_000L;
+
+    private final LampPlatform platform;
+    private final LampIndex index;
+    private final LampTask task;
+    private final LampMetrics metrics;
+    private final TimingWheel wheel;
+    private final TimingWheel.Expiry expiry;
+    private final TimingWheel groupWheel;
+    private final TimingWheel.Expiry groupExpiry;
+    private LampGroup[] groups;
+    private long[] running;
+    private int runningCount;
+    private final LampQueue deferred;
+    private long[] queued;
+    private long tick;
+    private volatile long publishedTick;
+    private boolean wallClock;
+    private int maxCatchUp;
+    private long clockBaseTick;
+    private long clockBaseNanos;
+    private long runs;
+    private int maxLamps;
+    private long maxNanos;
+    private boolean adaptive;
+    private double minTps;
+    private double budgetScale;
+    private long adaptStartNanos;
+    private int maxTogglesPerSecond;
+    private long toggleCredit;
+    private long overloadedUntil;
+    private LampPlatform.Handle handle;
+    private int lampLimit;
+    private long deadline;
+    private int processed;
+    private boolean exhausted;
+
+    /**
+     * Constructs a new LampScheduler.
+     *
+     * @param platform the platform running the scheduler on the lamp thread
+     * @param index the lamp index
+     * @param task the task toggling a lamp slot
+     * @param metrics the metrics receiving the time spent in every tick
+     */
+    public LampScheduler(LampPlatform platform, LampIndex index, LampTask task, LampMetrics metrics) {
+        this.platform = platform;
+        this.index = index;
+        this.task = task;
+        this.metrics = metrics;
+        this.wheel = new TimingWheel(0, 256);
+        this.expiry = this::expire;
+        this.groupWheel = new TimingWheel(0, 16);
+        this.groupExpiry = this::expireGroup;
+        this.groups = new LampGroup[16];
+        this.running = new long[4];
+        this.deferred = new LampQueue(256);
+        this.queued = new long[4];
+        this.tick = 0;
+        this.budgetScale = 1.0;
+    }
+
+    /**
+     * Sets the per-tick budget for lamp updates.
+     *
+     * @param maxLamps the maximum number of lamps updated per tick, or 0 for no limit
+     * @param maxMicros the maximum time spent updating lamps per tick in microseconds, or 0 for no limit
+     * @param adaptive whether to lower the budget automatically while the measured TPS is low
+     * @param minTps the TPS below which the adaptive budget is lowered
+     */
+    public void setBudget(int maxLamps, long maxMicros, boolean adaptive, double minTps) {
+        this.maxLamps = Math.max(0, maxLamps);
+        this.maxNanos = Math.max(0, maxMicros) * 1000L;
+        this.adaptive = adaptive;
+        this.minTps = minTps;
+        this.budgetScale = 1.0;
+    }
+
+    /**
+     * Sets the maximum number of lamp updates per second. The allowance is refilled every tick by a twentieth
+     * of the rate and can build up to one second worth of updates; due lamps past it are deferred like lamps
+     * past the per-tick budget.
+     *
+     * @param maxPerSecond the maximum number of lamps updated per second, or 0 for no limit
+     */
+    public void setToggleRate(int maxPerSecond) {
+        this.maxTogglesPerSecond = Math.max(0, maxPerSecond);
+        this.toggleCredit = (long) maxTogglesPerSecond * TICKS_PER_SECOND;
+    }
+
+    /**
+     * Checks if the scheduler is overloaded, i.e. the budget or the toggle rate was exhausted in the last second
+     * or the adaptive budget is lowered.
+     *
+     * @return true if the scheduler is overloaded, otherwise false
+     */
+    public boolean isOverloaded() {
+        return tick < overloadedUntil || budgetScale < 1.0;
+    }
+
+    /**
+     * Gets the fraction of the configured budget currently in use.
+     * This is below 1 only while the adaptive budget is lowered because of a low TPS.
+     *
+     * @return the budget scale, between 0.1 and 1
+     */
+    public double getBudgetScale() {
+        return budgetScale;
+    }
+
+    /**
+     * Starts the scheduler, running once every server tick on the lamp thread.
+     */
+    public void start() {
+        handle = platform.runRepeating(this, 1, 1);
+    }
+
+    /**
+     * Stops the scheduler and drops every scheduled lamp.
+     */
+    public void stop() {
+        cancelAll();
+        if (handle != null) {
+            handle.cancel();
+            handle = null;
+        }
+    }
+
+    /**
+     * Gets the last tick processed by the scheduler.
+     *
+     * @return the current tick
+     */
+    public long currentTick() {
+        return tick;
+    }
+
+    /**
+     * Gets the last tick processed by the scheduler, from any thread. The value is published at the end of every
+     * tick, so it may be one tick behind {@link #currentTick()}.
+     *
+     * @return the last published tick
+     */
+    public long publishedTick() {
+        return publishedTick;
+    }
+
+    /**
+     * Moves the plugin clock to a tick, usually the one restored from the lamp store.
+     * Must be called before the scheduler is started, since every scheduled lamp is dropped.
+     *
+     * @param tick the tick considered already processed
+     */
+    public void setClock(long tick) {
+        cancelAll();
+        this.tick = tick;
+        this.publishedTick = tick;
+        wheel.reset(tick);
+        groupWheel.reset(tick);
+        clockBaseNanos = 0;
+    }
+
+    /**
+     * Makes the plugin clock follow real time at 20 ticks per second instead of counting server ticks.
+     * When the server falls behind, the clock skips ahead by up to {@code maxCatchUpTicks} per server tick;
+     * a longer delay, such as a pause of the server, is not caught up.
+     *
+     * @param enabled whether the clock follows real time
+     * @param maxCatchUpTicks the largest number of ticks the clock can advance in one server tick
+     */
+    public void setWallClock(boolean enabled, int maxCatchUpTicks) {
+        this.wallClock = enabled;
+        this.maxCatchUp = Math.max(1, maxCatchUpTicks);
+        this.clockBaseNanos = 0;
+    }
+
+    /**
+     * Gets the phase that makes a lamp turn on at the next tick.
+     *
+     * @param period the period of the lamp
+     * @return the phase of the lamp
+     */
+    public int phaseStartingNextTick(int period) {
+        return (int) ((tick + 1) % (2L * period));
+    }
+
+    /**
+     * Shows the current state of a lamp and schedules its next toggle.
+     *
+     * @param slot the slot of the lamp in the index
+     */
+    public void resume(int slot) {
+        clearQueued(slot);
+        LampGroup group = index.group(slot);
+        if (group != null) {
+            resumeMember(group, slot);
+            return;
+        }
+
+        if (task.show(slot, index.isLitAt(slot, tick))) {
+            wheel.schedule(slot, index.nextToggle(slot, tick));
+        } else {
+            wheel.cancel(slot);
+        }
+    }
+
+    /**
+     * Checks if a lamp is lit at a given tick.
+     *
+     * @param tick the tick
+     * @param period the period of the lamp
+     * @param phase the phase of the lamp
+     * @return true if the lamp is lit, otherwise false
+     */
+    public static boolean isLitAt(long tick, int period, int phase) {
+        return (Math.floorDiv(tick - phase, period) & 1) == 0;
+    }
+
+    /**
+     * Gets the first tick after the given one at which a lamp toggles.
+     *
+     * @param tick the tick
+     * @param period the period of the lamp
+     * @param phase the phase of the lamp
+     * @return the tick of the next toggle
+     */
+    public static long nextToggle(long tick, int period, int phase) {
+        return phase + (Math.floorDiv(tick - phase, period) + 1) * period;
+    }
+
+    /**
+     * Cancels a lamp.
+     *
+     * @param slot the slot of the lamp in the index
+     */
+    public void cancel(int slot) {
+        wheel.cancel(slot);
+        clearQueued(slot);
+        setRunning(slot, false);
+    }
+
+    /**
+     * Shows the state of the running members of a group whose timing has changed and schedules its next toggle.
+     *
+     * @param group the group
+     */
+    public void retime(LampGroup group) {
+        groupWheel.cancel(group.id());
+        showGroup(group);
+    }
+
+    /**
+     * Drops the entry of a deleted group. Its members must be cancelled by the caller.
+     *
+     * @param group the group
+     */
+    public void cancelGroup(LampGroup group) {
+        groupWheel.cancel(group.id());
+        if (group.id() < groups.length && groups[group.id()] == group) {
+            groups[group.id()] = null;
+        }
+    }
+
+    /**
+     * Cancels every lamp.
+     */
+    public void cancelAll() {
+        wheel.clear();
+        deferred.clear();
+        Arrays.fill(queued, 0);
+        groupWheel.clear();
+        Arrays.fill(groups, null);
+        Arrays.fill(running, 0);
+        runningCount = 0;
+    }
+
+    /**
+     * Checks if a lamp is scheduled, i.e. it is being toggled and not suspended.
+     *
+     * @param slot the slot of the lamp in the index
+     * @return true if the lamp is waiting in the wheel or in the deferred queue, or is a running member
+     *         of a group, otherwise false
+     */
+    public boolean isScheduled(int slot) {
+        return wheel.isScheduled(slot) || isQueued(slot) || isRunning(slot);
+    }
+
+    /**
+     * Gets the number of scheduled lamps, including the running members of groups.
+     *
+     * @return the number of scheduled lamps
+     */
+    public int size() {
+        return wheel.size() + runningCount;
+    }
+
+    /**
+     * Gets the number of groups waiting in the wheel.
+     *
+     * @return the number of scheduled groups
+     */
+    public int groupCount() {
+        return groupWheel.size();
+    }
+
+    /**
+     * Gets the number of due lamps waiting for a later tick because the budget was exhausted.
+     * Entries of lamps cancelled while waiting are counted until they reach the head of the queue.
+     *
+     * @return the number of deferred lamps
+     */
+    public int deferredSize() {
+        return deferred.size();
+    }
+
+    /**
+     * Advances the timing wheel by one tick and toggles every lamp that is due.
+     * Lamps deferred by earlier ticks run first, then the lamps due now, until the budget is exhausted.
+     */
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        tick = nextTick(start);
+        if (adaptive && ++runs % ADAPT_INTERVAL_TICKS == 0) {
+            adaptBudget();
+        }
+
+        lampLimit = maxLamps > 0 ? Math.max(1, (int) (maxLamps * budgetScale)) : Integer.MAX_VALUE;
+        if (maxTogglesPerSecond > 0) {
+            long max = (long) maxTogglesPerSecond * TICKS_PER_SECOND;
+            toggleCredit = Math.min(max, toggleCredit + maxTogglesPerSecond);
+            lampLimit = (int) Math.max(0, Math.min(lampLimit, toggleCredit / TICKS_PER_SECOND));
+        }
+        deadline = maxNanos > 0 ? start + Math.max(1, (long) (maxNanos * budgetScale)) : Long.MAX_VALUE;
+        processed = 0;
+        exhausted = false;
+
+        runDeferred();
+        groupWheel.advance(tick, groupExpiry);
+        wheel.advance(tick, expiry);
+        task.flush();
+        if (maxTogglesPerSecond > 0) {
+            toggleCredit -= (long) processed * TICKS_PER_SECOND;
+        }
+        if (exhausted) {
+            overloadedUntil = tick + OVERLOAD_TICKS;
+        }
+        publishedTick = tick;
+        metrics.recordTick(System.nanoTime() - start);
+    }
+
+    /**
+     * Gets the tick to process in this server tick. Without the wall clock this is always the next tick.
+     * With the wall clock, the tick follows the real time elapsed since the clock was anchored, but only skips
+     * ahead once it is at least two ticks behind, so the normal jitter of the server tick never skips a state.
+     *
+     * @param now the current time from {@link System#nanoTime()}
+     * @return the tick to process
+     */
+    private long nextTick(long now) {
+        if (!wallClock) {
+            return tick + 1;
+        }
+        if (clockBaseNanos == 0) {
+            clockBaseTick = tick;
+            clockBaseNanos = now;
+            return tick + 1;
+        }
+
+        long target = clockBaseTick + (now - clockBaseNanos) / NANOS_PER_TICK;
+        if (target - tick < 2) {
+            return tick + 1;
+        }
+        if (target - tick > maxCatchUp) {
+            clockBaseTick = tick + maxCatchUp;
+            clockBaseNanos = now;
+            return clockBaseTick;
+        }
+        return target;
+    }
+
+    /**
+     * Toggles a due lamp, or defers it if the budget of the tick is exhausted.
+     *
+     * @param slot the slot of the lamp in the index
+     * @param now the tick being processed
+     */
+    private void expire(int slot, long now) {
+        if (hasBudget()) {
+            update(slot);
+        } else {
+            defer(slot, now);
+        }
+    }
+
+    /**
+     * Shows every running member of a due group, or defers the whole group to the next tick if the budget
+     * of the tick is exhausted.
+     *
+     * @param id the id of the group
+     * @param now the tick being processed
+     */
+    private void expireGroup(int id, long now) {
+        LampGroup group = groups[id];
+        if (group == null) {
+            return;
+        }
+
+        if (hasBudget()) {
+            processed += showGroup(group);
+        } else {
+            groupWheel.schedule(id, now + 1);
+        }
+    }
+
+    /**
+     * Shows the state of the current tick on every running member of a group, and schedules the next toggle
+     * of the group while it has running members.
+     *
+     * @param group the group
+     * @return the number of members shown
+     */
+    private int showGroup(LampGroup group) {
+        boolean lit = group.isLitAt(tick);
+        int shown = 0;
+        for (int i = 0; i < group.slotCount(); i++) {
+            int slot = group.slot(i);
+            if (isRunning(slot)) {
+                shown++;
+                if (!task.show(slot, lit)) {
+                    setRunning(slot, false);
+                }
+            }
+        }
+
+        if (shown > 0) {
+            groupWheel.schedule(group.id(), group.nextToggle(tick));
+        }
+        return shown;
+    }
+
+    /**
+     * Shows the current state of a group member and makes sure its group is scheduled.
+     *
+     * @param group the group of the lamp
+     * @param slot the slot of the lamp in the index
+     */
+    private void resumeMember(LampGroup group, int slot) {
+        wheel.cancel(slot);
+        if (!task.show(slot, group.isLitAt(tick))) {
+            setRunning(slot, false);
+            return;
+        }
+
+        setRunning(slot, true);
+        if (group.id() >= groups.length) {
+            groups = Arrays.copyOf(groups, Math.max(group.id() + 1, groups.length * 2));
+        }
+        groups[group.id()] = group;
+        if (!groupWheel.isScheduled(group.id())) {
+            groupWheel.schedule(group.id(), group.nextToggle(tick));
+        }
+    }
+
+    /**
+     * Checks if a lamp is a running member of a group.
+     *
+     * @param slot the slot of the lamp in the index
+     * @return true if the lamp is shown when its group is due, otherwise false
+     */
+    private boolean isRunning(int slot) {
+        return slot >>> 6 < running.length && (running[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Marks a group member as running or suspended.
+     *
+     * @param slot the slot of the lamp in the index
+     * @param value whether the lamp is shown when its group is due
+     */
+    private void setRunning(int slot, boolean value) {
+        if (isRunning(slot) == value) {
+            return;
+        }
+        if (slot >>> 6 >= running.length) {
+            running = Arrays.copyOf(running, Math.max((slot >>> 6) + 1, running.length * 2));
+        }
+        running[slot >>> 6] ^= 1L << slot;
+        runningCount += value ? 1 : -1;
+    }
+
+    /**
+     * Toggles the deferred lamps in the order they were due, while the budget allows it.
+     */
+    private void runDeferred() {
+        while (!deferred.isEmpty() && hasBudget()) {
+            int slot = deferred.peekSlot();
+            long due = deferred.peekTick();
+            deferred.pop();
+
+            if (isQueued(slot)) {
+                clearQueued(slot);
+                metrics.recordDeferred(tick - due);
+                update(slot);
+            }
+        }
+    }
+
+    /**
+     * Shows the state of a lamp at the current tick and puts it back in the wheel for its next toggle.
+     *
+     * @param slot the slot of the lamp in the index
+     */
+    private void update(int slot) {
+        processed++;
+        if (task.run(slot, tick)) {
+            wheel.schedule(slot, index.nextToggle(slot, tick));
+        }
+    }
+
+    /**
+     * Checks if another lamp can be updated in the current tick.
+     * The clock is only read every few lamps, to keep the check cheaper than the update itself.
+     *
+     * @return true if the budget is not exhausted, otherwise false
+     */
+    private boolean hasBudget() {
+        if (exhausted) {
+            return false;
+        }
+        if (processed >= lampLimit
+                || ((processed & TIME_CHECK_MASK) == 0 && deadline != Long.MAX_VALUE && System.nanoTime() >= deadline)) {
+            exhausted = true;
+        }
+        return !exhausted;
+    }
+
+    /**
+     * Lowers the budget while the TPS is below the configured minimum, and raises it slowly back afterwards.
+     * The TPS is measured from the time taken by the last {@code ADAPT_INTERVAL_TICKS} scheduler ticks,
+     * which works the same on Paper and on the global region of Folia.
+     */
+    private void adaptBudget() {
+        long now = System.nanoTime();
+        long elapsed = now - adaptStartNanos;
+        adaptStartNanos = now;
+        if (elapsed <= 0 || elapsed > 60_000_000_000L) {
+            return;
+        }
+
+        double tps = ADAPT_INTERVAL_TICKS * 1_000_000_000.0 / elapsed;
+        if (tps < minTps) {
+            budgetScale = Math.max(MIN_BUDGET_SCALE, budgetScale * 0.75);
+        } else {
+            budgetScale = Math.min(1.0, budgetScale + 0.05);
+        }
+    }
+
+    /**
+     * Adds a due lamp at the end of the deferred queue.
+     *
+     * @param slot the slot of the lamp in the index
+     * @param due the tick at which the lamp was due
+     */
+    private void defer(int slot, long due) {
+        if (slot >>> 6 >= queued.length) {
+            queued = Arrays.copyOf(queued, Math.max((slot >>> 6) + 1, queued.length * 2));
+        }
+        queued[slot >>> 6] |= 1L << slot;
+        deferred.push(slot, due);
+    }
+
+    /**
+     * Checks if a lamp is waiting in the deferred queue.
+     *
+     * @param slot the slot of the lamp in the index
+     * @return true if the lamp is deferred, otherwise false
+     */
+    private boolean isQueued(int slot) {
+        return slot >>> 6 < queued.length && (queued[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Drops a lamp from the deferred queue. Its entry stays in the queue and is skipped when reached.
+     *
+     * @param slot the slot of the lamp in the index
+     */
+    private void clearQueued(int slot) {
+        if (slot >>> 6 < queued.length) {
+            queued[slot >>> 6] &= ~(1L << slot);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Implementation of {@link LightSetupAPI} registered for other plugins.
+ * Submitted changes are split by chunk on the calling thread and queued; a repeating task on the lamp thread
+ * applies them in FIFO order through {@link LampManager#applyBulk}, at most a fixed number of lamps per tick.
+ * Before a call activates lamps, the thread owning each chunk checks its blocks, and positions in loaded chunks
+ * that are not Redstone Lamps are dropped; lamps of unloaded chunks are checked when their chunk is loaded.
+ * Flushes of the lamp store are held back while a call is being applied, so each call is written at once.
+ * Queries read the synchronized lookups of the {@link LampIndex} and derive the lit state from the lamp clock.
+ */
+public class LampService implements LightSetupAPI, Runnable {
+    private final LampPlatform platform;
+    private final LampManager lampManager;
+    private final LampIndex index;
+    private final LampScheduler scheduler;
+    private final LampPersistence persistence;
+    private final int lampsPerTick;
+    private final Queue<Request> requests;
+    private Request current;
+    private LampPlatform.Handle handle;
+
+    /**
+     * Constructs a new LampService.
+     *
+     * @param platform the platform running the queued changes on the lamp thread
+     * @param lampManager the lamp manager applying the changes
+     * @param index the index answering queries
+     * @param scheduler the scheduler giving the phase of new lamps and the current tick
+     * @param persistence the persistence held back while a call is applied
+     * @param lampsPerTick the number of lamps changed per tick
+     */
+    public LampService(LampPlatform platform, LampManager lampManager, LampIndex index, LampScheduler scheduler,
+                       LampPersistence persistence, int lampsPerTick) {
+        this.platform = platform;
+        this.lampManager = lampManager;
+        this.index = index;
+        this.scheduler = scheduler;
+        this.persistence = persistence;
+        this.lampsPerTick = Math.max(1, lampsPerTick);
+        this.requests = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Starts applying queued changes, once every tick on the lamp thread.
+     */
+    public void start() {
+        handle = platform.runRepeating(this, 1, 1);
+    }
+
+    /**
+     * Stops applying queued changes and cancels the futures of the calls not applied yet.
+     * Must be called on the lamp thread, or once the scheduler has stopped.
+     */
+    public void stop() {
+        if (handle != null) {
+            handle.cancel();
+            handle = null;
+        }
+        if (current != null) {
+            persistence.release();
+            current.future.cancel(false);
+            current = null;
+        }
+
+        Request request;
+        while ((request = requests.poll()) != null) {
+            request.future.cancel(false);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> activate(World world, long[] positions, int ticks) {
+        checkTicks(ticks);
+        return submit(world, positions, BulkOperation.Mode.ACTIVATE, ticks);
+    }
+
+    @Override
+    public CompletableFuture<Integer> deactivate(World world, long[] positions) {
+        return submit(world, positions, BulkOperation.Mode.DEACTIVATE, 0);
+    }
+
+    @Override
+    public CompletableFuture<Integer> retime(World world, long[] positions, int ticks) {
+        checkTicks(ticks);
+        return submit(world, positions, BulkOperation.Mode.RETIME, ticks);
+    }
+
+    @Override
+    public boolean isActive(World world, int x, int y, int z) {
+        return index.find(world.getUID(), BlockKey.pack(x, y, z)) >= 0;
+    }
+
+    @Override
+    public boolean isLit(World world, int x, int y, int z) {
+        return index.isLitAt(world.getUID(), BlockKey.pack(x, y, z), scheduler.publishedTick());
+    }
+
+    @Override
+    public int getTicks(World world, int x, int y, int z) {
+        return index.periodOf(world.getUID(), BlockKey.pack(x, y, z));
+    }
+
+    @Override
+    public int countLamps(World world) {
+        synchronized (index) {
+            int worldId = index.findWorld(world.getUID());
+            return worldId < 0 ? 0 : index.worldSize(worldId);
+        }
+    }
+
+    @Override
+    public int getLamps(World world, int chunkX, int chunkZ, long[] positions) {
+        return index.chunkPositions(world.getUID(), BlockKey.chunkKey(chunkX, chunkZ), positions);
+    }
+
+    /**
+     * Applies queued changes on the lamp thread until the per-tick budget is used.
+     * A chunk whose blocks are still being checked is waited for, and a call whose world has been unloaded
+     * meanwhile is completed without changes.
+     */
+    @Override
+    public void run() {
+        int budget = lampsPerTick;
+        while (budget > 0) {
+            if (current == null) {
+                current = requests.poll();
+                if (current == null) {
+                    return;
+                }
+                persistence.hold();
+                current.phase = current.mode == BulkOperation.Mode.DEACTIVATE ? 0 : scheduler.phaseStartingNextTick(current.ticks);
+                if (current.mode == BulkOperation.Mode.ACTIVATE) {
+                    check(current);
+                }
+            }
+
+            Request request = current;
+            if (request.next < request.chunks.size() && Bukkit.getWorld(request.world.getUID()) == request.world) {
+                Batch batch = request.chunks.get(request.next);
+                if (!batch.checked) {
+                    return;
+                }
+                request.next++;
+                request.changed += lampManager.applyBulk(request.world, request.mode, request.ticks, request.phase,
+                        null, LampLimits.Limit.NONE, (int) (batch.chunkKey >> 32), (int) batch.chunkKey,
+                        batch.positions, batch.size);
+                budget -= batch.size;
+                if (request.next < request.chunks.size()) {
+                    continue;
+                }
+            }
+
+            current = null;
+            persistence.release();
+            request.future.complete(request.changed);
+        }
+    }
+
+    /**
+     * Sends every chunk of a call to the thread owning it, to drop the positions that are not Redstone Lamps.
+     *
+     * @param request the call activating lamps
+     */
+    private void check(Request request) {
+        for (Batch batch : request.chunks) {
+            platform.runAt(request.world, (int) (batch.chunkKey >> 32), (int) batch.chunkKey,
+                    () -> batch.keepLamps(request.world));
+        }
+    }
+
+    /**
+     * Checks the number of ticks given to a call.
+     *
+     * @param ticks the number of ticks
+     * @throws IllegalArgumentException if the number of ticks is not positive
+     */
+    private static void checkTicks(int ticks) {
+        if (ticks <= 0) {
+            throw new IllegalArgumentException("ticks must be positive: " + ticks);
+        }
+    }
+
+    /**
+     * Splits the positions of a call by chunk and queues it.
+     *
+     * @param world the world of the lamps
+     * @param positions the coordinates of the lamps, packed with {@link BlockKey}
+     * @param mode the change to apply
+     * @param ticks the number of ticks of the lamps
+     * @return the future of the call
+     */
+    private CompletableFuture<Integer> submit(World world, long[] positions, BulkOperation.Mode mode, int ticks) {
+        if (world == null) {
+            throw new IllegalArgumentException("world must not be null");
+        }
+
+        Map<Long, Batch> byChunk = new HashMap<>();
+        List<Batch> chunks = new ArrayList<>();
+        for (long position : positions) {
+            byChunk.computeIfAbsent(BlockKey.chunkKey(position), chunkKey -> {
+                Batch batch = new Batch(chunkKey, mode != BulkOperation.Mode.ACTIVATE);
+                chunks.add(batch);
+                return batch;
+            }).add(position);
+        }
+
+        Request request = new Request(world, mode, ticks, chunks);
+        requests.add(request);
+        return request.future;
+    }
+
+    /**
+     * A call waiting in the queue or being applied.
+     */
+    private static class Request {
+        private final World world;
+        private final BulkOperation.Mode mode;
+        private final int ticks;
+        private final List<Batch> chunks;
+        private final CompletableFuture<Integer> future;
+        private int phase;
+        private int next;
+        private int changed;
+
+        /**
+         * Constructs a new Request.
+         *
+         * @param world the world of the lamps
+         * @param mode the change to apply
+         * @param ticks the number of ticks of the lamps
+         * @param chunks the lamps of the call, split by chunk
+         */
+        Request(World world, BulkOperation.Mode mode, int ticks, List<Batch> chunks) {
+            this.world = world;
+            this.mode = mode;
+            this.ticks = ticks;
+            this.chunks = chunks;
+            this.future = new CompletableFuture<>();
+        }
+    }
+
+    /**
+     * Lamps of one chunk of a call.
+     */
+    private static class Batch {
+        private final long chunkKey;
+        private long[] positions;
+        private int size;
+        private volatile boolean checked;
+
+        /**
+         * Constructs a new empty Batch.
+         *
+         * @param chunkKey the chunk coordinates packed with {@link BlockKey#chunkKey(int, int)}
+         * @param checked whether the lamps can be applied without checking their blocks
+         */
+        Batch(long chunkKey, boolean checked) {
+            this.chunkKey = chunkKey;
+            this.positions = new long[8];
+            this.checked = checked;
+        }
+
+        /**
+         * Drops the positions whose block is not a Redstone Lamp, if the chunk is loaded.
+         * Runs on the thread owning the chunk.
+         *
+         * @param world the world of the chunk
+         */
+        void keepLamps(World world) {
+            if (world.isChunkLoaded((int) (chunkKey >> 32), (int) chunkKey)) {
+                int kept = 0;
+                for (int i = 0; i < size; i++) {
+                    long position = positions[i];
+                    Material type = world.getType(BlockKey.x(position), BlockKey.y(position), BlockKey.z(position));
+                    if (type == Material.REDSTONE_LAMP) {
+                        positions[kept++] = position;
+                    }
+                }
+                size = kept;
+            }
+            checked = true;
+        }
+
+        /**
+         * Adds a lamp.
+         *
+         * @param position the coordinates packed with {@link BlockKey}
+         */
+        void add(long position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+    }
+}
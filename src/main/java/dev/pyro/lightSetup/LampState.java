@@ -1,18 +1,19 @@
 package dev.pyro.lightSetup;
 
 import org.bukkit.Material;
-import org.bukkit.block.Block;
 import org.bukkit.block.data.BlockData;
 import org.bukkit.block.data.Lightable;
 
 /**
  * Enum representing the state of a Redstone Lamp.
+ * Each state holds one shared BlockData instance, created on first use, so writing a lamp never allocates.
  */
 public enum LampState {
     ON(true),
     OFF(false);
 
     private final boolean lit;
+    private BlockData blockData;
 
     /**
      * Constructs a LampState with the specified lit state.
@@ -24,16 +25,30 @@ public enum LampState {
     }
 
     /**
-     * Gets the BlockData for the specified block with the current lamp state.
+     * Gets the state matching a lit flag.
+     *
+     * @param lit whether the lamp is lit
+     * @return ON if lit, otherwise OFF
+     */
+    public static LampState of(boolean lit) {
+        return lit ? ON : OFF;
+    }
+
+    /**
+     * Gets the BlockData of a Redstone Lamp in this state.
+     * The instance is shared and must not be modified.
      *
-     * @param block the block to get the BlockData for
      * @return the BlockData with the current lamp state
      */
-    public BlockData getBlockData(Block block) {
-        BlockData blockData = Material.REDSTONE_LAMP.createBlockData();
-        if (blockData instanceof Lightable lightable) {
-            lightable.setLit(lit);
+    public BlockData getBlockData() {
+        BlockData data = blockData;
+        if (data == null) {
+            data = Material.REDSTONE_LAMP.createBlockData();
+            if (data instanceof Lightable lightable) {
+                lightable.setLit(lit);
+            }
+            blockData = data;
         }
-        return blockData;
+        return data;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,61 @@
+package dev.pyro.lightSetup;
+
+import java.util.List;
+
+/**
+ * Snapshot of the performance counters and lamp counts, used by '/lightsetup stats' and the metrics dump.
+ *
+ * @param togglesPerTick the histogram of lamp toggles per scheduler tick
+ * @param tickNanos the histogram of nanoseconds spent updating lamps per scheduler tick
+ * @param deferDelay the histogram of ticks by which deferred lamp updates were delayed
+ * @param deferredPending the number of due lamps waiting for a later tick
+ * @param budgetScale the fraction of the configured tick budget in use
+ * @param flushNanos the histogram of persistence flush latencies in nanoseconds
+ * @param bytesWritten the number of bytes written by persistence flushes
+ * @param worlds the lamp counts of every world with lamps
+ * @param hottestChunks the chunks with the highest toggle cost, most expensive first
+ */
+public record LampStats(Histogram togglesPerTick, Histogram tickNanos, Histogram deferDelay, int deferredPending,
+                        double budgetScale, Histogram flushNanos, long bytesWritten,
+                        List<WorldStats> worlds, List<ChunkStats> hottestChunks) {
+
+    /**
+     * Lamp counts of a world.
+     *
+     * @param world the name of the world, or its UUID if it is not loaded
+     * @param active the number of lamps being toggled
+     * @param suspended the number of indexed lamps that are not toggled, because their chunk is unloaded or unobserved
+     */
+    public record WorldStats(String world, int active, int suspended) {
+    }
+
+    /**
+     * Toggle cost of a chunk.
+     *
+     * @param world the name of the world, or its UUID if it is not loaded
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @param toggles the number of lamp toggles in the chunk
+     * @param nanos the estimated time spent on those toggles, from the mean cost of a toggle
+     */
+    public record ChunkStats(String world, int chunkX, int chunkZ, long toggles, long nanos) {
+    }
+
+    /**
+     * Gets the number of lamps being toggled in every world.
+     *
+     * @return the number of active lamps
+     */
+    public int activeLamps() {
+        return worlds.stream().mapToInt(WorldStats::active).sum();
+    }
+
+    /**
+     * Gets the number of indexed lamps that are not toggled in every world.
+     *
+     * @return the number of suspended lamps
+     */
+    public int suspendedLamps() {
+        return worlds.stream().mapToInt(WorldStats::suspended).sum();
+    }
+}
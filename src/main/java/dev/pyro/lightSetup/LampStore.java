@@ -0,0 +1,612 @@
+package dev.pyro.lightSetup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Binary lamp store made of a snapshot file and an append-only journal.
+ * The snapshot holds fixed-width records (world UUID, packed coordinates, period, phase, pattern, owner), each followed
+ * by a CRC32. Every change is appended to the journal as a put or remove operation with its own CRC32,
+ * so a torn write at the end of the journal is detected and truncated on the next load.
+ * Once the journal grows past the configured ratio of the snapshot, it is compacted into a new snapshot.
+ * Files written by version 1, whose records have no pattern, and by version 2, whose records have no owner,
+ * are read and rewritten in the current version.
+ * Lamp groups are kept in a separate file, rewritten as a whole whenever a group changes and protected by a
+ * single CRC32; the lamps of a group are stored there instead of as records of their own.
+ * The plugin clock is kept in a third small file, rewritten the same way.
+ * This class is not thread-safe and is meant to be used by a single writer thread.
+ */
+public class LampStore {
+    private static final int SNAPSHOT_MAGIC = 0x4C53534E;
+    private static final int JOURNAL_MAGIC = 0x4C534A4E;
+    private static final int VERSION = 3;
+    private static final int LEGACY_VERSION = 1;
+    private static final int UNOWNED_VERSION = 2;
+    private static final int SNAPSHOT_HEADER_BYTES = 12;
+    private static final int JOURNAL_HEADER_BYTES = 8;
+    private static final int RECORD_BYTES = 52;
+    private static final int UNOWNED_RECORD_BYTES = 36;
+    private static final int LEGACY_RECORD_BYTES = 32;
+    private static final int SNAPSHOT_ENTRY_BYTES = RECORD_BYTES + 4;
+    private static final int JOURNAL_ENTRY_BYTES = 1 + RECORD_BYTES + 4;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+    private static final int GROUPS_MAGIC = 0x4C534750;
+    private static final int GROUPS_VERSION = 2;
+    private static final int UNOWNED_GROUPS_VERSION = 1;
+    private static final int CLOCK_MAGIC = 0x4C53434B;
+    private static final int CLOCK_VERSION = 1;
+    private static final int CLOCK_BYTES = 28;
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Path groupsFile;
+    private final Path clockFile;
+    private final Logger logger;
+    private final double compactionRatio;
+    private final CRC32 crc;
+    private final ByteBuffer entry;
+    private FileChannel journal;
+    private int snapshotRecords;
+    private int journalRecords;
+    private long bytesWritten;
+    private boolean upgradeNeeded;
+
+    /**
+     * Constructs a new LampStore.
+     *
+     * @param folder the folder holding the store files
+     * @param logger the logger used to report damaged data
+     * @param compactionRatio the journal to snapshot size ratio that triggers a compaction
+     */
+    public LampStore(Path folder, Logger logger, double compactionRatio) {
+        this.snapshotFile = folder.resolve("lamps.dat");
+        this.journalFile = folder.resolve("lamps.journal");
+        this.groupsFile = folder.resolve("groups.dat");
+        this.clockFile = folder.resolve("clock.dat");
+        this.logger = logger;
+        this.compactionRatio = compactionRatio;
+        this.crc = new CRC32();
+        this.entry = ByteBuffer.allocate(JOURNAL_ENTRY_BYTES);
+    }
+
+    /**
+     * Loads every stored lamp by replaying the snapshot and the journal.
+     * A damaged tail of the journal is truncated, and the journal is then opened for appending.
+     *
+     * @return the stored lamps in insertion order
+     * @throws IOException if the files cannot be read
+     */
+    public Map<LampKey, LampRecord> load() throws IOException {
+        closeJournal();
+
+        Map<LampKey, LampRecord> lamps = new LinkedHashMap<>();
+        upgradeNeeded = false;
+        snapshotRecords = readSnapshot(lamps);
+        long validLength = replayJournal(lamps);
+
+        if (upgradeNeeded) {
+            writeSnapshot(lamps);
+            openJournal(0);
+            logger.info("Archivio delle lampade aggiornato alla versione " + VERSION);
+        } else {
+            openJournal(validLength);
+        }
+
+        return lamps;
+    }
+
+    /**
+     * Appends changes to the journal and forces them to disk.
+     *
+     * @param changes the changed lamps, with a null value for removed lamps
+     * @throws IOException if the journal cannot be written
+     */
+    public void append(Map<LampKey, LampRecord> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        if (journal == null) {
+            load();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(changes.size() * JOURNAL_ENTRY_BYTES);
+        for (Map.Entry<LampKey, LampRecord> change : changes.entrySet()) {
+            LampRecord record = change.getValue();
+            if (record != null) {
+                writeEntry(buffer, OP_PUT, record.key(), record.period(), record.phase(), record.pattern(), record.owner());
+            } else {
+                writeEntry(buffer, OP_REMOVE, change.getKey(), 0, 0, 0, null);
+            }
+        }
+
+        buffer.flip();
+        bytesWritten += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journal.force(false);
+        journalRecords += changes.size();
+    }
+
+    /**
+     * Loads every stored lamp group.
+     *
+     * @return the stored groups, in the order they were created
+     * @throws IOException if the file cannot be read or is damaged
+     */
+    public List<GroupRecord> loadGroups() throws IOException {
+        List<GroupRecord> groups = new ArrayList<>();
+        if (!Files.exists(groupsFile)) {
+            return groups;
+        }
+
+        byte[] data = Files.readAllBytes(groupsFile);
+        if (data.length < 16 || !checksumMatches(data, 0, data.length - 4, ByteBuffer.wrap(data).getInt(data.length - 4))) {
+            throw new IOException(groupsFile.getFileName() + " danneggiato");
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 4))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != GROUPS_MAGIC || (version != GROUPS_VERSION && version != UNOWNED_GROUPS_VERSION)) {
+                throw new IOException("Formato di " + groupsFile.getFileName() + " non riconosciuto");
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                UUID owner = version == UNOWNED_GROUPS_VERSION ? null : readOwner(in.readLong(), in.readLong());
+                int period = in.readInt();
+                int phase = in.readInt();
+                int pattern = in.readInt();
+                int size = in.readInt();
+                List<LampKey> members = new ArrayList<>(size);
+                for (int j = 0; j < size; j++) {
+                    members.add(new LampKey(new UUID(in.readLong(), in.readLong()), in.readLong()));
+                }
+                groups.add(new GroupRecord(name, period, phase, pattern, owner, members));
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Moves a groups file that cannot be read out of the way, so the next write of the groups does not replace it
+     * and its members can still be recovered by hand. An older damaged copy is never overwritten.
+     *
+     * @return the file the groups were moved to
+     * @throws IOException if the file cannot be moved
+     */
+    public Path preserveGroups() throws IOException {
+        Path copy = groupsFile.resolveSibling(groupsFile.getFileName() + ".corrupt");
+        if (Files.exists(copy)) {
+            copy = groupsFile.resolveSibling(groupsFile.getFileName() + ".corrupt-" + System.currentTimeMillis());
+        }
+        Files.move(groupsFile, copy);
+        return copy;
+    }
+
+    /**
+     * Replaces the stored lamp groups, through a temporary file moved over the current one.
+     *
+     * @param groups the groups to store
+     * @throws IOException if the file cannot be written
+     */
+    public void writeGroups(List<GroupRecord> groups) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(GROUPS_MAGIC);
+            out.writeInt(GROUPS_VERSION);
+            out.writeInt(groups.size());
+            for (GroupRecord group : groups) {
+                out.writeUTF(group.name());
+                out.writeLong(group.owner() != null ? group.owner().getMostSignificantBits() : 0);
+                out.writeLong(group.owner() != null ? group.owner().getLeastSignificantBits() : 0);
+                out.writeInt(group.period());
+                out.writeInt(group.phase());
+                out.writeInt(group.pattern());
+                out.writeInt(group.members().size());
+                for (LampKey key : group.members()) {
+                    out.writeLong(key.world().getMostSignificantBits());
+                    out.writeLong(key.world().getLeastSignificantBits());
+                    out.writeLong(key.position());
+                }
+            }
+            out.writeInt(checksum(bytes.toByteArray(), 0, bytes.size()));
+        }
+
+        writeReplacing(groupsFile, bytes.toByteArray());
+    }
+
+    /**
+     * Loads the stored plugin clock.
+     *
+     * @return the stored clock, or null if no clock has been stored yet
+     * @throws IOException if the file cannot be read or is damaged
+     */
+    public ClockRecord loadClock() throws IOException {
+        if (!Files.exists(clockFile)) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(clockFile));
+        if (buffer.capacity() != CLOCK_BYTES || !checksumMatches(buffer.array(), 0, CLOCK_BYTES - 4, buffer.getInt(CLOCK_BYTES - 4))) {
+            throw new IOException(clockFile.getFileName() + " danneggiato");
+        }
+        if (buffer.getInt() != CLOCK_MAGIC || buffer.getInt() != CLOCK_VERSION) {
+            throw new IOException("Formato di " + clockFile.getFileName() + " non riconosciuto");
+        }
+        return new ClockRecord(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Replaces the stored plugin clock, through a temporary file moved over the current one.
+     *
+     * @param clock the clock to store
+     * @throws IOException if the file cannot be written
+     */
+    public void writeClock(ClockRecord clock) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CLOCK_BYTES);
+        buffer.putInt(CLOCK_MAGIC);
+        buffer.putInt(CLOCK_VERSION);
+        buffer.putLong(clock.tick());
+        buffer.putLong(clock.savedAt());
+        buffer.putInt(checksum(buffer.array(), 0, CLOCK_BYTES - 4));
+        writeReplacing(clockFile, buffer.array());
+    }
+
+    /**
+     * Checks if the journal has grown enough to be compacted.
+     *
+     * @return true if a compaction is due, otherwise false
+     */
+    public boolean needsCompaction() {
+        return journalRecords >= MIN_COMPACTION_RECORDS
+                && journalRecords > snapshotRecords * compactionRatio;
+    }
+
+    /**
+     * Rewrites the snapshot with the current state and empties the journal.
+     * The snapshot is replaced atomically before the journal is truncated, so a crash in between
+     * only replays operations that are already part of the snapshot.
+     *
+     * @throws IOException if the files cannot be read or written
+     */
+    public void compact() throws IOException {
+        Map<LampKey, LampRecord> lamps = load();
+        writeSnapshot(lamps);
+
+        journal.truncate(JOURNAL_HEADER_BYTES);
+        journal.force(true);
+        journalRecords = 0;
+    }
+
+    /**
+     * Replaces the whole store with the given lamps.
+     *
+     * @param lamps the lamps to store
+     * @throws IOException if the files cannot be written
+     */
+    public void replaceAll(Map<LampKey, LampRecord> lamps) throws IOException {
+        if (journal == null) {
+            load();
+        }
+
+        writeSnapshot(lamps);
+        journal.truncate(JOURNAL_HEADER_BYTES);
+        journal.force(true);
+        journalRecords = 0;
+    }
+
+    /**
+     * Gets the number of bytes written to the store since it was created.
+     *
+     * @return the number of bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Closes the journal.
+     *
+     * @throws IOException if the journal cannot be closed
+     */
+    public void close() throws IOException {
+        closeJournal();
+    }
+
+    /**
+     * Reads the snapshot into the given map, skipping damaged records.
+     *
+     * @param lamps the map to fill
+     * @return the number of records in the snapshot
+     * @throws IOException if the snapshot cannot be read
+     */
+    private int readSnapshot(Map<LampKey, LampRecord> lamps) throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return 0;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            int version = readVersion(in, SNAPSHOT_MAGIC, snapshotFile);
+            int recordBytes = recordBytes(version);
+
+            int count = in.readInt();
+            byte[] data = new byte[recordBytes + 4];
+            for (int i = 0; i < count; i++) {
+                in.readFully(data);
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                if (!checksumMatches(data, 0, recordBytes, buffer.getInt(recordBytes))) {
+                    logger.warning("Record danneggiato in " + snapshotFile.getFileName() + " ignorato (" + i + ")");
+                    continue;
+                }
+
+                LampRecord record = readRecord(buffer, version);
+                lamps.put(record.key(), record);
+            }
+            return count;
+        } catch (EOFException e) {
+            logger.warning(snapshotFile.getFileName() + " troncato, caricate " + lamps.size() + " lampade");
+            return lamps.size();
+        }
+    }
+
+    /**
+     * Replays the journal over the given map, stopping at the first damaged entry.
+     *
+     * @param lamps the map to update
+     * @return the length of the valid part of the journal
+     * @throws IOException if the journal cannot be read
+     */
+    private long replayJournal(Map<LampKey, LampRecord> lamps) throws IOException {
+        journalRecords = 0;
+        if (!Files.exists(journalFile)) {
+            return 0;
+        }
+
+        long valid = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(journalFile))) {
+            DataInputStream data = new DataInputStream(in);
+            int version = readVersion(data, JOURNAL_MAGIC, journalFile);
+            int recordBytes = recordBytes(version);
+            int entryBytes = 1 + recordBytes + 4;
+            valid = JOURNAL_HEADER_BYTES;
+
+            byte[] bytes = new byte[entryBytes];
+            while (in.readNBytes(bytes, 0, entryBytes) == entryBytes) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                if (!checksumMatches(bytes, 0, 1 + recordBytes, buffer.getInt(1 + recordBytes))) {
+                    break;
+                }
+
+                byte op = buffer.get();
+                LampRecord record = readRecord(buffer, version);
+                if (op == OP_PUT) {
+                    lamps.put(record.key(), record);
+                } else if (op == OP_REMOVE) {
+                    lamps.remove(record.key());
+                } else {
+                    break;
+                }
+
+                valid += entryBytes;
+                journalRecords++;
+            }
+        } catch (EOFException e) {
+            valid = 0;
+        }
+
+        long length = Files.size(journalFile);
+        if (length > valid && valid > 0) {
+            logger.warning("Scrittura incompleta in " + journalFile.getFileName() + ", rimossi " + (length - valid) + " byte");
+        }
+        return valid;
+    }
+
+    /**
+     * Opens the journal for appending, truncating it to its valid length.
+     *
+     * @param validLength the length of the valid part of the journal, or 0 to start a new journal
+     * @throws IOException if the journal cannot be opened
+     */
+    private void openJournal(long validLength) throws IOException {
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (validLength < JOURNAL_HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_BYTES);
+            header.putInt(JOURNAL_MAGIC).putInt(VERSION).flip();
+            journal.truncate(0);
+            journal.write(header, 0);
+            journal.force(true);
+            validLength = JOURNAL_HEADER_BYTES;
+            journalRecords = 0;
+        } else if (journal.size() > validLength) {
+            journal.truncate(validLength);
+            journal.force(true);
+        }
+
+        journal.position(validLength);
+    }
+
+    private void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Writes a new snapshot through a temporary file and moves it over the current one.
+     *
+     * @param lamps the lamps to write
+     * @throws IOException if the snapshot cannot be written
+     */
+    private void writeSnapshot(Map<LampKey, LampRecord> lamps) throws IOException {
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+
+        try (OutputStream file = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(lamps.size());
+
+            ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_ENTRY_BYTES);
+            for (LampRecord record : lamps.values()) {
+                buffer.clear();
+                writeRecord(buffer, record.key(), record.period(), record.phase(), record.pattern(), record.owner());
+                buffer.putInt(checksum(buffer.array(), 0, RECORD_BYTES));
+                out.write(buffer.array(), 0, SNAPSHOT_ENTRY_BYTES);
+            }
+            out.flush();
+            bytesWritten += SNAPSHOT_HEADER_BYTES + (long) lamps.size() * SNAPSHOT_ENTRY_BYTES;
+        }
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+
+        moveOver(temp, snapshotFile);
+        snapshotRecords = lamps.size();
+    }
+
+    /**
+     * Writes a whole file through a temporary file forced to disk and moved over the current one.
+     *
+     * @param file the file to replace
+     * @param data the new content of the file
+     * @throws IOException if the file cannot be written
+     */
+    private void writeReplacing(Path file, byte[] data) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        moveOver(temp, file);
+        bytesWritten += data.length;
+    }
+
+    /**
+     * Moves a file over another one, atomically when the file system allows it.
+     *
+     * @param source the file to move
+     * @param target the file to replace
+     * @throws IOException if the file cannot be moved
+     */
+    private static void moveOver(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void writeEntry(ByteBuffer buffer, byte op, LampKey key, int period, int phase, int pattern, UUID owner) {
+        entry.clear();
+        entry.put(op);
+        writeRecord(entry, key, period, phase, pattern, owner);
+        entry.putInt(checksum(entry.array(), 0, 1 + RECORD_BYTES));
+        buffer.put(entry.array(), 0, JOURNAL_ENTRY_BYTES);
+    }
+
+    private static void writeRecord(ByteBuffer buffer, LampKey key, int period, int phase, int pattern, UUID owner) {
+        UUID world = key.world();
+        buffer.putLong(world.getMostSignificantBits());
+        buffer.putLong(world.getLeastSignificantBits());
+        buffer.putLong(key.position());
+        buffer.putInt(period);
+        buffer.putInt(phase);
+        buffer.putInt(pattern);
+        buffer.putLong(owner != null ? owner.getMostSignificantBits() : 0);
+        buffer.putLong(owner != null ? owner.getLeastSignificantBits() : 0);
+    }
+
+    private static LampRecord readRecord(ByteBuffer buffer, int version) {
+        UUID world = new UUID(buffer.getLong(), buffer.getLong());
+        long position = buffer.getLong();
+        int period = buffer.getInt();
+        int phase = buffer.getInt();
+        int pattern = version == LEGACY_VERSION ? 0 : buffer.getInt();
+        UUID owner = version == VERSION ? readOwner(buffer.getLong(), buffer.getLong()) : null;
+        return new LampRecord(new LampKey(world, position), period, phase, pattern, owner);
+    }
+
+    /**
+     * Rebuilds a stored owner, written as zeros when there is none.
+     *
+     * @param most the most significant bits of the UUID
+     * @param least the least significant bits of the UUID
+     * @return the owner, or null if it has no owner
+     */
+    private static UUID readOwner(long most, long least) {
+        return most == 0 && least == 0 ? null : new UUID(most, least);
+    }
+
+    /**
+     * Reads the header of a store file, remembering to rewrite the store if the file has an older version.
+     *
+     * @param in the stream positioned at the start of the file
+     * @param magic the magic number expected
+     * @param file the file being read, for error messages
+     * @return the version of the file
+     * @throws IOException if the header is not recognized
+     */
+    private int readVersion(DataInputStream in, int magic, Path file) throws IOException {
+        int fileMagic = in.readInt();
+        int version = in.readInt();
+        if (fileMagic != magic || version < LEGACY_VERSION || version > VERSION) {
+            throw new IOException("Formato di " + file.getFileName() + " non riconosciuto");
+        }
+        if (version != VERSION) {
+            upgradeNeeded = true;
+        }
+        return version;
+    }
+
+    private static int recordBytes(int version) {
+        return switch (version) {
+            case LEGACY_VERSION -> LEGACY_RECORD_BYTES;
+            case UNOWNED_VERSION -> UNOWNED_RECORD_BYTES;
+            default -> RECORD_BYTES;
+        };
+    }
+
+    private boolean checksumMatches(byte[] data, int offset, int length, int expected) {
+        return checksum(data, offset, length) == expected;
+    }
+
+    private int checksum(byte[] data, int offset, int length) {
+        crc.reset();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -1,73 +1,216 @@
 package dev.pyro.lightSetup;
 
-import org.bukkit.Material;
-import org.bukkit.block.Block;
-import org.bukkit.block.data.BlockData;
-import org.bukkit.block.data.Lightable;
-import org.bukkit.plugin.Plugin;
-import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.logging.Logger;
 
 /**
  * Task that toggles the state of a Redstone Lamp.
- * This task is scheduled to run periodically to switch the lamp on and off.
+ * This task is run by the shared {@link LampScheduler} for every lamp slot of the {@link LampIndex} that is due.
+ * The task never reads blocks: lamps whose block is destroyed are removed by {@link LampBreakListener}, renderers
+ * writing blocks check the block type on the thread owning it and skip blocks that are no longer lamps, and
+ * blocks changed without an event are also found by the {@link LampAuditor}.
+ * State changes are not rendered right away: the lamps changed are collected in a {@link SectionBatch} per world
+ * and rendered on {@link #flush()}, sorted by chunk and section, so the writes of a section are applied together.
+ * The state is read from the index when the lamp is rendered, so a lamp changed twice before the flush is always
+ * rendered with its latest state.
  */
-public class LampTask extends BukkitRunnable {
-    private final Block lamp;
-    private boolean isLit;
-    private final Plugin plugin;
+public class LampTask {
+    private final LampIndex index;
+    private final LampRenderer renderer;
+    private final LampMetrics metrics;
+    private final Logger logger;
+    private final Function<UUID, World> worldLookup;
+    private World[] worlds;
+    private SectionBatch[] batches;
+    private final Writer writer;
 
     /**
      * Constructs a new LampTask.
      *
-     * @param lamp the Redstone Lamp block to be toggled
+     * @param index the lamp index holding the lamps to toggle
+     * @param renderer the renderer showing the lamp state
+     * @param metrics the metrics counting the toggles
+     * @param logger the logger receiving toggle errors
      */
-    public LampTask(Block lamp) {
-        this.lamp = lamp;
-        this.isLit = false;
-        this.plugin = LightSetup.getInstance();
+    public LampTask(LampIndex index, LampRenderer renderer, LampMetrics metrics, Logger logger) {
+        this(index, renderer, metrics, logger, Bukkit::getWorld);
     }
 
     /**
-     * The main logic of the task that toggles the lamp's state.
-     * This method is called periodically by the scheduler.
+     * Constructs a new LampTask that looks worlds up with the given function instead of the server.
+     *
+     * @param index the lamp index holding the lamps to toggle
+     * @param renderer the renderer showing the lamp state
+     * @param metrics the metrics counting the toggles
+     * @param logger the logger receiving toggle errors
+     * @param worldLookup the function returning the loaded world of a UUID, or null
      */
-    @Override
-    public void run() {
-        try {
-            if (!lamp.getType().equals(Material.REDSTONE_LAMP)) {
-                this.cancel();
-                return;
-            }
+    LampTask(LampIndex index, LampRenderer renderer, LampMetrics metrics, Logger logger,
+             Function<UUID, World> worldLookup) {
+        this.index = index;
+        this.renderer = renderer;
+        this.metrics = metrics;
+        this.logger = logger;
+        this.worldLookup = worldLookup;
+        this.worlds = new World[4];
+        this.batches = new SectionBatch[4];
+        this.writer = new Writer();
+    }
 
-            isLit = !isLit;
+    /**
+     * The main logic of the task that toggles a lamp's state.
+     * This method is called by the scheduler every time the lamp is due.
+     *
+     * @param slot the slot of the lamp in the index
+     * @param tick the tick being processed
+     * @return true if the lamp should keep running, false if it must be cancelled
+     */
+    public boolean run(int slot, long tick) {
+        return show(slot, index.isLitAt(slot, tick));
+    }
 
-            BlockData blockData = lamp.getBlockData();
+    /**
+     * Sets a lamp to the given state, rendering it on the next flush only if its state changes
+     * or its block has not been rendered since the lamp was indexed.
+     *
+     * @param slot the slot of the lamp in the index
+     * @param isLit whether the lamp should be lit
+     * @return true if the lamp should keep running, false if it must be cancelled
+     */
+    public boolean show(int slot, boolean isLit) {
+        try {
+            int worldId = index.worldOf(slot);
+            if (world(worldId) == null) {
+                return false;
+            }
 
-            if (blockData instanceof Lightable) {
-                Lightable lightable = (Lightable) blockData;
-                lightable.setLit(isLit);
-                lamp.setBlockData(lightable);
-            } else {
-                this.cancel();
+            if (index.isLit(slot) == isLit && !index.isStale(slot)) {
+                return true;
             }
+            index.setLit(slot, isLit);
+            index.setStale(slot, false);
+            long position = index.position(slot);
+            batch(worldId).add(BlockKey.x(position), BlockKey.y(position), BlockKey.z(position), slot);
+            metrics.recordToggle(slot);
+            return true;
         } catch (Exception e) {
-            if (plugin != null) {
-                e.printStackTrace();
+            logger.severe("Errore durante l'aggiornamento della lampada: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Renders the lamps changed since the last flush, chunk by chunk and section by section,
+     * then sends everything rendered.
+     */
+    public void flush() {
+        for (int worldId = 0; worldId < batches.length; worldId++) {
+            SectionBatch batch = batches[worldId];
+            if (batch != null && batch.size() > 0) {
+                writer.start(worldId, worlds[worldId]);
+                batch.drain(writer);
             }
-            this.cancel();
+        }
+        renderer.flush();
+    }
+
+    /**
+     * Forgets the cached world and the pending lamps of a world id, when its world is unloaded.
+     * The id is kept by the index and used again if the world is loaded again, with a new world object.
+     *
+     * @param worldId the world id
+     */
+    public void forgetWorld(int worldId) {
+        if (worldId < worlds.length) {
+            worlds[worldId] = null;
+        }
+        if (worldId < batches.length) {
+            batches[worldId] = null;
         }
     }
 
     /**
-     * Formats the location of the block into a string.
+     * Gets the batch collecting the lamps changed in a world.
      *
-     * @param block the block whose location is to be formatted
-     * @return the formatted location string
+     * @param worldId the world id
+     * @return the batch of the world
      */
-    private String formatLocation(Block block) {
-        return block.getWorld().getName() + ":" +
-                block.getX() + ":" +
-                block.getY() + ":" +
-                block.getZ();
+    private SectionBatch batch(int worldId) {
+        if (worldId >= batches.length) {
+            batches = Arrays.copyOf(batches, Math.max(worldId + 1, batches.length * 2));
+        }
+
+        SectionBatch batch = batches[worldId];
+        if (batch == null) {
+            batch = new SectionBatch();
+            batches[worldId] = batch;
+        }
+        return batch;
+    }
+
+    /**
+     * Gets the loaded world of a world id, caching the lookup.
+     *
+     * @param worldId the world id
+     * @return the world, or null if it is not loaded
+     */
+    private World world(int worldId) {
+        if (worldId >= worlds.length) {
+            worlds = Arrays.copyOf(worlds, Math.max(worldId + 1, worlds.length * 2));
+        }
+
+        World world = worlds[worldId];
+        if (world == null) {
+            world = worldLookup.apply(index.world(worldId));
+            worlds[worldId] = world;
+        }
+        return world;
+    }
+
+    /**
+     * Renders the lamps of one world drained from its batch.
+     * A lamp removed since it was changed, or whose slot now holds another lamp, is skipped.
+     */
+    private class Writer implements SectionBatch.Sink {
+        private int worldId;
+        private World world;
+
+        /**
+         * Prepares the writer for the lamps of a world.
+         *
+         * @param worldId the world id
+         * @param world the loaded world
+         */
+        void start(int worldId, World world) {
+            this.worldId = worldId;
+            this.world = world;
+        }
+
+        @Override
+        public void chunk(int chunkX, int chunkZ) {
+            try {
+                renderer.chunk(world, chunkX, chunkZ);
+            } catch (Exception e) {
+                logger.severe("Errore durante il caricamento del chunk delle lampade: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void write(int x, int y, int z, int slot) {
+            if (!index.isUsed(slot) || index.worldOf(slot) != worldId || index.position(slot) != BlockKey.pack(x, y, z)) {
+                return;
+            }
+
+            try {
+                renderer.render(world, x, y, z, index.isLit(slot));
+            } catch (Exception e) {
+                logger.severe("Errore durante l'aggiornamento della lampada: " + e.getMessage());
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package dev.pyro.lightSetup;
 
 import org.bukkit.command.PluginCommand;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
@@ -19,7 +20,8 @@ public class LightSetup extends JavaPlugin {
 
     /**
      * Called when the plugin is enabled.
-     * Initializes the plugin instance, configuration file, and registers event listeners and commands.
+     * Initializes the plugin instance, configuration file, and registers event listeners, commands and the
+     * {@link LightSetupAPI} service.
      */
     @Override
     public void onEnable() {
@@ -29,33 +31,46 @@ public class LightSetup extends JavaPlugin {
 
         WandCreator.initialize(this);
         lampManager = new LampManager(this);
+        WandSelection selection = new WandSelection();
 
-        getServer().getPluginManager().registerEvents(new LampListener(this, lampManager), this);
+        getServer().getPluginManager().registerEvents(new LampListener(this, lampManager, selection), this);
         getServer().getPluginManager().registerEvents(new LampBreakListener(this, lampManager), this);
+        getServer().getPluginManager().registerEvents(new ChunkListener(lampManager), this);
+        getServer().getPluginManager().registerEvents(new WorldListener(lampManager), this);
 
         PluginCommand command = getCommand("setlights");
         if (command != null) {
-            command.setExecutor(new SetLightsCommand(this, lampManager));
+            command.setExecutor(new SetLightsCommand(this, lampManager, selection));
             getLogger().info("Comando '/setlights' registrato con successo");
         } else {
             getLogger().warning("Impossibile registrare il comando '/setlights'");
             getServer().getPluginManager().disablePlugin(this);
             return;
         }
+
+        PluginCommand adminCommand = getCommand("lightsetup");
+        if (adminCommand != null) {
+            adminCommand.setExecutor(new LightSetupCommand(this, lampManager));
+        } else {
+            getLogger().warning("Impossibile registrare il comando '/lightsetup'");
+        }
+
+        getServer().getServicesManager().register(LightSetupAPI.class, lampManager.getApi(), this, ServicePriority.Normal);
         getLogger().info("LightSetup abilitato con successo");
     }
 
     /**
      * Called when the plugin is disabled.
-     * Saves and stops all active lamps managed by the LampManager.
+     * Stops all active lamps managed by the LampManager, then writes the changes not yet saved.
      */
     @Override
     public void onDisable() {
+        getServer().getServicesManager().unregisterAll(this);
         if (lampManager != null) {
             getLogger().info("Salvataggio delle lampade attive...");
 
-            lampManager.saveAllLamps();
             lampManager.stopAllLamps();
+            lampManager.saveAllLamps();
         }
 
         getLogger().info("LightSetup disabilitato");
@@ -0,0 +1,149 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.World;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Service offered to other plugins through the Bukkit {@link org.bukkit.plugin.ServicesManager}.
+ * <pre>{@code
+ * LightSetupAPI api = Bukkit.getServicesManager().load(LightSetupAPI.class);
+ * api.activate(world, new long[]{LightSetupAPI.pack(x, y, z)}, 20);
+ * }</pre>
+ * Bulk changes can be submitted from any thread. They are queued and applied on the lamp thread in batches,
+ * a few chunks per tick, and every call is written to disk with a single flush once it has been applied.
+ * Positions are packed with {@link #pack(int, int, int)} and must be Redstone Lamps. Before lamps are activated,
+ * the blocks of loaded chunks are checked and positions holding something else are skipped; lamps of unloaded
+ * chunks are checked when their chunk is loaded, and removed if their block is not a Redstone Lamp. Blocks that are
+ * not Redstone Lamps are never changed. Lamps changed through the API have no owner and are not subject to the
+ * per-player limits.
+ * Queries can also be called from any thread and do not allocate.
+ */
+public interface LightSetupAPI {
+    /**
+     * Activates lamps, or changes the ticks of the lamps already active. The lamps of one call toggle in sync.
+     * Positions in loaded chunks whose block is not a Redstone Lamp are skipped.
+     *
+     * @param world the world of the lamps
+     * @param positions the coordinates of the lamps, packed with {@link #pack(int, int, int)}; the array is copied
+     * @param ticks the number of ticks between two toggles
+     * @return a future completed on the lamp thread with the number of lamps changed
+     * @throws IllegalArgumentException if the number of ticks is not positive
+     */
+    CompletableFuture<Integer> activate(World world, long[] positions, int ticks);
+
+    /**
+     * Deactivates lamps and turns them off.
+     *
+     * @param world the world of the lamps
+     * @param positions the coordinates of the lamps, packed with {@link #pack(int, int, int)}; the array is copied
+     * @return a future completed on the lamp thread with the number of lamps deactivated
+     */
+    CompletableFuture<Integer> deactivate(World world, long[] positions);
+
+    /**
+     * Changes the ticks of active lamps, leaving inactive lamps untouched. The lamps of one call toggle in sync.
+     *
+     * @param world the world of the lamps
+     * @param positions the coordinates of the lamps, packed with {@link #pack(int, int, int)}; the array is copied
+     * @param ticks the number of ticks between two toggles
+     * @return a future completed on the lamp thread with the number of lamps changed
+     * @throws IllegalArgumentException if the number of ticks is not positive
+     */
+    CompletableFuture<Integer> retime(World world, long[] positions, int ticks);
+
+    /**
+     * Checks if a lamp is active, running or suspended.
+     *
+     * @param world the world of the lamp
+     * @param x the block x coordinate
+     * @param y the block y coordinate
+     * @param z the block z coordinate
+     * @return true if the lamp is active, otherwise false
+     */
+    boolean isActive(World world, int x, int y, int z);
+
+    /**
+     * Checks if an active lamp is lit at the current tick of the lamp clock.
+     *
+     * @param world the world of the lamp
+     * @param x the block x coordinate
+     * @param y the block y coordinate
+     * @param z the block z coordinate
+     * @return true if the lamp is active and lit, otherwise false
+     */
+    boolean isLit(World world, int x, int y, int z);
+
+    /**
+     * Gets the number of ticks between two toggles of a lamp.
+     *
+     * @param world the world of the lamp
+     * @param x the block x coordinate
+     * @param y the block y coordinate
+     * @param z the block z coordinate
+     * @return the number of ticks, or -1 if the lamp is not active
+     */
+    int getTicks(World world, int x, int y, int z);
+
+    /**
+     * Gets the number of active lamps of a world.
+     *
+     * @param world the world
+     * @return the number of active lamps
+     */
+    int countLamps(World world);
+
+    /**
+     * Copies the positions of the active lamps of a chunk into an array.
+     *
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @param positions the array receiving the positions, packed with {@link #pack(int, int, int)}; lamps past
+     *                  its length are counted but not copied
+     * @return the number of active lamps in the chunk
+     */
+    int getLamps(World world, int chunkX, int chunkZ, long[] positions);
+
+    /**
+     * Packs block coordinates into a position accepted by the API.
+     *
+     * @param x the block x coordinate
+     * @param y the block y coordinate
+     * @param z the block z coordinate
+     * @return the packed position
+     */
+    static long pack(int x, int y, int z) {
+        return BlockKey.pack(x, y, z);
+    }
+
+    /**
+     * Gets the block x coordinate of a packed position.
+     *
+     * @param position the packed position
+     * @return the x coordinate
+     */
+    static int x(long position) {
+        return BlockKey.x(position);
+    }
+
+    /**
+     * Gets the block y coordinate of a packed position.
+     *
+     * @param position the packed position
+     * @return the y coordinate
+     */
+    static int y(long position) {
+        return BlockKey.y(position);
+    }
+
+    /**
+     * Gets the block z coordinate of a packed position.
+     *
+     * @param position the packed position
+     * @return the z coordinate
+     */
+    static int z(long position) {
+        return BlockKey.z(position);
+    }
+}
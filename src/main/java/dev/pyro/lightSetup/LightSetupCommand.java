@@ -0,0 +1,117 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Command executor for the '/lightsetup' admin command.
+ * The 'stats' subcommand shows the performance counters collected by {@link LampMetrics};
+ * the 'reload' subcommand reloads config.yml and the lamp store without restarting the lamps.
+ */
+public class LightSetupCommand implements CommandExecutor {
+    private final Plugin plugin;
+    private final LampManager lampManager;
+
+    /**
+     * Constructs a new LightSetupCommand.
+     *
+     * @param plugin the plugin instance
+     * @param lampManager the lamp manager instance
+     */
+    public LightSetupCommand(Plugin plugin, LampManager lampManager) {
+        this.plugin = plugin;
+        this.lampManager = lampManager;
+    }
+
+    /**
+     * Executes the '/lightsetup' command.
+     *
+     * @param sender the source of the command
+     * @param command the command which was executed
+     * @param label the alias of the command which was used
+     * @param args the arguments passed to the command
+     * @return true if the command was successful, otherwise false
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length > 0 && args[0].equalsIgnoreCase("reload")) {
+            lampManager.reload(sender);
+            return true;
+        }
+
+        if (args.length == 0 || !args[0].equalsIgnoreCase("stats")) {
+            sender.sendMessage("§cUso corretto: /lightsetup stats [reset] | reload");
+            return true;
+        }
+
+        if (args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+            lampManager.runOnLampThread(() -> {
+                lampManager.resetStats();
+                sender.sendMessage("§aStatistiche azzerate!");
+            });
+            return true;
+        }
+
+        int topChunks = plugin.getConfig().getInt("metrics.top-chunks", 5);
+        lampManager.runOnLampThread(() -> sendStats(sender, lampManager.collectStats(topChunks)));
+        return true;
+    }
+
+    /**
+     * Sends the stats to the sender of the command.
+     *
+     * @param sender the source of the command
+     * @param stats the stats to send
+     */
+    private void sendStats(CommandSender sender, LampStats stats) {
+        Histogram toggles = stats.togglesPerTick();
+        Histogram ticks = stats.tickNanos();
+        Histogram flushes = stats.flushNanos();
+        Histogram deferred = stats.deferDelay();
+
+        sender.sendMessage("§6=== Statistiche LightSetup ===");
+        sender.sendMessage("§7Tick misurati: §f" + ticks.count() + " §7- commutazioni totali: §f" + toggles.sum());
+        sender.sendMessage("§7Commutazioni per tick: §fp50 " + toggles.percentile(50) + " §7/ §fp99 "
+                + toggles.percentile(99) + " §7/ §fmax " + toggles.max());
+        sender.sendMessage("§7Tempo lampade per tick: §fp50 " + formatNanos(ticks.percentile(50)) + " §7/ §fp99 "
+                + formatNanos(ticks.percentile(99)) + " §7/ §fmax " + formatNanos(ticks.max()));
+        sender.sendMessage("§7Aggiornamenti rimandati: §f" + deferred.count() + " §7- ritardo in tick §fp50 "
+                + deferred.percentile(50) + " §7/ §fp99 " + deferred.percentile(99) + " §7/ §fmax " + deferred.max()
+                + " §7- in attesa: §f" + stats.deferredPending()
+                + " §7- budget: §f" + Math.round(stats.budgetScale() * 100) + "%");
+        sender.sendMessage("§7Salvataggi: §f" + flushes.count() + " §7- latenza §fp50 " + formatNanos(flushes.percentile(50))
+                + " §7/ §fp99 " + formatNanos(flushes.percentile(99)) + " §7/ §fmax " + formatNanos(flushes.max())
+                + " §7- byte scritti: §f" + stats.bytesWritten());
+
+        for (LampStats.WorldStats world : stats.worlds()) {
+            sender.sendMessage("§7Mondo §f" + world.world() + "§7: attive §a" + world.active()
+                    + " §7- sospese §e" + world.suspended());
+        }
+
+        if (!stats.hottestChunks().isEmpty()) {
+            sender.sendMessage("§7Chunk più costosi:");
+            for (LampStats.ChunkStats chunk : stats.hottestChunks()) {
+                sender.sendMessage("§7- §f" + chunk.world() + " " + chunk.chunkX() + "," + chunk.chunkZ()
+                        + "§7: §f" + chunk.toggles() + " §7commutazioni (~" + formatNanos(chunk.nanos()) + ")");
+            }
+        }
+    }
+
+    /**
+     * Formats a duration in the most readable unit.
+     *
+     * @param nanos the duration in nanoseconds
+     * @return the formatted duration
+     */
+    private static String formatNanos(long nanos) {
+        if (nanos < 1_000) {
+            return nanos + " ns";
+        }
+        if (nanos < 1_000_000) {
+            return String.format("%.1f µs", nanos / 1_000.0);
+        }
+        return String.format("%.2f ms", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,201 @@
+package dev.pyro.lightSetup;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive longs to non-negative ints.
+ * Uses linear probing with backward-shift deletion, so lookups never allocate and no tombstones are left behind.
+ */
+public final class LongIntMap {
+    /**
+     * Value returned by lookups when a key is absent.
+     */
+    public static final int MISSING = -1;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    /**
+     * Callback receiving the entries of the map.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        /**
+         * Called for every entry of the map.
+         *
+         * @param key the key
+         * @param value the value
+         */
+        void accept(long key, int value);
+    }
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    /**
+     * Constructs a new LongIntMap.
+     *
+     * @param expectedSize the number of entries expected
+     */
+    public LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Gets the number of entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the value of a key.
+     *
+     * @param key the key
+     * @return the value, or {@link #MISSING} if the key is absent
+     */
+    public int get(long key) {
+        int index = slot(key);
+        int value;
+        while ((value = values[index]) != MISSING) {
+            if (keys[index] == key) {
+                return value;
+            }
+            index = (index + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    /**
+     * Associates a value with a key.
+     *
+     * @param key the key
+     * @param value the value, must not be negative
+     * @return the previous value, or {@link #MISSING} if the key was absent
+     */
+    public int put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Valore negativo: " + value);
+        }
+
+        int index = slot(key);
+        int current;
+        while ((current = values[index]) != MISSING) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return current;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        if (++size >= resizeAt) {
+            allocate(keys.length << 1);
+        }
+        return MISSING;
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key the key
+     * @return the removed value, or {@link #MISSING} if the key was absent
+     */
+    public int remove(long key) {
+        int index = slot(key);
+        int value;
+        while ((value = values[index]) != MISSING) {
+            if (keys[index] == key) {
+                shiftBack(index);
+                size--;
+                return value;
+            }
+            index = (index + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    /**
+     * Calls the consumer for every entry. The map must not be modified during the iteration.
+     *
+     * @param consumer the consumer receiving the entries
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != MISSING) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        Arrays.fill(values, MISSING);
+        size = 0;
+    }
+
+    /**
+     * Gets the number of bytes used by the backing arrays.
+     *
+     * @return the approximate heap footprint in bytes
+     */
+    public long memoryFootprint() {
+        return (long) keys.length * Long.BYTES + (long) values.length * Integer.BYTES;
+    }
+
+    /**
+     * Fills the hole left by a removed entry by moving back the entries of the same probe chain.
+     *
+     * @param hole the index of the removed entry
+     */
+    private void shiftBack(int hole) {
+        int index = hole;
+        while (true) {
+            index = (index + 1) & mask;
+            if (values[index] == MISSING) {
+                break;
+            }
+
+            int home = slot(keys[index]);
+            if (((index - home) & mask) >= ((index - hole) & mask)) {
+                keys[hole] = keys[index];
+                values[hole] = values[index];
+                hole = index;
+            }
+        }
+        values[hole] = MISSING;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+        size = 0;
+
+        if (oldValues != null) {
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != MISSING) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+}
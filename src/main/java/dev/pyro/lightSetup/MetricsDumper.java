@@ -0,0 +1,189 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Periodic task that appends a snapshot of the metrics to a file in the plugin folder.
+ * The snapshot is taken on the lamp thread and written by an async task.
+ * The CSV format writes one row of totals per dump to metrics.csv; the JSON format writes one object
+ * per line to metrics.json, including the per-world counts and the hottest chunks.
+ */
+public class MetricsDumper implements Runnable {
+    private static final String CSV_HEADER = "timestamp,ticks,toggles,toggles_p50,toggles_p99,toggles_max,"
+            + "tick_ns_p50,tick_ns_p99,tick_ns_max,deferred,defer_ticks_p50,defer_ticks_p99,defer_ticks_max,"
+            + "deferred_pending,budget_scale,flushes,flush_ns_p50,flush_ns_p99,flush_ns_max,"
+            + "bytes_written,active,suspended";
+
+    private final Plugin plugin;
+    private final LampPlatform platform;
+    private final LampManager lampManager;
+    private final int intervalTicks;
+    private final boolean json;
+    private final int topChunks;
+    private final Path file;
+    private LampPlatform.Handle handle;
+
+    /**
+     * Constructs a new MetricsDumper.
+     *
+     * @param plugin the plugin instance
+     * @param platform the platform running the dumps
+     * @param lampManager the lamp manager collecting the stats
+     * @param intervalTicks the number of ticks between two dumps
+     * @param format the file format, 'csv' or 'json'
+     * @param topChunks the number of hottest chunks written in JSON
+     */
+    public MetricsDumper(Plugin plugin, LampPlatform platform, LampManager lampManager, int intervalTicks,
+                         String format, int topChunks) {
+        this.plugin = plugin;
+        this.platform = platform;
+        this.lampManager = lampManager;
+        this.intervalTicks = Math.max(1, intervalTicks);
+        this.json = "json".equalsIgnoreCase(format);
+        this.topChunks = topChunks;
+        this.file = plugin.getDataFolder().toPath().resolve(json ? "metrics.json" : "metrics.csv");
+    }
+
+    /**
+     * Starts the periodic dumps.
+     */
+    public void start() {
+        handle = platform.runRepeating(this, intervalTicks, intervalTicks);
+    }
+
+    /**
+     * Stops the periodic dumps.
+     */
+    public void stop() {
+        if (handle != null) {
+            handle.cancel();
+            handle = null;
+        }
+    }
+
+    /**
+     * Takes a snapshot of the metrics and writes it in the background.
+     */
+    @Override
+    public void run() {
+        LampStats stats = lampManager.collectStats(json ? topChunks : 0);
+        long timestamp = System.currentTimeMillis();
+        String line = json ? toJson(timestamp, stats) : toCsv(timestamp, stats);
+
+        platform.runAsync(() -> append(line));
+    }
+
+    /**
+     * Appends a line to the metrics file, writing the CSV header first if the file is new.
+     *
+     * @param line the line to append
+     */
+    private synchronized void append(String line) {
+        try {
+            if (!json && !Files.exists(file)) {
+                Files.writeString(file, CSV_HEADER + System.lineSeparator(), StandardCharsets.UTF_8);
+            }
+            Files.writeString(file, line + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            plugin.getLogger().severe("Errore salvando le statistiche: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Formats a snapshot as a CSV row.
+     *
+     * @param timestamp the time of the snapshot in milliseconds
+     * @param stats the snapshot
+     * @return the CSV row
+     */
+    private static String toCsv(long timestamp, LampStats stats) {
+        Histogram toggles = stats.togglesPerTick();
+        Histogram ticks = stats.tickNanos();
+        Histogram flushes = stats.flushNanos();
+        Histogram deferred = stats.deferDelay();
+        return timestamp + "," + ticks.count() + "," + toggles.sum() + ","
+                + toggles.percentile(50) + "," + toggles.percentile(99) + "," + toggles.max() + ","
+                + ticks.percentile(50) + "," + ticks.percentile(99) + "," + ticks.max() + ","
+                + deferred.count() + "," + deferred.percentile(50) + "," + deferred.percentile(99) + "," + deferred.max() + ","
+                + stats.deferredPending() + "," + stats.budgetScale() + ","
+                + flushes.count() + "," + flushes.percentile(50) + "," + flushes.percentile(99) + "," + flushes.max() + ","
+                + stats.bytesWritten() + "," + stats.activeLamps() + "," + stats.suspendedLamps();
+    }
+
+    /**
+     * Formats a snapshot as a single-line JSON object.
+     *
+     * @param timestamp the time of the snapshot in milliseconds
+     * @param stats the snapshot
+     * @return the JSON object
+     */
+    private static String toJson(long timestamp, LampStats stats) {
+        StringBuilder builder = new StringBuilder(256);
+        builder.append("{\"timestamp\":").append(timestamp)
+                .append(",\"ticks\":").append(stats.tickNanos().count())
+                .append(",\"toggles\":").append(stats.togglesPerTick().sum())
+                .append(",\"togglesPerTick\":");
+        appendHistogram(builder, stats.togglesPerTick());
+        builder.append(",\"tickNanos\":");
+        appendHistogram(builder, stats.tickNanos());
+        builder.append(",\"deferDelayTicks\":");
+        appendHistogram(builder, stats.deferDelay());
+        builder.append(",\"deferredPending\":").append(stats.deferredPending())
+                .append(",\"budgetScale\":").append(stats.budgetScale());
+        builder.append(",\"flushNanos\":");
+        appendHistogram(builder, stats.flushNanos());
+        builder.append(",\"bytesWritten\":").append(stats.bytesWritten());
+
+        builder.append(",\"worlds\":[");
+        List<LampStats.WorldStats> worlds = stats.worlds();
+        for (int i = 0; i < worlds.size(); i++) {
+            LampStats.WorldStats world = worlds.get(i);
+            builder.append(i == 0 ? "" : ",").append("{\"world\":\"").append(escape(world.world()))
+                    .append("\",\"active\":").append(world.active())
+                    .append(",\"suspended\":").append(world.suspended()).append('}');
+        }
+
+        builder.append("],\"hottestChunks\":[");
+        List<LampStats.ChunkStats> chunks = stats.hottestChunks();
+        for (int i = 0; i < chunks.size(); i++) {
+            LampStats.ChunkStats chunk = chunks.get(i);
+            builder.append(i == 0 ? "" : ",").append("{\"world\":\"").append(escape(chunk.world()))
+                    .append("\",\"x\":").append(chunk.chunkX())
+                    .append(",\"z\":").append(chunk.chunkZ())
+                    .append(",\"toggles\":").append(chunk.toggles())
+                    .append(",\"nanos\":").append(chunk.nanos()).append('}');
+        }
+        return builder.append("]}").toString();
+    }
+
+    /**
+     * Appends the count and percentiles of a histogram as a JSON object.
+     *
+     * @param builder the builder receiving the object
+     * @param histogram the histogram
+     */
+    private static void appendHistogram(StringBuilder builder, Histogram histogram) {
+        builder.append("{\"count\":").append(histogram.count())
+                .append(",\"p50\":").append(histogram.percentile(50))
+                .append(",\"p99\":").append(histogram.percentile(99))
+                .append(",\"max\":").append(histogram.max()).append('}');
+    }
+
+    /**
+     * Escapes a string for use inside a JSON string.
+     *
+     * @param value the string to escape
+     * @return the escaped string
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
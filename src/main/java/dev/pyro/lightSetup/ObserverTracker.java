@@ -0,0 +1,133 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Periodic task that tracks which groups of chunks have a player nearby.
+ * Chunks are grouped in squares of {@code 2^GROUP_SHIFT} chunks per side; a group is observed when a player
+ * is within the configured radius of it. Lamps in groups that become unobserved are frozen, and lamps in
+ * groups that become observed are resumed, so proximity is evaluated per group and not per lamp per tick.
+ */
+public class ObserverTracker implements Runnable {
+    /**
+     * Number of bits dropped from chunk coordinates to get group coordinates.
+     */
+    public static final int GROUP_SHIFT = 2;
+
+    private final LampPlatform platform;
+    private final LampManager lampManager;
+    private final int radiusBlocks;
+    private final int intervalTicks;
+    private volatile Map<UUID, LongIntMap> observed;
+    private LampPlatform.Handle handle;
+
+    /**
+     * Constructs a new ObserverTracker.
+     *
+     * @param platform the platform running the checks on the lamp thread
+     * @param lampManager the lamp manager instance
+     * @param radiusBlocks the distance in blocks within which a player sees a lamp, or 0 to use the view distance
+     * @param intervalTicks the number of ticks between two proximity checks
+     */
+    public ObserverTracker(LampPlatform platform, LampManager lampManager, int radiusBlocks, int intervalTicks) {
+        this.platform = platform;
+        this.lampManager = lampManager;
+        this.radiusBlocks = radiusBlocks;
+        this.intervalTicks = Math.max(1, intervalTicks);
+        this.observed = new HashMap<>();
+    }
+
+    /**
+     * Starts the periodic proximity checks.
+     */
+    public void start() {
+        handle = platform.runRepeating(this, 1, intervalTicks);
+    }
+
+    /**
+     * Stops the periodic proximity checks.
+     */
+    public void stop() {
+        if (handle != null) {
+            handle.cancel();
+            handle = null;
+        }
+    }
+
+    /**
+     * Checks if a chunk belongs to an observed group.
+     *
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @return true if a player is close enough to the chunk, otherwise false
+     */
+    public boolean isObserved(World world, int chunkX, int chunkZ) {
+        LongIntMap groups = observed.get(world.getUID());
+        return groups != null
+                && groups.get(BlockKey.chunkKey(chunkX >> GROUP_SHIFT, chunkZ >> GROUP_SHIFT)) != LongIntMap.MISSING;
+    }
+
+    /**
+     * Recomputes the observed groups and resumes or freezes the lamps of groups whose state changed.
+     */
+    @Override
+    public void run() {
+        Map<UUID, LongIntMap> current = new HashMap<>();
+
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            Location location = player.getLocation();
+            World world = location.getWorld();
+            int radius = radiusBlocks > 0 ? radiusBlocks : world.getViewDistance() * 16;
+            int minX = (location.getBlockX() - radius) >> 4 >> GROUP_SHIFT;
+            int maxX = (location.getBlockX() + radius) >> 4 >> GROUP_SHIFT;
+            int minZ = (location.getBlockZ() - radius) >> 4 >> GROUP_SHIFT;
+            int maxZ = (location.getBlockZ() + radius) >> 4 >> GROUP_SHIFT;
+
+            LongIntMap groups = current.computeIfAbsent(world.getUID(), uid -> new LongIntMap(64));
+            for (int groupX = minX; groupX <= maxX; groupX++) {
+                for (int groupZ = minZ; groupZ <= maxZ; groupZ++) {
+                    groups.put(BlockKey.chunkKey(groupX, groupZ), 1);
+                }
+            }
+        }
+
+        Map<UUID, LongIntMap> previous = observed;
+        observed = current;
+
+        for (Map.Entry<UUID, LongIntMap> entry : previous.entrySet()) {
+            World world = Bukkit.getWorld(entry.getKey());
+            if (world == null) {
+                continue;
+            }
+
+            LongIntMap now = current.get(entry.getKey());
+            entry.getValue().forEach((group, value) -> {
+                if (now == null || now.get(group) == LongIntMap.MISSING) {
+                    lampManager.freezeGroup(world, (int) (group >> 32), (int) group);
+                }
+            });
+        }
+
+        for (Map.Entry<UUID, LongIntMap> entry : current.entrySet()) {
+            World world = Bukkit.getWorld(entry.getKey());
+            if (world == null) {
+                continue;
+            }
+
+            LongIntMap before = previous.get(entry.getKey());
+            entry.getValue().forEach((group, value) -> {
+                if (before == null || before.get(group) == LongIntMap.MISSING) {
+                    lampManager.resumeGroup(world, (int) (group >> 32), (int) group);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Platform running every lamp task on the main thread with the Bukkit scheduler.
+ */
+public class PaperPlatform implements LampPlatform {
+    private final Plugin plugin;
+
+    /**
+     * Constructs a new PaperPlatform.
+     *
+     * @param plugin the plugin owning the tasks
+     */
+    public PaperPlatform(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Checks if the server is region-threaded.
+     *
+     * @return always false
+     */
+    @Override
+    public boolean isRegionThreaded() {
+        return false;
+    }
+
+    /**
+     * Runs a task on the main thread every given number of ticks.
+     *
+     * @param task the task to run
+     * @param delayTicks the number of ticks before the first run
+     * @param periodTicks the number of ticks between two runs
+     * @return the handle of the task
+     */
+    @Override
+    public Handle runRepeating(Runnable task, long delayTicks, long periodTicks) {
+        BukkitTask bukkitTask = plugin.getServer().getScheduler().runTaskTimer(plugin, task, delayTicks, periodTicks);
+        return bukkitTask::cancel;
+    }
+
+    /**
+     * Runs a task on the main thread, immediately if the caller is already on it.
+     *
+     * @param task the task to run
+     */
+    @Override
+    public void runOnLampThread(Runnable task) {
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else {
+            plugin.getServer().getScheduler().runTask(plugin, task);
+        }
+    }
+
+    /**
+     * Runs a task on the main thread, which owns every chunk.
+     *
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @param task the task to run
+     */
+    @Override
+    public void runAt(World world, int chunkX, int chunkZ, Runnable task) {
+        runOnLampThread(task);
+    }
+
+    /**
+     * Runs a task on a background thread.
+     *
+     * @param task the task to run
+     */
+    @Override
+    public void runAsync(Runnable task) {
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, task);
+    }
+}
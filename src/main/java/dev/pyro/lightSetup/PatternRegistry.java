@@ -0,0 +1,123 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Named lamp patterns read from the 'patterns' section of config.yml, compiled at startup and on every reload.
+ * Every pattern is either a bit sequence with a step duration, or a lit and an unlit duration.
+ */
+public class PatternRegistry {
+    private final Map<String, LampPattern> byName;
+    private final Map<Integer, LampPattern> byId;
+
+    /**
+     * Constructs an empty PatternRegistry.
+     */
+    public PatternRegistry() {
+        this.byName = new LinkedHashMap<>();
+        this.byId = new HashMap<>();
+    }
+
+    /**
+     * Compiles the patterns of a configuration section. Invalid patterns are logged and skipped.
+     *
+     * @param section the 'patterns' section, or null if there is none
+     * @param logger the logger receiving the errors
+     * @return the registry
+     */
+    public static PatternRegistry load(ConfigurationSection section, Logger logger) {
+        PatternRegistry registry = new PatternRegistry();
+        if (section == null) {
+            return registry;
+        }
+
+        for (String name : section.getKeys(false)) {
+            try {
+                LampPattern pattern;
+                if (section.isString(name + ".sequence")) {
+                    pattern = LampPattern.fromSequence(name, section.getString(name + ".sequence"),
+                            section.getInt(name + ".step-ticks", 1));
+                } else {
+                    pattern = LampPattern.fromDurations(name, section.getInt(name + ".on-ticks", 0),
+                            section.getInt(name + ".off-ticks", 0));
+                }
+                registry.register(pattern);
+            } catch (IllegalArgumentException e) {
+                logger.severe("Errore nel pattern '" + name + "': " + e.getMessage());
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Compiles the patterns of a configuration section again, keeping the instances of the patterns that did not
+     * change, so lamps and groups using them can be told apart from those whose pattern was edited.
+     *
+     * @param section the 'patterns' section, or null if there is none
+     * @param logger the logger receiving the errors
+     * @param previous the registry in use until now
+     * @return the new registry
+     */
+    public static PatternRegistry reload(ConfigurationSection section, Logger logger, PatternRegistry previous) {
+        PatternRegistry registry = load(section, logger);
+        for (LampPattern pattern : registry.byName.values()) {
+            LampPattern old = previous.get(pattern.name());
+            if (old != null && old.sameAs(pattern)) {
+                registry.byName.put(old.name(), old);
+                registry.byId.put(old.id(), old);
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Adds a compiled pattern.
+     *
+     * @param pattern the pattern
+     * @throws IllegalArgumentException if another pattern has the same id
+     */
+    public void register(LampPattern pattern) {
+        LampPattern other = byId.get(pattern.id());
+        if (other != null && !other.name().equals(pattern.name())) {
+            throw new IllegalArgumentException("Nome in conflitto con il pattern '" + other.name() + "'");
+        }
+        byName.put(pattern.name(), pattern);
+        byId.put(pattern.id(), pattern);
+    }
+
+    /**
+     * Gets a pattern by name.
+     *
+     * @param name the name of the pattern
+     * @return the pattern, or null if there is none with that name
+     */
+    public LampPattern get(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Gets a pattern by the id stored with the lamps.
+     *
+     * @param id the id of the pattern
+     * @return the pattern, or null if there is none with that id
+     */
+    public LampPattern byId(int id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Gets every pattern, in the order they were defined.
+     *
+     * @return the patterns
+     */
+    public Collection<LampPattern> all() {
+        return Collections.unmodifiableCollection(byName.values());
+    }
+}
@@ -0,0 +1,148 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Renderer for Folia that writes lamp blocks on the region threads owning them.
+ * Lamps rendered during a tick are grouped in cells of {@code 2^CELL_SHIFT} chunks per side, matching the
+ * default region section size of Folia, so every cell belongs to a single region. At the end of the tick each
+ * cell is sent as one batch to its region, and the batches of different regions are written in parallel.
+ * Like {@link BlockRenderer}, only the block type is read: blocks that are no longer Redstone Lamps are left as they
+ * are and their lamps are reported back to the lamp thread to be removed.
+ */
+public class RegionRenderer implements LampRenderer {
+    /**
+     * Number of bits dropped from chunk coordinates to get cell coordinates.
+     */
+    public static final int CELL_SHIFT = 4;
+
+    private final LampPlatform platform;
+    private final LampAuditor.InvalidLamps invalidLamps;
+    private final Map<World, Map<Long, Batch>> pending;
+
+    /**
+     * Constructs a new RegionRenderer.
+     *
+     * @param platform the platform running the batches on the region threads
+     * @param invalidLamps the callback receiving lamps whose block is not a Redstone Lamp anymore
+     */
+    public RegionRenderer(LampPlatform platform, LampAuditor.InvalidLamps invalidLamps) {
+        this.platform = platform;
+        this.invalidLamps = invalidLamps;
+        this.pending = new HashMap<>();
+
+        // Created here so the region threads only ever read the shared instances
+        LampState.ON.getBlockData();
+        LampState.OFF.getBlockData();
+    }
+
+    /**
+     * Queues the state of a lamp in the batch of its cell.
+     *
+     * @param world the world of the lamp
+     * @param x the block x coordinate
+     * @param y the block y coordinate
+     * @param z the block z coordinate
+     * @param lit whether the lamp is lit
+     */
+    @Override
+    public void render(World world, int x, int y, int z, boolean lit) {
+        long cell = BlockKey.chunkKey(x >> 4 >> CELL_SHIFT, z >> 4 >> CELL_SHIFT);
+        pending.computeIfAbsent(world, w -> new HashMap<>())
+                .computeIfAbsent(cell, key -> new Batch(world))
+                .add(BlockKey.pack(x, y, z), lit);
+    }
+
+    /**
+     * Sends the batch of every cell to the region owning it.
+     */
+    @Override
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        for (Map<Long, Batch> cells : pending.values()) {
+            for (Map.Entry<Long, Batch> entry : cells.entrySet()) {
+                long cell = entry.getKey();
+                Batch batch = entry.getValue();
+                platform.runAt(batch.world, (int) (cell >> 32) << CELL_SHIFT, (int) cell << CELL_SHIFT, batch);
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Lamp states of one cell, written by the region thread owning the cell.
+     */
+    private class Batch implements Runnable {
+        private final World world;
+        private long[] positions;
+        private long[] lit;
+        private int size;
+
+        /**
+         * Constructs a new empty Batch.
+         *
+         * @param world the world of the cell
+         */
+        Batch(World world) {
+            this.world = world;
+            this.positions = new long[16];
+            this.lit = new long[1];
+        }
+
+        /**
+         * Adds the state of a lamp.
+         *
+         * @param position the coordinates packed with {@link BlockKey}
+         * @param isLit whether the lamp is lit
+         */
+        void add(long position, boolean isLit) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                lit = Arrays.copyOf(lit, (size * 2 + 63) >>> 6);
+            }
+            positions[size] = position;
+            if (isLit) {
+                lit[size >>> 6] |= 1L << size;
+            }
+            size++;
+        }
+
+        /**
+         * Writes every lamp of the batch whose block is still a Redstone Lamp, and reports the others to the
+         * lamp thread. Runs on the region thread owning the cell.
+         */
+        @Override
+        public void run() {
+            long[] invalid = null;
+            int invalidCount = 0;
+            for (int i = 0; i < size; i++) {
+                long position = positions[i];
+                Block block = world.getBlockAt(BlockKey.x(position), BlockKey.y(position), BlockKey.z(position));
+                if (block.getType() != Material.REDSTONE_LAMP) {
+                    if (invalid == null) {
+                        invalid = new long[size - i];
+                    }
+                    invalid[invalidCount++] = position;
+                    continue;
+                }
+                boolean isLit = (lit[i >>> 6] & (1L << i)) != 0;
+                block.setBlockData(LampState.of(isLit).getBlockData(), false);
+            }
+
+            if (invalidCount > 0) {
+                long[] removed = invalid;
+                int count = invalidCount;
+                platform.runOnLampThread(() -> invalidLamps.remove(world, removed, count));
+            }
+        }
+    }
+}
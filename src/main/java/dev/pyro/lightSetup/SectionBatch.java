@@ -0,0 +1,256 @@
+package dev.pyro.lightSetup;
+
+import java.util.Arrays;
+
+/**
+ * Lamp updates of one world collected during a tick and replayed grouped by chunk section.
+ * Every update is a position with an int value, such as a lamp slot. Positions are stored as section-major keys
+ * (chunk x, chunk z, section y, then the position inside the section). Draining first buckets the updates by
+ * chunk, in the order the chunks were first seen, with a hash lookup per update; then the updates of each chunk
+ * are grouped by section, with an insertion sort for the few updates of most chunks and a counting pass over the
+ * 256 section indexes for crowded ones. A full sort of the tick would cost about as much as the writes it saves.
+ * The arrays are reused from tick to tick, so draining does not allocate once they have grown to the size
+ * of a busy tick.
+ */
+public class SectionBatch {
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /**
+     * Receiver of the updates of a batch, in chunk and section order.
+     */
+    public interface Sink {
+        /**
+         * Called before the updates of a chunk.
+         *
+         * @param chunkX the chunk x coordinate
+         * @param chunkZ the chunk z coordinate
+         */
+        void chunk(int chunkX, int chunkZ);
+
+        /**
+         * Called for every update of the current chunk, one section after the other.
+         *
+         * @param x the block x coordinate
+         * @param y the block y coordinate
+         * @param z the block z coordinate
+         * @param value the value added with the position
+         */
+        void write(int x, int y, int z, int value);
+    }
+
+    private final LongIntMap chunkIds;
+    private final int[] sectionStart;
+    private long[] keys;
+    private int[] values;
+    private int[] chunkOf;
+    private long[] sortedKeys;
+    private int[] sortedValues;
+    private int[] chunkStart;
+    private int size;
+
+    /**
+     * Constructs a new empty SectionBatch.
+     */
+    public SectionBatch() {
+        this.chunkIds = new LongIntMap(16);
+        this.sectionStart = new int[257];
+        this.keys = new long[16];
+        this.values = new int[16];
+        this.chunkOf = new int[16];
+        this.sortedKeys = new long[16];
+        this.sortedValues = new int[16];
+        this.chunkStart = new int[17];
+    }
+
+    /**
+     * Adds an update.
+     *
+     * @param x the block x coordinate
+     * @param y the block y coordinate
+     * @param z the block z coordinate
+     * @param value the value replayed with the position
+     */
+    public void add(int x, int y, int z, int value) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            chunkOf = new int[size * 2];
+            sortedKeys = new long[size * 2];
+            sortedValues = new int[size * 2];
+        }
+        keys[size] = key(x, y, z);
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Gets the number of updates in the batch.
+     *
+     * @return the number of updates
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Replays every update in chunk and section order and empties the batch.
+     * The batch is emptied even if the sink throws, so a failing sink does not make it grow from tick to tick.
+     *
+     * @param sink the receiver of the updates
+     */
+    public void drain(Sink sink) {
+        try {
+            int chunks = bucketByChunk();
+
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int start = chunkStart[chunk];
+                int end = chunkStart[chunk + 1];
+                groupBySection(start, end);
+
+                long first = sortedKeys[start];
+                sink.chunk(chunkX(first), chunkZ(first));
+                for (int i = start; i < end; i++) {
+                    long key = sortedKeys[i];
+                    sink.write(x(key), y(key), z(key), sortedValues[i]);
+                }
+            }
+        } finally {
+            size = 0;
+        }
+    }
+
+    /**
+     * Copies the updates into the sorted arrays grouped by chunk, keeping their order inside each chunk,
+     * and fills the start of every chunk group.
+     *
+     * @return the number of chunks
+     */
+    private int bucketByChunk() {
+        chunkIds.clear();
+        int chunks = 0;
+        for (int i = 0; i < size; i++) {
+            long chunkKey = keys[i] >> 20;
+            int chunk = chunkIds.get(chunkKey);
+            if (chunk == LongIntMap.MISSING) {
+                chunk = chunks++;
+                chunkIds.put(chunkKey, chunk);
+                if (chunks >= chunkStart.length) {
+                    chunkStart = Arrays.copyOf(chunkStart, chunkStart.length * 2);
+                }
+                chunkStart[chunk] = 0;
+            }
+            chunkOf[i] = chunk;
+            chunkStart[chunk]++;
+        }
+
+        int offset = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int count = chunkStart[chunk];
+            chunkStart[chunk] = offset;
+            offset += count;
+        }
+        for (int i = 0; i < size; i++) {
+            int target = chunkStart[chunkOf[i]]++;
+            sortedKeys[target] = keys[i];
+            sortedValues[target] = values[i];
+        }
+
+        for (int chunk = chunks; chunk > 0; chunk--) {
+            chunkStart[chunk] = chunkStart[chunk - 1];
+        }
+        chunkStart[0] = 0;
+        return chunks;
+    }
+
+    /**
+     * Packs block coordinates into a section-major key: 22 bits of chunk x, 22 bits of chunk z, 8 bits of
+     * section y, then 4 bits each of local y, z and x. This covers the same coordinates as {@link BlockKey}.
+     *
+     * @param x the block x coordinate
+     * @param y the block y coordinate
+     * @param z the block z coordinate
+     * @return the key
+     */
+    static long key(int x, int y, int z) {
+        return ((long) (x >> 4) << 42)
+                | (((long) (z >> 4) & 0x3FFFFF) << 20)
+                | (((long) (y >> 4) & 0xFF) << 12)
+                | ((y & 15L) << 8)
+                | ((z & 15L) << 4)
+                | (x & 15L);
+    }
+
+    private static int chunkX(long key) {
+        return (int) (key >> 42);
+    }
+
+    private static int chunkZ(long key) {
+        return (int) (key << 22 >> 42);
+    }
+
+    private static int x(long key) {
+        return chunkX(key) << 4 | (int) (key & 15);
+    }
+
+    private static int y(long key) {
+        return (int) (key << 44 >> 56) << 4 | (int) (key >> 8 & 15);
+    }
+
+    private static int z(long key) {
+        return chunkZ(key) << 4 | (int) (key >> 4 & 15);
+    }
+
+    /**
+     * Groups the updates of one chunk by section. Short chunks are sorted by key with an insertion sort; longer ones
+     * are bucketed by section with a counting pass, keeping their order inside each section.
+     *
+     * @param start the first index of the chunk in the sorted arrays
+     * @param end the index after the last update of the chunk
+     */
+    private void groupBySection(int start, int end) {
+        if (end - start <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(start, end);
+            return;
+        }
+
+        Arrays.fill(sectionStart, 0);
+        for (int i = start; i < end; i++) {
+            sectionStart[section(sortedKeys[i]) + 1]++;
+        }
+        for (int section = 1; section < sectionStart.length; section++) {
+            sectionStart[section] += sectionStart[section - 1];
+        }
+        for (int i = start; i < end; i++) {
+            int target = start + sectionStart[section(sortedKeys[i])]++;
+            keys[target] = sortedKeys[i];
+            values[target] = sortedValues[i];
+        }
+        System.arraycopy(keys, start, sortedKeys, start, end - start);
+        System.arraycopy(values, start, sortedValues, start, end - start);
+    }
+
+    /**
+     * Sorts a short range of the sorted keys together with their values.
+     *
+     * @param start the first index of the range
+     * @param end the index after the last element of the range
+     */
+    private void insertionSort(int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            long key = sortedKeys[i];
+            int value = sortedValues[i];
+            int j = i - 1;
+            while (j >= start && sortedKeys[j] > key) {
+                sortedKeys[j + 1] = sortedKeys[j];
+                sortedValues[j + 1] = sortedValues[j];
+                j--;
+            }
+            sortedKeys[j + 1] = key;
+            sortedValues[j + 1] = value;
+        }
+    }
+
+    private static int section(long key) {
+        return (int) (key >> 12) & 0xFF;
+    }
+}
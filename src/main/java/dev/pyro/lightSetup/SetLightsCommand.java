@@ -1,5 +1,6 @@
 package dev.pyro.lightSetup;
 
+import org.bukkit.Location;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -7,25 +8,33 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
 
-import java.util.List;
+import java.util.regex.Pattern;
+
 
 /**
  * Command executor for the '/setlights' command.
- * This command allows players to receive a wand with a specified number of ticks.
+ * This command allows players to receive a wand with a specified number of ticks,
+ * and to activate, deactivate or retime every lamp in the cuboid selected with the wand.
+ * It also manages named lamp groups, whose lamps toggle together.
  */
 public class SetLightsCommand implements CommandExecutor {
+    private static final Pattern GROUP_NAME = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+
     private final Plugin plugin;
     private final LampManager lampManager;
+    private final WandSelection selection;
 
     /**
      * Constructs a new SetLightsCommand.
      *
      * @param plugin the plugin instance
      * @param lampManager the lamp manager instance
+     * @param selection the cuboid selections of the players
      */
-    public SetLightsCommand(Plugin plugin, LampManager lampManager) {
+    public SetLightsCommand(Plugin plugin, LampManager lampManager, WandSelection selection) {
         this.plugin = plugin;
         this.lampManager = lampManager;
+        this.selection = selection;
     }
 
     /**
@@ -44,8 +53,41 @@ public class SetLightsCommand implements CommandExecutor {
             return true;
         }
 
+        Player player = (Player) sender;
+        if (args.length >= 1) {
+            switch (args[0].toLowerCase()) {
+                case "pos1" -> {
+                    selection.setFirst(player.getUniqueId(), player.getLocation().getBlock().getLocation());
+                    player.sendMessage("§dPrimo punto selezionato alla tua posizione");
+                    return true;
+                }
+                case "pos2" -> {
+                    selection.setSecond(player.getUniqueId(), player.getLocation().getBlock().getLocation());
+                    player.sendMessage("§dSecondo punto selezionato alla tua posizione");
+                    return true;
+                }
+                case "on" -> {
+                    return startBulk(player, args, BulkOperation.Mode.ACTIVATE);
+                }
+                case "off" -> {
+                    return startBulk(player, args, BulkOperation.Mode.DEACTIVATE);
+                }
+                case "retime" -> {
+                    return startBulk(player, args, BulkOperation.Mode.RETIME);
+                }
+                case "pattern" -> {
+                    return givePatternWand(player, args);
+                }
+                case "group" -> {
+                    return handleGroup(player, args);
+                }
+                default -> {
+                }
+            }
+        }
+
         if (args.length != 1) {
-            sender.sendMessage("§cUso corretto: /setlights <numero di tick>");
+            sendUsage(sender);
             return true;
         }
 
@@ -55,8 +97,9 @@ public class SetLightsCommand implements CommandExecutor {
                 sender.sendMessage("§cIl numero di tick deve essere positivo!");
                 return true;
             }
-
-            Player player = (Player) sender;
+            if (!lampManager.checkMinTicks(player, ticks, lampManager.getLimits().of(player))) {
+                return true;
+            }
 
             ItemStack wand = WandCreator.createWand(ticks);
             player.getInventory().addItem(wand);
@@ -68,4 +111,201 @@ public class SetLightsCommand implements CommandExecutor {
             return true;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Gives a player a wand activating lamps with a pattern, or lists the patterns if none is given.
+     *
+     * @param player the player running the command
+     * @param args the arguments passed to the command
+     * @return always true, errors are reported to the player
+     */
+    private boolean givePatternWand(Player player, String[] args) {
+        if (args.length < 2) {
+            StringBuilder names = new StringBuilder();
+            for (LampPattern pattern : lampManager.getPatterns().all()) {
+                names.append(names.length() > 0 ? ", " : "").append(pattern.name())
+                        .append(" (").append(pattern.length()).append(" tick)");
+            }
+            player.sendMessage(names.length() > 0
+                    ? "§ePattern disponibili: " + names
+                    : "§cNessun pattern definito in config.yml!");
+            return true;
+        }
+
+        LampPattern pattern = lampManager.getPatterns().get(args[1]);
+        if (pattern == null || args.length > 4) {
+            player.sendMessage(pattern == null ? "§cPattern non trovato: " + args[1] : "§cUso corretto: /setlights pattern <nome> [offset] [incremento]");
+            return true;
+        }
+        if (!lampManager.checkMinTicks(player, pattern.shortestRun(), lampManager.getLimits().of(player))) {
+            return true;
+        }
+
+        try {
+            int offset = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+            int step = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+            player.getInventory().addItem(WandCreator.createPatternWand(pattern.name(), offset, step));
+            player.sendMessage("§aHai ricevuto il Bastone delle Luci con il pattern '" + pattern.name() + "'!");
+        } catch (NumberFormatException e) {
+            player.sendMessage("§cDevi inserire un numero valido!");
+        }
+        return true;
+    }
+
+    /**
+     * Runs a '/setlights group' subcommand: lists, creates, retimes or deletes groups, or gives a group wand.
+     *
+     * @param player the player running the command
+     * @param args the arguments passed to the command
+     * @return always true, errors are reported to the player
+     */
+    private boolean handleGroup(Player player, String[] args) {
+        if (args.length == 1) {
+            lampManager.listGroups(player);
+            return true;
+        }
+        if (args.length < 3) {
+            sendGroupUsage(player);
+            return true;
+        }
+
+        String name = args[2];
+        switch (args[1].toLowerCase()) {
+            case "create", "tick" -> {
+                if (args.length != 4) {
+                    sendGroupUsage(player);
+                    return true;
+                }
+                if (!GROUP_NAME.matcher(name).matches()) {
+                    player.sendMessage("§cIl nome del gruppo può contenere solo lettere, numeri, '_' e '-' (massimo 32 caratteri)!");
+                    return true;
+                }
+                try {
+                    int ticks = Integer.parseInt(args[3]);
+                    if (ticks <= 0) {
+                        player.sendMessage("§cIl numero di tick deve essere positivo!");
+                    } else if (!lampManager.checkMinTicks(player, ticks, lampManager.getLimits().of(player))) {
+                        return true;
+                    } else if (args[1].equalsIgnoreCase("create")) {
+                        lampManager.createGroup(player, name, ticks);
+                    } else {
+                        lampManager.setGroupTicks(player, name, ticks);
+                    }
+                } catch (NumberFormatException e) {
+                    player.sendMessage("§cDevi inserire un numero valido!");
+                }
+            }
+            case "pattern" -> {
+                if (args.length < 4 || args.length > 5) {
+                    sendGroupUsage(player);
+                    return true;
+                }
+                LampPattern pattern = lampManager.getPatterns().get(args[3]);
+                if (pattern == null) {
+                    player.sendMessage("§cPattern non trovato: " + args[3]);
+                    return true;
+                }
+                if (!lampManager.checkMinTicks(player, pattern.shortestRun(), lampManager.getLimits().of(player))) {
+                    return true;
+                }
+                try {
+                    lampManager.setGroupPattern(player, name, pattern, args.length > 4 ? Integer.parseInt(args[4]) : 0);
+                } catch (NumberFormatException e) {
+                    player.sendMessage("§cDevi inserire un numero valido!");
+                }
+            }
+            case "wand" -> {
+                player.getInventory().addItem(WandCreator.createGroupWand(name));
+                player.sendMessage("§aHai ricevuto il Bastone delle Luci del gruppo '" + name + "'!");
+            }
+            case "delete" -> lampManager.deleteGroup(player, name);
+            default -> sendGroupUsage(player);
+        }
+        return true;
+    }
+
+    /**
+     * Sends the usage of the '/setlights group' subcommands.
+     *
+     * @param sender the sender receiving the usage
+     */
+    private void sendGroupUsage(CommandSender sender) {
+        sender.sendMessage("§cUso corretto: /setlights group - elenco dei gruppi");
+        sender.sendMessage("§c/setlights group create <nome> <tick> - crea un gruppo");
+        sender.sendMessage("§c/setlights group wand <nome> - bastone che aggiunge o toglie lampade dal gruppo");
+        sender.sendMessage("§c/setlights group tick <nome> <tick> | pattern <nome> <pattern> [offset] - cambia il lampeggio del gruppo");
+        sender.sendMessage("§c/setlights group delete <nome> - elimina il gruppo e spegne le sue lampade");
+    }
+
+    /**
+     * Starts a bulk operation on the cuboid selected by a player.
+     *
+     * @param player the player running the command
+     * @param args the arguments passed to the command
+     * @param mode the change to apply
+     * @return always true, errors are reported to the player
+     */
+    private boolean startBulk(Player player, String[] args, BulkOperation.Mode mode) {
+        int ticks = 0;
+        if (mode != BulkOperation.Mode.DEACTIVATE) {
+            if (args.length != 2) {
+                sendUsage(player);
+                return true;
+            }
+            try {
+                ticks = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                player.sendMessage("§cDevi inserire un numero valido!");
+                return true;
+            }
+            if (ticks <= 0) {
+                player.sendMessage("§cIl numero di tick deve essere positivo!");
+                return true;
+            }
+        }
+
+        LampLimits.Limit limit = lampManager.getLimits().of(player);
+        if (mode != BulkOperation.Mode.DEACTIVATE && !lampManager.checkMinTicks(player, ticks, limit)) {
+            return true;
+        }
+
+        Location first = selection.getFirst(player.getUniqueId());
+        Location second = selection.getSecond(player.getUniqueId());
+        if (first == null || second == null) {
+            player.sendMessage("§cSeleziona prima due punti con il Bastone delle Luci (click sinistro e click destro da accovacciato)!");
+            return true;
+        }
+        if (!first.getWorld().equals(second.getWorld())) {
+            player.sendMessage("§cI due punti devono essere nello stesso mondo!");
+            return true;
+        }
+
+        int chunks = BulkOperation.chunkCount(first, second);
+        int maxChunks = plugin.getConfig().getInt("bulk.max-chunks", 4096);
+        if (chunks > maxChunks) {
+            player.sendMessage("§cLa selezione è troppo grande: " + chunks + " chunk (massimo " + maxChunks + ")");
+            return true;
+        }
+
+        if (lampManager.startBulk(player, player.getUniqueId(), limit, first, second, mode, ticks)) {
+            player.sendMessage("§eOperazione avviata su " + chunks + " chunk...");
+        } else {
+            player.sendMessage("§cHai già un'operazione in corso!");
+        }
+        return true;
+    }
+
+    /**
+     * Sends the usage of the command.
+     *
+     * @param sender the sender receiving the usage
+     */
+    private void sendUsage(CommandSender sender) {
+        sender.sendMessage("§cUso corretto: /setlights <numero di tick>");
+        sender.sendMessage("§c/setlights pattern [nome] [offset] [incremento] - bastone con un pattern, o elenco dei pattern");
+        sender.sendMessage("§c/setlights group [create|wand|tick|pattern|delete] <nome> - gruppi di lampade sincronizzate");
+        sender.sendMessage("§c/setlights pos1|pos2 - seleziona un angolo alla tua posizione");
+        sender.sendMessage("§c/setlights on <tick>|off|retime <tick> - modifica tutte le lampade selezionate");
+    }
+}
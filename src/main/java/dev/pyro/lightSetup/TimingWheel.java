@@ -0,0 +1,281 @@
+package dev.pyro.lightSetup;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timing wheel keyed by integer entry ids.
+ * Each level has 64 buckets; a bucket on level {@code L} spans {@code 64^L} ticks.
+ * Entries are kept in intrusive doubly linked lists, so scheduling and cancelling are O(1)
+ * and advancing one tick only touches the entries that are due (plus amortized cascades).
+ */
+public class TimingWheel {
+    private static final int NIL = -1;
+    private static final int LEVEL_BITS = 6;
+    private static final int SLOTS = 1 << LEVEL_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final int OVERFLOW_BUCKET = LEVELS * SLOTS;
+
+    /**
+     * Callback invoked for every entry whose deadline has been reached.
+     */
+    @FunctionalInterface
+    public interface Expiry {
+        /**
+         * Called when an entry expires. The entry is already unlinked and may be rescheduled.
+         *
+         * @param id the entry id
+         * @param tick the tick being processed
+         */
+        void expire(int id, long tick);
+    }
+
+    private final int[] heads;
+    private int[] next;
+    private int[] prev;
+    private int[] bucketOf;
+    private long[] deadline;
+    private long now;
+    private int size;
+
+    /**
+     * Constructs a new TimingWheel.
+     *
+     * @param startTick the tick considered already processed
+     * @param initialCapacity the initial number of entry ids
+     */
+    public TimingWheel(long startTick, int initialCapacity) {
+        this.heads = new int[OVERFLOW_BUCKET + 1];
+        Arrays.fill(heads, NIL);
+        this.now = startTick;
+
+        int capacity = Math.max(16, initialCapacity);
+        this.next = new int[capacity];
+        this.prev = new int[capacity];
+        this.bucketOf = new int[capacity];
+        this.deadline = new long[capacity];
+        Arrays.fill(bucketOf, NIL);
+    }
+
+    /**
+     * Gets the last tick processed by the wheel.
+     *
+     * @return the current tick
+     */
+    public long currentTick() {
+        return now;
+    }
+
+    /**
+     * Gets the number of scheduled entries.
+     *
+     * @return the number of scheduled entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if an entry is scheduled.
+     *
+     * @param id the entry id
+     * @return true if the entry is scheduled, otherwise false
+     */
+    public boolean isScheduled(int id) {
+        return id >= 0 && id < bucketOf.length && bucketOf[id] != NIL;
+    }
+
+    /**
+     * Gets the deadline of a scheduled entry.
+     *
+     * @param id the entry id
+     * @return the tick the entry will expire at
+     */
+    public long deadlineOf(int id) {
+        return deadline[id];
+    }
+
+    /**
+     * Schedules an entry, replacing any previous deadline.
+     * Deadlines in the past are moved to the next tick.
+     *
+     * @param id the entry id
+     * @param tick the tick the entry should expire at
+     */
+    public void schedule(int id, long tick) {
+        ensureCapacity(id + 1);
+        if (bucketOf[id] != NIL) {
+            unlink(id);
+            size--;
+        }
+
+        deadline[id] = Math.max(tick, now + 1);
+        link(id, bucketFor(deadline[id]));
+        size++;
+    }
+
+    /**
+     * Cancels a scheduled entry.
+     *
+     * @param id the entry id
+     * @return true if the entry was scheduled, otherwise false
+     */
+    public boolean cancel(int id) {
+        if (!isScheduled(id)) {
+            return false;
+        }
+
+        unlink(id);
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes every entry and keeps the current tick.
+     */
+    public void clear() {
+        Arrays.fill(heads, NIL);
+        Arrays.fill(bucketOf, NIL);
+        size = 0;
+    }
+
+    /**
+     * Removes every entry and moves the wheel to another tick.
+     *
+     * @param tick the tick considered already processed
+     */
+    public void reset(long tick) {
+        clear();
+        now = tick;
+    }
+
+    /**
+     * Advances the wheel up to the given tick, expiring every entry that becomes due.
+     *
+     * @param tick the tick to advance to
+     * @param expiry the callback for expired entries
+     */
+    public void advance(long tick, Expiry expiry) {
+        while (now < tick) {
+            now++;
+            cascade();
+
+            int bucket = (int) (now & SLOT_MASK);
+            int id;
+            while ((id = heads[bucket]) != NIL) {
+                unlink(id);
+                size--;
+                expiry.expire(id, now);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of bytes used by the backing arrays.
+     *
+     * @return the approximate heap footprint in bytes
+     */
+    public long memoryFootprint() {
+        return (long) heads.length * Integer.BYTES
+                + (long) next.length * (Integer.BYTES * 3 + Long.BYTES);
+    }
+
+    /**
+     * Makes sure entry ids below the given bound can be scheduled.
+     *
+     * @param capacity the number of entry ids
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= next.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, next.length + (next.length >> 1));
+        int oldCapacity = next.length;
+        next = Arrays.copyOf(next, newCapacity);
+        prev = Arrays.copyOf(prev, newCapacity);
+        deadline = Arrays.copyOf(deadline, newCapacity);
+        bucketOf = Arrays.copyOf(bucketOf, newCapacity);
+        Arrays.fill(bucketOf, oldCapacity, newCapacity, NIL);
+    }
+
+    /**
+     * Moves the entries of the higher level buckets that start at the current tick down the hierarchy.
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            int shift = level * LEVEL_BITS;
+            if ((now & ((1L << shift) - 1)) != 0) {
+                return;
+            }
+
+            rehash(level * SLOTS + (int) ((now >>> shift) & SLOT_MASK));
+        }
+
+        if ((now & ((1L << (LEVELS * LEVEL_BITS)) - 1)) == 0) {
+            rehash(OVERFLOW_BUCKET);
+        }
+    }
+
+    /**
+     * Re-inserts every entry of a bucket relative to the current tick.
+     *
+     * @param bucket the bucket to empty
+     */
+    private void rehash(int bucket) {
+        int id = heads[bucket];
+        heads[bucket] = NIL;
+
+        while (id != NIL) {
+            int following = next[id];
+            bucketOf[id] = NIL;
+            link(id, bucketFor(deadline[id]));
+            id = following;
+        }
+    }
+
+    /**
+     * Finds the bucket for a deadline: the lowest level whose parent block also contains the current tick.
+     *
+     * @param tick the deadline
+     * @return the bucket index
+     */
+    private int bucketFor(long tick) {
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = level * LEVEL_BITS;
+            if ((tick >>> (shift + LEVEL_BITS)) == (now >>> (shift + LEVEL_BITS))) {
+                return level * SLOTS + (int) ((tick >>> shift) & SLOT_MASK);
+            }
+        }
+
+        return OVERFLOW_BUCKET;
+    }
+
+    private void link(int id, int bucket) {
+        int head = heads[bucket];
+        next[id] = head;
+        prev[id] = NIL;
+        if (head != NIL) {
+            prev[head] = id;
+        }
+        heads[bucket] = id;
+        bucketOf[id] = bucket;
+    }
+
+    private void unlink(int id) {
+        int bucket = bucketOf[id];
+        int before = prev[id];
+        int after = next[id];
+
+        if (before != NIL) {
+            next[before] = after;
+        } else {
+            heads[bucket] = after;
+        }
+        if (after != NIL) {
+            prev[after] = before;
+        }
+
+        bucketOf[id] = NIL;
+    }
+}
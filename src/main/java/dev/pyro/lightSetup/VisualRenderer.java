@@ -0,0 +1,143 @@
+package dev.pyro.lightSetup;
+
+import io.papermc.paper.event.packet.PlayerChunkLoadEvent;
+import io.papermc.paper.math.Position;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renderer that only shows the lamp state to players, leaving the real block untouched.
+ * Changes of a tick are grouped per chunk section and sent to the players that can see the section
+ * as one multi-block-change packet, so the server does no lighting work and chunks are never made dirty.
+ * Players receiving a chunk are sent the current frame of its lamps.
+ */
+public class VisualRenderer implements LampRenderer, Listener {
+    private final LampIndex index;
+    private final Map<World, Map<Long, Map<Position, BlockData>>> pending;
+
+    /**
+     * Constructs a new VisualRenderer.
+     *
+     * @param index the lamp index, used to send the current frame of a chunk
+     */
+    public VisualRenderer(LampIndex index) {
+        this.index = index;
+        this.pending = new HashMap<>();
+    }
+
+    /**
+     * Queues the frame of a lamp for the section it belongs to.
+     *
+     * @param world the world of the lamp
+     * @param x the block x coordinate
+     * @param y the block y coordinate
+     * @param z the block z coordinate
+     * @param lit whether the lamp is lit
+     */
+    @Override
+    public void render(World world, int x, int y, int z, boolean lit) {
+        pending.computeIfAbsent(world, w -> new HashMap<>())
+                .computeIfAbsent(BlockKey.pack(x >> 4, y >> 4, z >> 4), section -> new HashMap<>())
+                .put(Position.block(x, y, z), LampState.of(lit).getBlockData());
+    }
+
+    /**
+     * Sends the queued frames of every section to the players that can see it.
+     */
+    @Override
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<World, Map<Long, Map<Position, BlockData>>> entry : pending.entrySet()) {
+            List<Player> players = entry.getKey().getPlayers();
+            if (players.isEmpty()) {
+                continue;
+            }
+
+            for (Map.Entry<Long, Map<Position, BlockData>> section : entry.getValue().entrySet()) {
+                long key = section.getKey();
+                for (Player player : players) {
+                    if (canSee(player, BlockKey.x(key), BlockKey.z(key))) {
+                        player.sendMultiBlockChange(section.getValue());
+                    }
+                }
+            }
+        }
+
+        pending.clear();
+    }
+
+    /**
+     * Sends the real block of a deactivated lamp to the players that can see it.
+     *
+     * @param world the world of the lamp
+     * @param x the block x coordinate
+     * @param y the block y coordinate
+     * @param z the block z coordinate
+     */
+    @Override
+    public void refresh(World world, int x, int y, int z) {
+        Location location = new Location(world, x, y, z);
+        BlockData blockData = world.getBlockData(x, y, z);
+
+        for (Player player : world.getPlayers()) {
+            if (canSee(player, x >> 4, z >> 4)) {
+                player.sendBlockChange(location, blockData);
+            }
+        }
+    }
+
+    /**
+     * Handles the PlayerChunkLoadEvent.
+     * Sends the current frame of every lamp in the chunk, which the chunk data has just overwritten.
+     *
+     * @param event the player chunk load event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChunkLoad(PlayerChunkLoadEvent event) {
+        Chunk chunk = event.getChunk();
+        int worldId = index.findWorld(chunk.getWorld().getUID());
+        if (worldId < 0) {
+            return;
+        }
+
+        Map<Position, BlockData> frame = new HashMap<>();
+        for (int slot = index.firstInChunk(worldId, BlockKey.chunkKey(chunk.getX(), chunk.getZ()));
+             slot >= 0; slot = index.nextInChunk(slot)) {
+            long position = index.position(slot);
+            frame.put(Position.block(BlockKey.x(position), BlockKey.y(position), BlockKey.z(position)),
+                    LampState.of(index.isLit(slot)).getBlockData());
+        }
+
+        if (!frame.isEmpty()) {
+            event.getPlayer().sendMultiBlockChange(frame);
+        }
+    }
+
+    /**
+     * Checks if a chunk is within the view distance of a player.
+     *
+     * @param player the player
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @return true if the player can see the chunk, otherwise false
+     */
+    private boolean canSee(Player player, int chunkX, int chunkZ) {
+        Location location = player.getLocation();
+        int distance = player.getSendViewDistance();
+        return Math.abs((location.getBlockX() >> 4) - chunkX) <= distance
+                && Math.abs((location.getBlockZ() >> 4) - chunkZ) <= distance;
+    }
+}
@@ -21,6 +21,10 @@ public class WandCreator {
     private static final String WAND_NAME = "§bBastone delle Luci";
 
     private static NamespacedKey tickKey;
+    private static NamespacedKey patternKey;
+    private static NamespacedKey offsetKey;
+    private static NamespacedKey stepKey;
+    private static NamespacedKey groupKey;
     private static Plugin pluginInstance;
 
     /**
@@ -31,6 +35,10 @@ public class WandCreator {
     public static void initialize(Plugin plugin) {
         pluginInstance = plugin;
         tickKey = new NamespacedKey(plugin, "lamp_tick_value");
+        patternKey = new NamespacedKey(plugin, "lamp_pattern");
+        offsetKey = new NamespacedKey(plugin, "lamp_pattern_offset");
+        stepKey = new NamespacedKey(plugin, "lamp_pattern_step");
+        groupKey = new NamespacedKey(plugin, "lamp_group");
     }
 
     /**
@@ -78,6 +86,141 @@ public class WandCreator {
         return wand;
     }
 
+    /**
+     * Creates a wand that activates lamps with a pattern.
+     * The offset grows by the given step after every activation, so clicking lamps in a row builds a chaser.
+     *
+     * @param pattern the name of the pattern
+     * @param offset the offset given to the next lamp
+     * @param step the number of ticks added to the offset after every activation
+     * @return the created wand item
+     */
+    public static ItemStack createPatternWand(String pattern, int offset, int step) {
+        if (pluginInstance == null) {
+            throw new IllegalStateException("WandCreator non è stato inizializzato!");
+        }
+
+        ItemStack wand = new ItemStack(Material.STICK);
+        ItemMeta meta = wand.getItemMeta();
+
+        meta.setDisplayName(WAND_NAME + " §7(" + pattern + ")");
+        meta.setLore(patternLore(pattern, offset, step));
+        meta.addEnchant(Enchantment.UNBREAKING, 1, true);
+        meta.addItemFlags(ItemFlag.HIDE_ENCHANTS);
+
+        PersistentDataContainer container = meta.getPersistentDataContainer();
+        container.set(patternKey, PersistentDataType.STRING, pattern);
+        container.set(offsetKey, PersistentDataType.INTEGER, offset);
+        container.set(stepKey, PersistentDataType.INTEGER, step);
+
+        wand.setItemMeta(meta);
+
+        return wand;
+    }
+
+    /**
+     * Creates a wand that adds lamps to a group, or removes them if they are already members.
+     *
+     * @param group the name of the group
+     * @return the created wand item
+     */
+    public static ItemStack createGroupWand(String group) {
+        if (pluginInstance == null) {
+            throw new IllegalStateException("WandCreator non è stato inizializzato!");
+        }
+
+        ItemStack wand = new ItemStack(Material.STICK);
+        ItemMeta meta = wand.getItemMeta();
+
+        meta.setDisplayName(WAND_NAME + " §7[" + group + "]");
+
+        List<String> lore = new ArrayList<>();
+        lore.add("§7Gruppo: " + group);
+        lore.add("§7Clicca con il tasto destro su una Redstone Lamp");
+        lore.add("§7per aggiungerla o toglierla dal gruppo");
+        meta.setLore(lore);
+        meta.addEnchant(Enchantment.UNBREAKING, 1, true);
+        meta.addItemFlags(ItemFlag.HIDE_ENCHANTS);
+
+        meta.getPersistentDataContainer().set(groupKey, PersistentDataType.STRING, group);
+
+        wand.setItemMeta(meta);
+
+        return wand;
+    }
+
+    /**
+     * Gets the group of the wand item.
+     *
+     * @param wand the wand item
+     * @return the name of the group, or null if the wand does not add lamps to a group
+     */
+    public static String getWandGroup(ItemStack wand) {
+        if (wand == null || !wand.hasItemMeta()) {
+            return null;
+        }
+        return wand.getItemMeta().getPersistentDataContainer().get(groupKey, PersistentDataType.STRING);
+    }
+
+    /**
+     * Gets the pattern of the wand item.
+     *
+     * @param wand the wand item
+     * @return the name of the pattern, or null if the wand uses a number of ticks
+     */
+    public static String getWandPattern(ItemStack wand) {
+        if (wand == null || !wand.hasItemMeta()) {
+            return null;
+        }
+        return wand.getItemMeta().getPersistentDataContainer().get(patternKey, PersistentDataType.STRING);
+    }
+
+    /**
+     * Gets the offset given by a pattern wand to the next lamp.
+     *
+     * @param wand the wand item
+     * @return the offset in ticks
+     */
+    public static int getWandOffset(ItemStack wand) {
+        Integer offset = wand.getItemMeta().getPersistentDataContainer().get(offsetKey, PersistentDataType.INTEGER);
+        return offset != null ? offset : 0;
+    }
+
+    /**
+     * Adds the step of a pattern wand to its offset.
+     *
+     * @param wand the wand item
+     */
+    public static void advanceWandOffset(ItemStack wand) {
+        ItemMeta meta = wand.getItemMeta();
+        PersistentDataContainer container = meta.getPersistentDataContainer();
+        Integer step = container.get(stepKey, PersistentDataType.INTEGER);
+        if (step == null || step == 0) {
+            return;
+        }
+
+        int offset = getWandOffset(wand) + step;
+        container.set(offsetKey, PersistentDataType.INTEGER, offset);
+        meta.setLore(patternLore(container.get(patternKey, PersistentDataType.STRING), offset, step));
+        wand.setItemMeta(meta);
+    }
+
+    /**
+     * Builds the lore of a pattern wand.
+     *
+     * @param pattern the name of the pattern
+     * @param offset the offset given to the next lamp
+     * @param step the number of ticks added to the offset after every activation
+     * @return the lore lines
+     */
+    private static List<String> patternLore(String pattern, int offset, int step) {
+        List<String> lore = new ArrayList<>();
+        lore.add("§7Pattern: " + pattern);
+        lore.add("§7Offset: " + offset + " tick" + (step != 0 ? " (+" + step + " per lampada)" : ""));
+        lore.add("§7Clicca con il tasto destro su una Redstone Lamp");
+        return lore;
+    }
+
     /**
      * Gets the number of ticks from the wand item.
      *
@@ -0,0 +1,73 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.Location;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the two corners of the cuboid selected by every player with the wand.
+ */
+public class WandSelection {
+    private final Map<UUID, Location> firstCorners;
+    private final Map<UUID, Location> secondCorners;
+
+    /**
+     * Constructs a new WandSelection.
+     */
+    public WandSelection() {
+        this.firstCorners = new ConcurrentHashMap<>();
+        this.secondCorners = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Sets the first corner of a player's selection.
+     *
+     * @param player the player id
+     * @param location the block location of the corner
+     */
+    public void setFirst(UUID player, Location location) {
+        firstCorners.put(player, location.clone());
+    }
+
+    /**
+     * Sets the second corner of a player's selection.
+     *
+     * @param player the player id
+     * @param location the block location of the corner
+     */
+    public void setSecond(UUID player, Location location) {
+        secondCorners.put(player, location.clone());
+    }
+
+    /**
+     * Gets the first corner of a player's selection.
+     *
+     * @param player the player id
+     * @return the corner, or null if it is not set
+     */
+    public Location getFirst(UUID player) {
+        return firstCorners.get(player);
+    }
+
+    /**
+     * Gets the second corner of a player's selection.
+     *
+     * @param player the player id
+     * @return the corner, or null if it is not set
+     */
+    public Location getSecond(UUID player) {
+        return secondCorners.get(player);
+    }
+
+    /**
+     * Forgets a player's selection.
+     *
+     * @param player the player id
+     */
+    public void clear(UUID player) {
+        firstCorners.remove(player);
+        secondCorners.remove(player);
+    }
+}
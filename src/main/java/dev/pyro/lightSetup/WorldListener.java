@@ -0,0 +1,47 @@
+package dev.pyro.lightSetup;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+/**
+ * Listener for world load and unload events.
+ * This listener loads the stored lamps of worlds loaded after startup and releases the lamps of unloaded worlds,
+ * so unloaded worlds use no memory and no tick time while their lamps stay in the lamp store.
+ */
+public class WorldListener implements Listener {
+    private final LampManager lampManager;
+
+    /**
+     * Constructs a new WorldListener.
+     *
+     * @param lampManager the lamp manager instance
+     */
+    public WorldListener(LampManager lampManager) {
+        this.lampManager = lampManager;
+    }
+
+    /**
+     * Handles the WorldLoadEvent.
+     * Loads the stored lamps of the world.
+     *
+     * @param event the world load event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        lampManager.attachWorld(event.getWorld());
+    }
+
+    /**
+     * Handles the WorldUnloadEvent.
+     * Releases every lamp of the world, keeping it in the lamp store.
+     *
+     * @param event the world unload event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        lampManager.detachWorld(event.getWorld());
+    }
+}